@@ -1,14 +1,26 @@
 package io.github.djhworld.io;
 
 
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import static java.nio.ByteBuffer.wrap;
 
 public interface CompressionStrategy {
     CompressedOutputStream newOutputStream(OutputStream outputStream) throws IOException;
 
     InputStream newInputStream(InputStream inputStream) throws IOException;
 
+    default ByteBuffer decompress(ByteBuffer compressed, int uncompressedLength) throws IOException {
+        byte[] bytes = new byte[uncompressedLength];
+        try (DataInputStream inputStream = new DataInputStream(newInputStream(new ByteBufferInputStream(compressed)))) {
+            inputStream.readFully(bytes);
+        }
+        return wrap(bytes);
+    }
+
     CompressionType getCompressionType();
 }
@@ -0,0 +1,108 @@
+package io.github.djhworld.io;
+
+import org.slf4j.Logger;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.READ;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Source for immutable local files, the file is opened once and
+ * mapped into memory so that ranges are served as views over the
+ * mapping without a system call or a copy.
+ * <p>
+ * Files larger than the mapping limit are read with positional
+ * reads against the one shared channel instead, which run
+ * concurrently as they never move the channel's position.
+ * <p>
+ * Closing releases the file descriptor. The JDK offers no way to
+ * unmap the file, the mapping is released once the buffers viewing
+ * it are no longer reachable.
+ */
+public class MappedFileSource implements Source {
+    private static final Logger LOGGER = getLogger(MappedFileSource.class);
+    public static final long DEFAULT_MAX_MAPPED_BYTES = Integer.MAX_VALUE;
+    private final Path location;
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+
+    public MappedFileSource(Path location) throws IOException {
+        this(location, DEFAULT_MAX_MAPPED_BYTES);
+    }
+
+    public MappedFileSource(Path location, long maxMappedBytes) throws IOException {
+        this.location = location;
+        this.channel = FileChannel.open(location, READ);
+
+        try {
+            long size = channel.size();
+            if (size <= maxMappedBytes) {
+                this.mapped = channel.map(READ_ONLY, 0, size);
+            } else {
+                LOGGER.info(location + " is " + size + " bytes, too large to map so falling back to positional reads");
+                this.mapped = null;
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+        return new FileInputStream(location.toFile());
+    }
+
+    @Override
+    public InputStream getRange(int offset, int length) throws IOException {
+        return new ByteBufferInputStream(getBuffer(offset, length));
+    }
+
+    @Override
+    public ByteBuffer getBuffer(int offset, int length) throws IOException {
+        if (mapped != null)
+            return slice(offset, length);
+
+        return read(offset, length);
+    }
+
+    @Override
+    public Path getLocation() {
+        return location;
+    }
+
+    public boolean isMapped() {
+        return mapped != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        int end = (int) Math.min(mapped.capacity(), (long) offset + length);
+        ByteBuffer view = mapped.duplicate();
+        view.position(offset);
+        view.limit(end);
+        return view.slice();
+    }
+
+    private ByteBuffer read(int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0)
+                break;
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -1,13 +1,36 @@
 package io.github.djhworld.io;
 
+import java.io.Closeable;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 
-public interface Source {
+import static java.nio.ByteBuffer.wrap;
+
+public interface Source extends Closeable {
     InputStream open() throws IOException;
 
     InputStream getRange(int offset, int length) throws IOException;
 
+    /**
+     * Sources backed by memory can override this to return a view of the range without copying
+     */
+    default ByteBuffer getBuffer(int offset, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        try (DataInputStream inputStream = new DataInputStream(getRange(offset, length))) {
+            inputStream.readFully(bytes);
+        }
+        return wrap(bytes);
+    }
+
     Path getLocation();
+
+    /**
+     * Sources holding open files release them here, streams and buffers already handed out stay usable
+     */
+    @Override
+    default void close() throws IOException {
+    }
 }
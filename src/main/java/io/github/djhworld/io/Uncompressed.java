@@ -3,6 +3,7 @@ package io.github.djhworld.io;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import static io.github.djhworld.io.CompressionType.*;
 
@@ -18,6 +19,11 @@ public class Uncompressed implements CompressionStrategy {
         return inputStream;
     }
 
+    @Override
+    public ByteBuffer decompress(ByteBuffer compressed, int uncompressedLength) {
+        return compressed;
+    }
+
     @Override
     public CompressionType getCompressionType() {
         return UNCOMPRESSED;
@@ -0,0 +1,73 @@
+package io.github.djhworld.io;
+
+import org.slf4j.Logger;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Releases the mapping behind a {@link MappedByteBuffer} straight away, rather than
+ * whenever the buffer happens to be collected. The JDK has no public way to do this, so
+ * the buffer's cleaner is run the way the JDK runs it for direct buffers, through
+ * {@code Unsafe.invokeCleaner} on Java 9 and later or the buffer's own cleaner on Java 8.
+ * Where neither is reachable the mapping is left to the garbage collector.
+ * <p>
+ * Touching a buffer, or any view of it, once it has been unmapped crashes the JVM, so
+ * only the sole owner of a mapping may unmap it and only once nothing can read it again.
+ */
+public final class Unmapper {
+    private static final Logger LOGGER = getLogger(Unmapper.class);
+    private static final Cleaner CLEANER = findCleaner();
+
+    private Unmapper() {
+    }
+
+    /**
+     * @return true if mappings are released when unmapped, rather than left to the garbage collector
+     */
+    public static boolean isSupported() {
+        return CLEANER != null;
+    }
+
+    public static void unmap(MappedByteBuffer buffer) {
+        if (CLEANER == null || buffer == null)
+            return;
+
+        try {
+            CLEANER.clean(buffer);
+        } catch (Exception e) {
+            LOGGER.warn("Could not unmap buffer, leaving it to the garbage collector", e);
+        }
+    }
+
+    private static Cleaner findCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> invokeCleaner.invoke(unsafe, buffer);
+        } catch (Exception e) {
+            // before Java 9 each direct buffer holds its own cleaner
+        }
+
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> clean.invoke(cleaner.invoke(buffer));
+        } catch (Exception e) {
+            LOGGER.info("Mapped buffers cannot be unmapped on this JVM, mappings are released once collected");
+            return null;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Cleaner {
+        void clean(MappedByteBuffer buffer) throws Exception;
+    }
+}
@@ -1,86 +1,592 @@
 package io.github.djhworld.log;
 
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
 import io.github.djhworld.log.exception.CommitLogException;
+import io.github.djhworld.model.RowBatch;
 import io.github.djhworld.model.RowMutation;
+import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Iterator;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static io.github.djhworld.model.RowMutation.deserialise;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Collections.emptyIterator;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.ConcurrentHashMap.newKeySet;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.apache.commons.io.IOUtils.closeQuietly;
 import static org.slf4j.LoggerFactory.getLogger;
 
+/**
+ * Records are committed in groups. Callers queue their records and wait while a
+ * single writer thread drains the queue, writes everything queued as one buffer and
+ * forces it to disk once, releasing every caller in the group once it is durable.
+ * <p>
+ * Records queued while a group is being forced go out together in the next group, so
+ * groups grow with the number of concurrent writers. A group may also wait up to a
+ * maximum delay for more records to arrive, trading latency for fewer forces.
+ * <p>
+ * Each commit asks for a {@link Durability}. A group is only forced if it holds a
+ * {@link Durability#SYNC} record, records written without a force are forced once the
+ * sync interval passes if any asked for {@link Durability#PERIODIC}, and whenever the
+ * log moves on to a new segment. The time each commit takes to reach the durability it
+ * asked for is kept in a histogram per mode.
+ * <p>
+ * The log is a directory of preallocated {@link Segment}s with increasing sequence
+ * numbers, a new segment is started once the current one is full, each time the log
+ * is opened and each time it is marked. A mark is the sequence of the segment started,
+ * so checkpointing up to it only deletes the segments before it and never waits on,
+ * or rewrites anything under, the writer.
+ * <p>
+ * One log is shared by every tablet on a server, so commits from all of them are grouped
+ * into the same writes. Each record is tagged with the tablet that committed it, and
+ * each tablet checkpoints its own flush watermark, the mark taken when its mem table was
+ * frozen. A segment is only deleted once every tablet with records in it has flushed
+ * past it, so a tablet that stops flushing holds on to every segment it wrote to. The
+ * watermarks are kept in a file next to the segments so they outlive the process.
+ * <p>
+ * When the log is opened the segments left over are read once and the records each tablet
+ * has not flushed yet are split into recovery files, so each tablet replays only its own
+ * records, see {@link #forTablet(String)}. Records already flushed are skipped and
+ * segments holding nothing else are deleted.
+ * <p>
+ * Records are binary and checksummed, see {@link LogRecords}. Each segment is replayed
+ * up to its last whole record. Single file logs written by earlier versions, text or
+ * binary, each kept the records of one tablet. Given the tablet each belongs to they
+ * are adopted as segments of their own, their records tagged with that tablet, so it
+ * replays them and retires them once flushed like any other, see
+ * {@link #CommitLog(Path, Map)}. A single file log at the location of the log whose
+ * tablet is not known becomes the first segment untagged, only read by iterating the
+ * whole log and only deleted by {@link #checkpoint()}.
+ */
 public class CommitLog implements Iterable<RowMutation>, Closeable {
     private static final Logger LOGGER = getLogger(CommitLog.class);
-    private static final byte[] NEWLINE = "\n".getBytes();
+    public static final int DEFAULT_MAX_GROUP_RECORDS = 1024;
+    public static final long DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 100;
+    private static final PendingRecord CLOSE = new PendingRecord(null, Durability.SYNC, new byte[0]);
+    private static final String RECOVERY_DIRECTORY = "recovery";
+    private static final String WATERMARKS_FILE = "watermarks";
+    private static final int RECOVERY_BUFFER_BYTES = 64 * 1024;
     private final Path location;
-    private OutputStream outputStream;
-    ReentrantReadWriteLock.WriteLock writeLock;
-    ReentrantReadWriteLock.ReadLock readLock;
+    private final Map<String, Path> legacyLogs;
+    private final long segmentBytes;
+    private final int maxGroupRecords;
+    private final long maxGroupDelayNanos;
+    private final long syncIntervalNanos;
+    private final Map<Durability, Histogram> commitLatencies;
+    private final BlockingQueue<PendingRecord> pendingRecords;
+    private final NavigableMap<Long, Path> segments;
+    private final Map<Long, Set<String>> segmentTablets;
+    private final Map<String, Long> flushWatermarks;
+    private final Map<String, Path> recoveryFiles;
+    private final AtomicLong sequence;
+    private final ReentrantLock writeLock;
+    private final ReentrantLock retireLock;
+    private Segment currentSegment;
+    private Thread writer;
+    private volatile boolean closed;
+    private boolean unsynced;
+    private long syncDeadline;
 
 
     public CommitLog(Path location) throws IOException {
+        this(location, DEFAULT_SEGMENT_BYTES, DEFAULT_MAX_GROUP_RECORDS, 0, MICROSECONDS);
+    }
+
+    /**
+     * @param legacyLogs single file logs written by earlier versions by the tablet each belongs to,
+     *                   those that exist are moved into the log as segments holding that tablet's records
+     */
+    public CommitLog(Path location, Map<String, Path> legacyLogs) throws IOException {
+        this(location, legacyLogs, DEFAULT_SEGMENT_BYTES, DEFAULT_MAX_GROUP_RECORDS, 0, MILLISECONDS.toNanos(DEFAULT_SYNC_INTERVAL_MILLIS), NANOSECONDS);
+    }
+
+    /**
+     * @param maxGroupRecords most records written and forced together
+     * @param maxGroupDelay   longest a group waits for more records once its first arrives,
+     *                        zero to only group records queued while the previous group was forced
+     */
+    public CommitLog(Path location, int maxGroupRecords, long maxGroupDelay, TimeUnit unit) throws IOException {
+        this(location, DEFAULT_SEGMENT_BYTES, maxGroupRecords, maxGroupDelay, unit);
+    }
+
+    /**
+     * @param location     directory holding the segments of the log
+     * @param segmentBytes size each segment is preallocated to, a group larger than this gets a segment of its own
+     */
+    public CommitLog(Path location, long segmentBytes, int maxGroupRecords, long maxGroupDelay, TimeUnit unit) throws IOException {
+        this(location, segmentBytes, maxGroupRecords, unit.toNanos(maxGroupDelay), MILLISECONDS.toNanos(DEFAULT_SYNC_INTERVAL_MILLIS), NANOSECONDS);
+    }
+
+    /**
+     * @param syncInterval longest a record committed with {@link Durability#PERIODIC} is left before it is forced to disk
+     */
+    public CommitLog(Path location, long segmentBytes, int maxGroupRecords, long maxGroupDelay, long syncInterval, TimeUnit unit) throws IOException {
+        this(location, emptyMap(), segmentBytes, maxGroupRecords, maxGroupDelay, syncInterval, unit);
+    }
+
+    private CommitLog(Path location, Map<String, Path> legacyLogs, long segmentBytes, int maxGroupRecords, long maxGroupDelay, long syncInterval, TimeUnit unit) throws IOException {
+        checkArgument(segmentBytes > 0 && segmentBytes <= Integer.MAX_VALUE, "Segment size must be positive and fit in one mapping");
+        checkArgument(maxGroupRecords > 0, "A group must hold at least one record");
+        checkArgument(maxGroupDelay >= 0, "Group delay must not be negative");
+        checkArgument(syncInterval > 0, "Sync interval must be positive");
         this.location = location;
-        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        this.legacyLogs = legacyLogs;
+        this.segmentBytes = segmentBytes;
+        this.maxGroupRecords = maxGroupRecords;
+        this.maxGroupDelayNanos = unit.toNanos(maxGroupDelay);
+        this.syncIntervalNanos = unit.toNanos(syncInterval);
+        this.commitLatencies = new EnumMap<>(Durability.class);
+        for (Durability durability : Durability.values())
+            commitLatencies.put(durability, new Histogram(new ExponentiallyDecayingReservoir()));
+        this.pendingRecords = new LinkedBlockingQueue<>();
+        this.segments = new ConcurrentSkipListMap<>();
+        this.segmentTablets = new ConcurrentHashMap<>();
+        this.flushWatermarks = new ConcurrentHashMap<>();
+        this.recoveryFiles = new ConcurrentHashMap<>();
+        this.sequence = new AtomicLong(0);
+        this.writeLock = new ReentrantLock();
+        this.retireLock = new ReentrantLock();
         open();
-        writeLock = lock.writeLock();
-        readLock = lock.readLock();
     }
 
-    public void commit(RowMutation rowMutation) throws IOException {
+    /**
+     * @return view of the log committing, checkpointing and replaying the records of one tablet, each commit is forced to disk
+     */
+    public TabletCommitLog forTablet(String tabletId) {
+        return forTablet(tabletId, Durability.SYNC);
+    }
+
+    /**
+     * @param durability how far each commit of the tablet must get before it returns
+     */
+    public TabletCommitLog forTablet(String tabletId, Durability durability) {
+        return new TabletCommitLog(this, tabletId, durability);
+    }
+
+    public void commit(String tabletId, RowMutation rowMutation) throws IOException {
+        commit(tabletId, rowMutation, Durability.SYNC);
+    }
+
+    public void commit(String tabletId, RowMutation rowMutation, Durability durability) throws IOException {
+        append(tabletId, durability, LogRecords.encode(tabletId, sequence.incrementAndGet(), singletonList(rowMutation)));
+    }
+
+    /**
+     * Commits every mutation in the batch as a single record, read back one mutation at a time
+     */
+    public void commit(String tabletId, RowBatch rowBatch) throws IOException {
+        commit(tabletId, rowBatch, Durability.SYNC);
+    }
+
+    public void commit(String tabletId, RowBatch rowBatch, Durability durability) throws IOException {
+        append(tabletId, durability, LogRecords.encode(tabletId, sequence.incrementAndGet(), rowBatch));
+    }
+
+    /**
+     * Queues the mutation without waiting for it to be written
+     *
+     * @return future completed once the mutation is as durable as asked for, straight away for {@link Durability#ASYNC}
+     */
+    public CompletableFuture<Void> commitAsync(String tabletId, RowMutation rowMutation, Durability durability) {
+        return enqueue(tabletId, durability, LogRecords.encode(tabletId, sequence.incrementAndGet(), singletonList(rowMutation)));
+    }
+
+    /**
+     * Queues the batch as a single record without waiting for it to be written
+     *
+     * @return future completed once the batch is as durable as asked for, straight away for {@link Durability#ASYNC}
+     */
+    public CompletableFuture<Void> commitAsync(String tabletId, RowBatch rowBatch, Durability durability) {
+        return enqueue(tabletId, durability, LogRecords.encode(tabletId, sequence.incrementAndGet(), rowBatch));
+    }
+
+    /**
+     * @return time in microseconds commits with the durability took to reach it
+     */
+    public Histogram commitLatency(Durability durability) {
+        return commitLatencies.get(durability);
+    }
+
+    /**
+     * Queues the record and waits until the group it is written in is as durable as asked for
+     */
+    private void append(String tabletId, Durability durability, byte[] serialised) throws IOException {
+        PendingRecord record = new PendingRecord(tabletId, durability, serialised);
+        queue(record);
+        if (durability == Durability.ASYNC)
+            record.warnIfFailed();
+        else
+            record.await();
+    }
+
+    private CompletableFuture<Void> enqueue(String tabletId, Durability durability, byte[] serialised) {
+        PendingRecord record = new PendingRecord(tabletId, durability, serialised);
+        try {
+            queue(record);
+        } catch (IOException e) {
+            record.fail(e);
+            return record.durable;
+        }
+
+        if (durability != Durability.ASYNC)
+            return record.durable;
+
+        record.warnIfFailed();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private void queue(PendingRecord record) throws IOException {
+        synchronized (this) {
+            if (closed)
+                throw new IOException("Commit log at " + location + " is closed");
+
+            startWriter();
+            pendingRecords.add(record);
+        }
+    }
+
+    private void startWriter() {
+        if (writer != null)
+            return;
+
+        writer = new Thread(this::writeGroups, "commit-log-writer-" + location.getFileName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void writeGroups() {
+        List<PendingRecord> group = new ArrayList<>();
+        while (true) {
+            if (unsynced && System.nanoTime() - syncDeadline >= 0)
+                sync();
+
+            try {
+                PendingRecord first = unsynced
+                        ? pendingRecords.poll(syncDeadline - System.nanoTime(), NANOSECONDS)
+                        : pendingRecords.take();
+                if (first == null)
+                    continue;
+                group.add(first);
+                long deadline = System.nanoTime() + maxGroupDelayNanos;
+                while (maxGroupDelayNanos > 0 && group.size() < maxGroupRecords) {
+                    PendingRecord record = pendingRecords.poll(deadline - System.nanoTime(), NANOSECONDS);
+                    if (record == null)
+                        break;
+                    group.add(record);
+                }
+                pendingRecords.drainTo(group, maxGroupRecords - group.size());
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    closed = true;
+                }
+                failPendingRecords(group);
+                return;
+            }
+
+            int close = group.indexOf(CLOSE);
+            if (close >= 0) {
+                write(group.subList(0, close));
+                if (unsynced)
+                    sync();
+                failPendingRecords(group.subList(close + 1, group.size()));
+                return;
+            }
+
+            write(group);
+            group.clear();
+        }
+    }
+
+    private void write(List<PendingRecord> group) {
+        if (group.isEmpty())
+            return;
+
         try {
             writeLock.lock();
-            outputStream.write(
-                    rowMutation.serialise() //more efficient way of doing this?
-            );
-            outputStream.write(NEWLINE);
-            outputStream.flush();
+            int length = 0;
+            for (PendingRecord record : group)
+                length += record.serialised.length;
+
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            for (PendingRecord record : group)
+                buffer.put(record.serialised);
+            buffer.flip();
+
+            if (!currentSegment.fits(length))
+                startSegment();
+            Set<String> tablets = segmentTablets.get(currentSegment.sequence);
+            for (PendingRecord record : group)
+                tablets.add(record.tabletId);
+            currentSegment.write(buffer);
+            if (requires(group, Durability.SYNC)) {
+                currentSegment.force();
+                unsynced = false;
+            } else if (!unsynced && requires(group, Durability.PERIODIC)) {
+                unsynced = true;
+                syncDeadline = System.nanoTime() + syncIntervalNanos;
+            }
+
+            long now = System.nanoTime();
+            for (PendingRecord record : group) {
+                commitLatencies.get(record.durability).update(NANOSECONDS.toMicros(now - record.queuedNanos));
+                record.complete();
+            }
+        } catch (IOException e) {
+            group.forEach(record -> record.fail(e));
         } finally {
             writeLock.unlock();
         }
     }
 
+    private static boolean requires(List<PendingRecord> group, Durability durability) {
+        for (PendingRecord record : group) {
+            if (record.durability == durability)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Forces records written since the last force to disk, nobody waits on this so a failure is only logged
+     */
+    private void sync() {
+        try {
+            writeLock.lock();
+            currentSegment.force();
+        } catch (IOException e) {
+            LOGGER.error("Could not force commit log at " + location + " to disk", e);
+        } finally {
+            unsynced = false;
+            writeLock.unlock();
+        }
+    }
+
+    private void failPendingRecords(List<PendingRecord> records) {
+        List<PendingRecord> remaining = new ArrayList<>(records);
+        pendingRecords.drainTo(remaining);
+        IOException closed = new IOException("Commit log at " + location + " is closed");
+        remaining.forEach(record -> record.fail(closed));
+    }
+
+    /**
+     * Drops every mutation committed so far, by every tablet
+     */
     public void checkpoint() throws IOException {
+        LOGGER.info("Checkpointing commit log");
+        long mark = mark();
+        try {
+            retireLock.lock();
+            retire(segments.headMap(mark).keySet());
+        } finally {
+            retireLock.unlock();
+        }
+        for (String tabletId : recoveryFiles.keySet())
+            deleteRecoveryFile(tabletId);
+    }
+
+    /**
+     * Starts a new segment unless the current one is still empty, so every mutation
+     * committed so far is in a segment before the mark
+     *
+     * @return sequence of the first segment holding mutations committed after this call
+     */
+    public long mark() throws IOException {
         try {
             writeLock.lock();
-            LOGGER.info("Checkpointing commit log");
-            close();
-            Files.deleteIfExists(location); // TODO: what if this fails?
-            open();
+            if (!currentSegment.isEmpty())
+                startSegment();
+            return currentSegment.sequence;
         } finally {
             writeLock.unlock();
         }
     }
 
+    /**
+     * Records that every mutation the tablet committed before the mark has been flushed,
+     * then deletes the segments before the mark that no other tablet still needs.
+     * Writers carry on into the current segment while this runs.
+     */
+    public void checkpoint(String tabletId, long mark) throws IOException {
+        flushWatermarks.merge(tabletId, mark, Math::max);
+        deleteRecoveryFile(tabletId);
+        try {
+            retireLock.lock();
+            writeWatermarks();
+            List<Long> retired = new ArrayList<>();
+            for (long segment : segments.headMap(mark).keySet()) {
+                if (isFlushed(segment))
+                    retired.add(segment);
+            }
+            if (retired.isEmpty())
+                return;
+
+            LOGGER.info("Checkpointing commit log for tablet " + tabletId + " up to segment " + mark + ", deleting " + retired.size() + " segments");
+            retire(retired);
+        } finally {
+            retireLock.unlock();
+        }
+    }
+
+    /**
+     * @return true if every tablet with records in the segment has flushed past it
+     */
+    private boolean isFlushed(long segment) {
+        for (String tabletId : segmentTablets.getOrDefault(segment, emptySet())) {
+            if (flushWatermarks.getOrDefault(tabletId, 0L) <= segment)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the watermarks file with the current watermarks, forced to disk before it is moved into place
+     */
+    private void writeWatermarks() throws IOException {
+        Path watermarks = location.resolve(WATERMARKS_FILE);
+        Path written = location.resolve(WATERMARKS_FILE + ".tmp");
+        try (FileOutputStream fileOutputStream = new FileOutputStream(written.toFile());
+             DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream))) {
+            Map<String, Long> snapshot = new HashMap<>(flushWatermarks);
+            outputStream.writeInt(snapshot.size());
+            for (Map.Entry<String, Long> watermark : snapshot.entrySet()) {
+                outputStream.writeUTF(watermark.getKey());
+                outputStream.writeLong(watermark.getValue());
+            }
+            outputStream.flush();
+            fileOutputStream.getFD().sync();
+        }
+        Files.move(written, watermarks, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    private void readWatermarks() throws IOException {
+        Path watermarks = location.resolve(WATERMARKS_FILE);
+        if (!Files.isRegularFile(watermarks))
+            return;
+
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(watermarks.toFile())))) {
+            int count = inputStream.readInt();
+            for (int i = 0; i < count; i++)
+                flushWatermarks.put(inputStream.readUTF(), inputStream.readLong());
+        }
+    }
+
+    private void retire(Collection<Long> retired) throws IOException {
+        for (long segment : new ArrayList<>(retired)) {
+            Files.deleteIfExists(segments.get(segment));
+            segments.remove(segment);
+            segmentTablets.remove(segment);
+        }
+    }
+
     public boolean exists() {
-        return Files.exists(location);
+        return Files.isDirectory(location);
+    }
+
+    /**
+     * @return true if records of the tablet were left in the log when it was opened
+     */
+    public boolean hasRecordsToRecover(String tabletId) {
+        return recoveryFiles.containsKey(tabletId);
+    }
+
+    /**
+     * @return mutations of the tablet left in the log when it was opened, in the order they were committed
+     */
+    public Iterable<RowMutation> recover(String tabletId) {
+        Path recoveryFile = recoveryFiles.get(tabletId);
+        return recoveryFile == null ? emptyList() : () -> read(singletonList(recoveryFile));
+    }
+
+    /**
+     * Replays the mutations of the tablet left in the log when it was opened on the executor,
+     * see {@link ParallelReplay}. Returns once every mutation has been consumed.
+     *
+     * @param partitions number of partitions of rows consumed concurrently
+     */
+    public void replay(String tabletId, Executor executor, int partitions, Consumer<RowMutation> consumer) throws IOException {
+        checkArgument(partitions > 0, "Replay needs at least one partition");
+        Path recoveryFile = recoveryFiles.get(tabletId);
+        if (recoveryFile != null)
+            new ParallelReplay(executor, partitions, consumer).replay(recoveryFile.toFile());
+    }
+
+    private void deleteRecoveryFile(String tabletId) throws IOException {
+        Path recoveryFile = recoveryFiles.remove(tabletId);
+        if (recoveryFile != null)
+            Files.deleteIfExists(recoveryFile);
+    }
+
+    /**
+     * @return sequence numbers of the segments on disk, oldest first
+     */
+    List<Long> segmentSequences() {
+        return new ArrayList<>(segments.keySet());
     }
 
+    /**
+     * @return every mutation in the log, whichever tablet committed it
+     */
     @Override
     public Iterator<RowMutation> iterator() {
-        readLock.lock();
+        return read(segments.values());
+    }
+
+    /**
+     * Reads a snapshot of the files taken when called, without holding any lock, so a caller
+     * that stops early never holds up marks or checkpoints. A segment retired before it is
+     * reached is skipped, every record in it has already been flushed.
+     */
+    private Iterator<RowMutation> read(Collection<Path> files) {
         Iterator<RowMutation> iterator = new Iterator<RowMutation>() {
-            String currentLine;
-            BufferedReader reader = getReader();
+            Iterator<Path> remainingSegments = new ArrayList<>(files).iterator();
+            Iterator<RowMutation> currentRecord = emptyIterator();
+            LogRecords.Reader reader;
 
             @Override
             public boolean hasNext() {
                 try {
-                    currentLine = reader.readLine();
-                    if (currentLine == null) {
-                        try {
-                            reader.close();
-                        } finally {
-                            readLock.unlock();
+                    while (!currentRecord.hasNext()) {
+                        List<RowMutation> record = reader == null ? null : reader.next();
+                        if (record != null) {
+                            currentRecord = record.iterator();
+                            continue;
                         }
-                        return false;
+
+                        if (reader != null)
+                            reader.close();
+                        if (!remainingSegments.hasNext())
+                            return false;
+                        reader = openIfExists(remainingSegments.next());
                     }
                 } catch (IOException e) {
-                    readLock.unlock();
+                    closeQuietly(reader);
                     throw new CommitLogException(e);
                 }
 
@@ -89,29 +595,286 @@ public class CommitLog implements Iterable<RowMutation>, Closeable {
 
             @Override
             public RowMutation next() {
-                return deserialise(currentLine);
-            }
-
-            public BufferedReader getReader() {
-                try {
-                    return new BufferedReader(new InputStreamReader(new FileInputStream(location.toFile())));
-                } catch (IOException e) {
-                    throw new CommitLogException(e);
-                }
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return currentRecord.next();
             }
-
         };
 
         return iterator;
     }
 
+    /**
+     * @return reader of the file, or null if it has been deleted since it was listed
+     */
+    private static LogRecords.Reader openIfExists(Path file) throws IOException {
+        try {
+            return new LogRecords.Reader(file.toFile());
+        } catch (FileNotFoundException e) {
+            if (Files.exists(file))
+                throw e;
+            return null;
+        }
+    }
+
+    /**
+     * Waits for records already queued to be written, then stops the writer and closes the log
+     */
     @Override
     public void close() {
-        closeQuietly(outputStream);
+        Thread writer;
+        synchronized (this) {
+            if (closed)
+                return;
+
+            closed = true;
+            writer = this.writer;
+            pendingRecords.add(CLOSE);
+        }
+
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // the writer may still be running if interrupted, so only release the mapping once it cannot write
+        try {
+            writeLock.lock();
+            closeQuietly(currentSegment);
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     private void open() throws IOException {
         LOGGER.info("Loading commit log at " + location);
-        this.outputStream = new FileOutputStream(location.toFile(), true);
+        if (Files.isRegularFile(location))
+            adoptSingleFileLog(ownerOf(location));
+        Files.createDirectories(location);
+
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(location)) {
+            for (Path path : paths) {
+                long sequence = Segment.sequenceOf(path);
+                if (sequence >= 0)
+                    segments.put(sequence, path);
+            }
+        }
+        readWatermarks();
+        for (Map.Entry<String, Path> legacyLog : legacyLogs.entrySet()) {
+            if (Files.isRegularFile(legacyLog.getValue()))
+                adoptLegacyLog(legacyLog.getKey(), legacyLog.getValue());
+        }
+        partitionByTablet();
+        startSegment();
+    }
+
+    /**
+     * Reads every segment once, noting which tablets have records in each that they have
+     * not flushed yet and copying only those records to a recovery file for each tablet.
+     * Segments left with no such records are deleted. Recovery files left over from the
+     * last time the log was opened are replaced.
+     */
+    private void partitionByTablet() throws IOException {
+        Path recoveryDirectory = location.resolve(RECOVERY_DIRECTORY);
+        FileUtils.deleteDirectory(recoveryDirectory.toFile());
+        if (segments.isEmpty())
+            return;
+
+        Files.createDirectories(recoveryDirectory);
+        Map<String, OutputStream> outputStreams = new HashMap<>();
+        List<Long> flushed = new ArrayList<>();
+        long skippedRecords = 0;
+        try {
+            for (Map.Entry<Long, Path> segment : segments.entrySet()) {
+                Set<String> tablets = newKeySet();
+                segmentTablets.put(segment.getKey(), tablets);
+                try (LogRecords.Reader reader = new LogRecords.Reader(segment.getValue().toFile())) {
+                    while (reader.advance()) {
+                        String tabletId = reader.tabletId();
+                        sequence.accumulateAndGet(reader.sequence(), Math::max);
+                        if (flushWatermarks.getOrDefault(tabletId, 0L) > segment.getKey()) {
+                            skippedRecords++;
+                            continue;
+                        }
+                        tablets.add(tabletId);
+
+                        OutputStream outputStream = outputStreams.get(tabletId);
+                        if (outputStream == null) {
+                            Path recoveryFile = recoveryDirectory.resolve(Segment.nameOf(outputStreams.size()));
+                            outputStream = new BufferedOutputStream(new FileOutputStream(recoveryFile.toFile()), RECOVERY_BUFFER_BYTES);
+                            outputStreams.put(tabletId, outputStream);
+                            outputStream.write(LogRecords.header());
+                            recoveryFiles.put(tabletId, recoveryFile);
+                        }
+                        reader.copyTo(outputStream);
+                    }
+                }
+                if (tablets.isEmpty())
+                    flushed.add(segment.getKey());
+            }
+        } finally {
+            for (OutputStream outputStream : outputStreams.values())
+                outputStream.close();
+        }
+        LOGGER.info("Split " + segments.size() + " commit log segments into records of " + recoveryFiles.size() + " tablets, skipping "
+                + skippedRecords + " flushed records and deleting " + flushed.size() + " flushed segments");
+        retire(flushed);
+    }
+
+    /**
+     * Starts writing to a new segment after the last, any segment left over from before
+     * is only read so a torn record at its end is never written after. The sequence is
+     * never below a watermark read back on open, or records written to it would be
+     * taken as flushed the next time the log is opened.
+     */
+    private void startSegment() throws IOException {
+        long sequence = nextSequence();
+        Segment segment = Segment.create(location, sequence, segmentBytes);
+        if (currentSegment != null) {
+            currentSegment.force();
+            currentSegment.close();
+        }
+        segmentTablets.put(sequence, newKeySet());
+        segments.put(sequence, segment.path);
+        currentSegment = segment;
+    }
+
+    /**
+     * @return sequence of the next segment, after the last and never below a watermark
+     */
+    private long nextSequence() {
+        long sequence = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        for (long watermark : flushWatermarks.values())
+            sequence = Math.max(sequence, watermark);
+        return sequence;
+    }
+
+    /**
+     * @return tablet the single file log at the path was written by, untagged if it is not known
+     */
+    private String ownerOf(Path path) {
+        for (Map.Entry<String, Path> legacyLog : legacyLogs.entrySet()) {
+            if (legacyLog.getValue().equals(path))
+                return legacyLog.getKey();
+        }
+        return LogRecords.UNTAGGED;
+    }
+
+    /**
+     * Moves a log written as a single file by an earlier version at the location of this log
+     * into a new directory as its first segment
+     */
+    private void adoptSingleFileLog(String tabletId) throws IOException {
+        File file = location.toFile();
+        Path adopted = location.resolveSibling(location.getFileName() + ".segment");
+        if (file.length() == 0) {
+            Files.delete(location);
+            return;
+        }
+
+        if (tabletId.equals(LogRecords.UNTAGGED)) {
+            LOGGER.warn("Commit log at " + location + " was written by an earlier version for an unknown tablet, its records "
+                    + "are only read by iterating the whole log and kept until the whole log is checkpointed");
+        }
+        if (tabletId.equals(LogRecords.UNTAGGED) && LogRecords.hasHeader(file)) {
+            Files.move(location, adopted, REPLACE_EXISTING, ATOMIC_MOVE);
+        } else {
+            rewriteRecords(location, adopted, tabletId);
+            Files.delete(location);
+        }
+
+        Files.createDirectories(location);
+        Files.move(adopted, location.resolve(Segment.nameOf(0)), ATOMIC_MOVE);
+    }
+
+    /**
+     * Moves a single file log written by an earlier version for one tablet into this log as a
+     * segment after the last, its records tagged with the tablet so it replays them
+     */
+    private void adoptLegacyLog(String tabletId, Path legacyLog) throws IOException {
+        if (legacyLog.toFile().length() > 0) {
+            long sequence = nextSequence();
+            Path adopted = location.resolve(Segment.nameOf(sequence) + ".adopting");
+            rewriteRecords(legacyLog, adopted, tabletId);
+            Path segment = location.resolve(Segment.nameOf(sequence));
+            Files.move(adopted, segment, ATOMIC_MOVE);
+            segments.put(sequence, segment);
+            LOGGER.info("Adopted commit log of tablet " + tabletId + " at " + legacyLog + " as segment " + sequence);
+        }
+        Files.delete(legacyLog);
+    }
+
+    /**
+     * Rewrites a single file log, of binary records or of text records one per line, as
+     * binary records tagged with the tablet, forced to disk before the original is deleted
+     */
+    private static void rewriteRecords(Path legacyLog, Path rewritten, String tabletId) throws IOException {
+        try (FileOutputStream fileOutputStream = new FileOutputStream(rewritten.toFile());
+             OutputStream outputStream = new BufferedOutputStream(fileOutputStream)) {
+            outputStream.write(LogRecords.header());
+            if (LogRecords.hasHeader(legacyLog.toFile())) {
+                try (LogRecords.Reader reader = new LogRecords.Reader(legacyLog.toFile())) {
+                    List<RowMutation> record;
+                    while ((record = reader.next()) != null)
+                        outputStream.write(LogRecords.encode(tabletId, 0, record));
+                }
+            } else {
+                LOGGER.info("Rewriting text commit log at " + legacyLog + " as binary records");
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(legacyLog.toFile())))) {
+                    String line;
+                    while ((line = reader.readLine()) != null)
+                        outputStream.write(LogRecords.encode(tabletId, 0, singletonList(deserialise(line))));
+                }
+            }
+            outputStream.flush();
+            fileOutputStream.getFD().sync();
+        }
+    }
+
+    /**
+     * Record waiting to be written, its caller is released once the group holding it is durable
+     */
+    private static final class PendingRecord {
+        private final String tabletId;
+        private final Durability durability;
+        private final byte[] serialised;
+        private final long queuedNanos;
+        private final CompletableFuture<Void> durable;
+
+        private PendingRecord(String tabletId, Durability durability, byte[] serialised) {
+            this.tabletId = tabletId;
+            this.durability = durability;
+            this.serialised = serialised;
+            this.queuedNanos = System.nanoTime();
+            this.durable = new CompletableFuture<>();
+        }
+
+        private void complete() {
+            durable.complete(null);
+        }
+
+        private void fail(IOException e) {
+            durable.completeExceptionally(e);
+        }
+
+        private void await() throws IOException {
+            try {
+                durable.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for commit to be written");
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        private void warnIfFailed() {
+            durable.whenComplete((result, e) -> {
+                if (e != null)
+                    LOGGER.warn("Asynchronous commit of tablet " + tabletId + " was lost", e);
+            });
+        }
     }
 }
@@ -0,0 +1,21 @@
+package io.github.djhworld.log;
+
+/**
+ * How far a commit must get before the caller carries on. Every mode writes records in
+ * the order they were committed, so forcing a record to disk also forces every record
+ * committed before it, whatever their mode.
+ */
+public enum Durability {
+    /**
+     * Waits until the group holding the record has been forced to disk
+     */
+    SYNC,
+    /**
+     * Waits until the record has been written, it is forced to disk within the sync interval of the log
+     */
+    PERIODIC,
+    /**
+     * Does not wait, the record is written soon after and left to the operating system to write out
+     */
+    ASYNC
+}
@@ -0,0 +1,279 @@
+package io.github.djhworld.log;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.github.djhworld.model.RowMutation;
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.github.djhworld.model.RowMutation.Action.DEL;
+import static io.github.djhworld.model.RowMutation.newAddMutation;
+import static io.github.djhworld.model.RowMutation.newDeleteMutation;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Binary commit log records. A log starts with a header, then holds one record for
+ * every commit, each tagged with the tablet that committed it and a sequence number,
+ * and carrying the mutations committed together.
+ * <p>
+ * [magic][version]
+ * <--4--><---1--->
+ * <p>
+ * [length][crc32c][sequence][tablet-length][ tablet ][count][action][timestamp][row-length][column-length][value-length][ row ][ column ][ value ]...
+ * <--4---><--4---><---8----><------2------><---t----><--4--><--1---><----8----><----2-----><------2------><------4------><--r--><---c----><---v--->
+ * <p>
+ * The length and checksum cover everything after the checksum. A record that is cut
+ * short or fails its checksum is where the log was torn, nothing after it is read. A
+ * zero length is the unwritten, preallocated space after the last record.
+ * <p>
+ * Version 1 records, written before tablets shared a log, have no sequence or tablet
+ * and are read back as belonging to the {@link #UNTAGGED} tablet.
+ */
+final class LogRecords {
+    private static final Logger LOGGER = getLogger(LogRecords.class);
+    private static final int MAGIC = 0x544C4F47;
+    private static final byte UNTAGGED_VERSION = 1;
+    private static final byte VERSION = 2;
+    static final String UNTAGGED = "";
+    static final int HEADER_BYTES = 5;
+    static final int RECORD_HEADER_BYTES = 8;
+    private static final int TAG_BYTES = 10;
+    private static final int MUTATION_HEADER_BYTES = 17;
+    private static final int MAX_KEY_LENGTH = 0xFFFF;
+    private static final int READ_BUFFER_BYTES = 1024 * 1024;
+    private static final HashFunction CRC32C = Hashing.crc32c();
+
+    private LogRecords() {
+    }
+
+    static byte[] header() {
+        return ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).put(VERSION).array();
+    }
+
+    /**
+     * @return true if the file starts with a binary log header, false if it holds text records
+     */
+    static boolean hasHeader(File file) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(file))) {
+            return file.length() >= HEADER_BYTES && inputStream.readInt() == MAGIC && isReadable(inputStream.readByte());
+        }
+    }
+
+    private static boolean isReadable(byte version) {
+        return version == VERSION || version == UNTAGGED_VERSION;
+    }
+
+    static byte[] encode(String tabletId, long sequence, Iterable<RowMutation> rowMutations) {
+        byte[] tablet = tabletId.getBytes(UTF_8);
+        checkArgument(tablet.length <= MAX_KEY_LENGTH, "Tablet id is longer than " + MAX_KEY_LENGTH + " bytes");
+        List<byte[]> fields = new ArrayList<>();
+        int length = TAG_BYTES + tablet.length + 4;
+        for (RowMutation rowMutation : rowMutations) {
+            byte[] rowKey = rowMutation.rowKey.getBytes(UTF_8);
+            byte[] columnKey = rowMutation.columnKey.getBytes(UTF_8);
+            byte[] value = rowMutation.value.getBytes(UTF_8);
+            checkArgument(rowKey.length <= MAX_KEY_LENGTH, "Row key is longer than " + MAX_KEY_LENGTH + " bytes");
+            checkArgument(columnKey.length <= MAX_KEY_LENGTH, "Column key is longer than " + MAX_KEY_LENGTH + " bytes");
+            fields.add(rowKey);
+            fields.add(columnKey);
+            fields.add(value);
+            length += MUTATION_HEADER_BYTES + rowKey.length + columnKey.length + value.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + length);
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.putLong(sequence);
+        buffer.putShort((short) tablet.length);
+        buffer.put(tablet);
+        buffer.putInt(fields.size() / 3);
+        int field = 0;
+        for (RowMutation rowMutation : rowMutations) {
+            byte[] rowKey = fields.get(field++);
+            byte[] columnKey = fields.get(field++);
+            byte[] value = fields.get(field++);
+            buffer.put((byte) (DEL.equals(rowMutation.action) ? 1 : 0));
+            buffer.putLong(rowMutation.timestamp);
+            buffer.putShort((short) rowKey.length);
+            buffer.putShort((short) columnKey.length);
+            buffer.putInt(value.length);
+            buffer.put(rowKey);
+            buffer.put(columnKey);
+            buffer.put(value);
+        }
+
+        buffer.putInt(4, CRC32C.hashBytes(buffer.array(), RECORD_HEADER_BYTES, length).asInt());
+        return buffer.array();
+    }
+
+    static List<RowMutation> decode(byte[] mutationBytes) {
+        return Reader.decode(mutationBytes, 0, mutationBytes.length);
+    }
+
+    /**
+     * Reads records one at a time after the header, reusing one buffer for every record
+     */
+    static final class Reader implements Closeable {
+        private final DataInputStream inputStream;
+        private final String name;
+        private final long recordBytes;
+        private final boolean tagged;
+        private long position;
+        private byte[] body;
+        private int length;
+        private int checksum;
+        private long sequence;
+        private String tabletId;
+        private int mutationsStart;
+
+        Reader(File file) throws IOException {
+            this.inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), READ_BUFFER_BYTES));
+            this.name = file.toString();
+            this.recordBytes = file.length() - HEADER_BYTES;
+            this.body = new byte[4096];
+            inputStream.readInt();
+            byte version = inputStream.readByte();
+            if (!isReadable(version))
+                throw new IOException("Commit log " + name + " has unknown version " + version);
+            this.tagged = version == VERSION;
+        }
+
+        /**
+         * @return mutations of the next record, or null at the end of the log or where it was torn
+         */
+        List<RowMutation> next() throws IOException {
+            return advance() ? mutations() : null;
+        }
+
+        /**
+         * Reads the next record, its tag is read straight away and its mutations only when asked for
+         *
+         * @return false at the end of the log or where it was torn
+         */
+        boolean advance() throws IOException {
+            if (!readRecord())
+                return false;
+
+            if (tagged) {
+                ByteBuffer buffer = ByteBuffer.wrap(body, 0, length);
+                sequence = buffer.getLong();
+                int tabletLength = Short.toUnsignedInt(buffer.getShort());
+                tabletId = new String(body, TAG_BYTES, tabletLength, UTF_8);
+                mutationsStart = TAG_BYTES + tabletLength;
+            } else {
+                sequence = 0;
+                tabletId = UNTAGGED;
+                mutationsStart = 0;
+            }
+            return true;
+        }
+
+        String tabletId() {
+            return tabletId;
+        }
+
+        long sequence() {
+            return sequence;
+        }
+
+        List<RowMutation> mutations() {
+            return decode(body, mutationsStart, length);
+        }
+
+        /**
+         * @return copy of the encoded mutations of the record, to be decoded later with {@link #decode(byte[])}
+         */
+        byte[] mutationBytes() {
+            return Arrays.copyOfRange(body, mutationsStart, length);
+        }
+
+        /**
+         * Writes the record just read out as it is, records written before tablets shared
+         * a log are encoded again so every record written is tagged
+         */
+        void copyTo(OutputStream outputStream) throws IOException {
+            if (!tagged) {
+                outputStream.write(encode(tabletId, sequence, mutations()));
+                return;
+            }
+
+            DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+            dataOutputStream.writeInt(length);
+            dataOutputStream.writeInt(checksum);
+            dataOutputStream.write(body, 0, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            inputStream.close();
+        }
+
+        /**
+         * @return false at the end of the log or where it was torn, otherwise the record is in the body
+         */
+        private boolean readRecord() throws IOException {
+            try {
+                length = inputStream.readInt();
+                checksum = inputStream.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+
+            if (length == 0)
+                return false;
+
+            int minLength = tagged ? TAG_BYTES + 4 : 4;
+            if (length < minLength || length > recordBytes - position - RECORD_HEADER_BYTES) {
+                LOGGER.warn("Commit log " + name + " is torn at " + position + ", record length is invalid");
+                return false;
+            }
+
+            if (body.length < length)
+                body = new byte[Math.max(length, body.length * 2)];
+
+            try {
+                inputStream.readFully(body, 0, length);
+            } catch (EOFException e) {
+                LOGGER.warn("Commit log " + name + " is torn at " + position + ", record is cut short");
+                return false;
+            }
+
+            if (CRC32C.hashBytes(body, 0, length).asInt() != checksum) {
+                LOGGER.warn("Commit log " + name + " is torn at " + position + ", record checksum does not match");
+                return false;
+            }
+
+            position += RECORD_HEADER_BYTES + length;
+            return true;
+        }
+
+        private static List<RowMutation> decode(byte[] body, int offset, int length) {
+            ByteBuffer buffer = ByteBuffer.wrap(body, offset, length - offset);
+            int count = buffer.getInt();
+            List<RowMutation> rowMutations = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                boolean delete = buffer.get() == 1;
+                long timestamp = buffer.getLong();
+                int rowKeyLength = Short.toUnsignedInt(buffer.getShort());
+                int columnKeyLength = Short.toUnsignedInt(buffer.getShort());
+                int valueLength = buffer.getInt();
+
+                int start = buffer.position();
+                String rowKey = new String(body, start, rowKeyLength, UTF_8);
+                String columnKey = new String(body, start + rowKeyLength, columnKeyLength, UTF_8);
+                rowMutations.add(delete
+                        ? newDeleteMutation(rowKey, columnKey)
+                        : newAddMutation(rowKey, columnKey, new String(body, start + rowKeyLength + columnKeyLength, valueLength, UTF_8), timestamp));
+                buffer.position(start + rowKeyLength + columnKeyLength + valueLength);
+            }
+            return rowMutations;
+        }
+    }
+}
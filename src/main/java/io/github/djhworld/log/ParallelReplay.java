@@ -0,0 +1,105 @@
+package io.github.djhworld.log;
+
+import io.github.djhworld.log.exception.CommitLogException;
+import io.github.djhworld.model.RowMutation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+
+/**
+ * Replays a log on many threads. The calling thread only reads records and checks
+ * their checksums, chunks of records are decoded on the executor and split into
+ * partitions by row, and each partition is handed to the consumer on the executor.
+ * <p>
+ * A partition only starts on a chunk once it has finished the chunk before, so the
+ * mutations of a row are consumed one at a time in the order they were committed
+ * while different rows are consumed concurrently.
+ */
+final class ParallelReplay {
+    private static final int CHUNK_RECORDS = 1024;
+    private final Executor executor;
+    private final int partitions;
+    private final Consumer<RowMutation> consumer;
+    private final Semaphore chunksInFlight;
+    private final List<CompletableFuture<Void>> partitionTails;
+
+    /**
+     * @param partitions number of partitions consumed concurrently, also bounds the chunks held in memory
+     */
+    ParallelReplay(Executor executor, int partitions, Consumer<RowMutation> consumer) {
+        this.executor = executor;
+        this.partitions = partitions;
+        this.consumer = consumer;
+        this.chunksInFlight = new Semaphore(2 * partitions);
+        this.partitionTails = new ArrayList<>(partitions);
+        for (int partition = 0; partition < partitions; partition++)
+            partitionTails.add(completedFuture(null));
+    }
+
+    /**
+     * Replays every record in the file, returning once all of them have been consumed
+     */
+    void replay(File file) throws IOException {
+        try (LogRecords.Reader reader = new LogRecords.Reader(file)) {
+            List<byte[]> chunk = new ArrayList<>(CHUNK_RECORDS);
+            while (reader.advance()) {
+                chunk.add(reader.mutationBytes());
+                if (chunk.size() == CHUNK_RECORDS) {
+                    submit(chunk);
+                    chunk = new ArrayList<>(CHUNK_RECORDS);
+                }
+            }
+            if (!chunk.isEmpty())
+                submit(chunk);
+        }
+
+        try {
+            allOf(partitionTails.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            throw new CommitLogException(e.getCause());
+        }
+    }
+
+    private void submit(List<byte[]> chunk) throws IOException {
+        try {
+            chunksInFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted replaying commit log");
+        }
+
+        CompletableFuture<List<List<RowMutation>>> decoded = supplyAsync(() -> decode(chunk), executor);
+        for (int partition = 0; partition < partitions; partition++) {
+            int index = partition;
+            partitionTails.set(partition, partitionTails.get(partition).thenCombineAsync(decoded, (previous, partitioned) -> {
+                partitioned.get(index).forEach(consumer);
+                return null;
+            }, executor));
+        }
+        allOf(partitionTails.toArray(new CompletableFuture<?>[0])).whenComplete((result, e) -> chunksInFlight.release());
+    }
+
+    private List<List<RowMutation>> decode(List<byte[]> chunk) {
+        List<List<RowMutation>> partitioned = new ArrayList<>(partitions);
+        for (int partition = 0; partition < partitions; partition++)
+            partitioned.add(new ArrayList<>());
+
+        for (byte[] record : chunk) {
+            for (RowMutation rowMutation : LogRecords.decode(record))
+                partitioned.get(Math.floorMod(rowMutation.rowKey.hashCode(), partitions)).add(rowMutation);
+        }
+        return partitioned;
+    }
+}
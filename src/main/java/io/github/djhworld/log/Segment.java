@@ -0,0 +1,145 @@
+package io.github.djhworld.log;
+
+import io.github.djhworld.io.Unmapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.github.djhworld.log.LogRecords.HEADER_BYTES;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+
+/**
+ * One file of a segmented commit log, named after its sequence number so segments
+ * sort in the order they were written. A segment is preallocated to its full size
+ * when created and mapped into memory, records are appended by copying them into the
+ * mapping so a write is neither a system call nor a change to the size of the file.
+ * The zeroed space after the last record reads as the end of the segment.
+ * <p>
+ * Forcing writes out the dirty pages of the mapping, and does nothing if there has
+ * been no write since the last force.
+ * <p>
+ * The mapping is released as soon as it is replaced or the segment is closed, see
+ * {@link Unmapper}, so segments retired long before the next collection do not hold on
+ * to address space or to the disk blocks of their deleted files. Callers never use a
+ * segment after closing it.
+ */
+final class Segment implements Closeable {
+    private static final String SUFFIX = ".log";
+    final long sequence;
+    final Path path;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer mapped;
+    private int position;
+    private int forcedPosition;
+
+    private Segment(long sequence, Path path, RandomAccessFile file) throws IOException {
+        this.sequence = sequence;
+        this.path = path;
+        this.file = file;
+        this.channel = file.getChannel();
+        this.mapped = channel.map(READ_WRITE, 0, file.length());
+        this.position = HEADER_BYTES;
+        this.forcedPosition = HEADER_BYTES;
+    }
+
+    /**
+     * Creates the segment, sized to hold at least segmentBytes, and writes its header
+     */
+    static Segment create(Path directory, long sequence, long segmentBytes) throws IOException {
+        checkArgument(segmentBytes <= Integer.MAX_VALUE, "Segment is too large to map");
+        Path path = directory.resolve(nameOf(sequence));
+        RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+        try {
+            file.setLength(Math.max(segmentBytes, HEADER_BYTES));
+            file.getChannel().write(ByteBuffer.wrap(LogRecords.header()), 0);
+            return new Segment(sequence, path, file);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    static String nameOf(long sequence) {
+        return String.format("%020d", sequence) + SUFFIX;
+    }
+
+    /**
+     * @return sequence number of the segment file, or -1 if the file is not a segment
+     */
+    static long sequenceOf(Path path) {
+        String name = path.getFileName().toString();
+        if (!name.endsWith(SUFFIX))
+            return -1;
+
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    boolean isEmpty() {
+        return position == HEADER_BYTES;
+    }
+
+    /**
+     * @return true if the records fit in the space left, an empty segment grows to hold them
+     */
+    boolean fits(int length) throws IOException {
+        return position + length <= mapping().capacity() || isEmpty();
+    }
+
+    void write(ByteBuffer records) throws IOException {
+        int length = records.remaining();
+        if (position + length > mapping().capacity())
+            grow(position + length);
+
+        mapped.position(position);
+        mapped.put(records);
+        position += length;
+    }
+
+    void force() throws IOException {
+        if (forcedPosition == position)
+            return;
+
+        mapping().force();
+        forcedPosition = position;
+    }
+
+    /**
+     * @throws ClosedChannelException once the segment is closed, rather than touch a released mapping
+     */
+    private MappedByteBuffer mapping() throws ClosedChannelException {
+        if (mapped == null)
+            throw new ClosedChannelException();
+        return mapped;
+    }
+
+    /**
+     * Only an empty segment grows, to hold a group larger than segments are preallocated to
+     */
+    private void grow(long length) throws IOException {
+        checkArgument(length <= Integer.MAX_VALUE, "Records are too large to map");
+        mapped.force();
+        Unmapper.unmap(mapped);
+        mapped = null;
+        file.setLength(length);
+        mapped = channel.map(READ_WRITE, 0, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        Unmapper.unmap(mapped);
+        mapped = null;
+        file.close();
+    }
+}
@@ -0,0 +1,82 @@
+package io.github.djhworld.log;
+
+import io.github.djhworld.model.RowBatch;
+import io.github.djhworld.model.RowMutation;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * The part of a shared {@link CommitLog} belonging to one tablet. Commits are tagged
+ * with the tablet and made with its {@link Durability}, checkpoints only move its own
+ * flush watermark, and iterating replays only its records left in the log when it was opened.
+ */
+public class TabletCommitLog implements Iterable<RowMutation> {
+    private final CommitLog commitLog;
+    private final String tabletId;
+    private final Durability durability;
+
+    TabletCommitLog(CommitLog commitLog, String tabletId, Durability durability) {
+        this.commitLog = commitLog;
+        this.tabletId = tabletId;
+        this.durability = durability;
+    }
+
+    public void commit(RowMutation rowMutation) throws IOException {
+        commitLog.commit(tabletId, rowMutation, durability);
+    }
+
+    public void commit(RowBatch rowBatch) throws IOException {
+        commitLog.commit(tabletId, rowBatch, durability);
+    }
+
+    /**
+     * @see CommitLog#commitAsync(String, RowMutation, Durability)
+     */
+    public CompletableFuture<Void> commitAsync(RowMutation rowMutation) {
+        return commitLog.commitAsync(tabletId, rowMutation, durability);
+    }
+
+    /**
+     * @see CommitLog#commitAsync(String, RowBatch, Durability)
+     */
+    public CompletableFuture<Void> commitAsync(RowBatch rowBatch) {
+        return commitLog.commitAsync(tabletId, rowBatch, durability);
+    }
+
+    /**
+     * @see CommitLog#mark()
+     */
+    public long mark() throws IOException {
+        return commitLog.mark();
+    }
+
+    /**
+     * @see CommitLog#checkpoint(String, long)
+     */
+    public void checkpoint(long mark) throws IOException {
+        commitLog.checkpoint(tabletId, mark);
+    }
+
+    /**
+     * @return true if the tablet has records to replay
+     */
+    public boolean exists() {
+        return commitLog.hasRecordsToRecover(tabletId);
+    }
+
+    /**
+     * @see CommitLog#replay(String, Executor, int, Consumer)
+     */
+    public void replay(Executor executor, int partitions, Consumer<RowMutation> consumer) throws IOException {
+        commitLog.replay(tabletId, executor, partitions, consumer);
+    }
+
+    @Override
+    public Iterator<RowMutation> iterator() {
+        return commitLog.recover(tabletId).iterator();
+    }
+}
@@ -0,0 +1,50 @@
+package io.github.djhworld.model;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Iterator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Puts and deletes of many columns of a single row, committed as one record and
+ * applied together, so either every mutation in the batch survives or none does.
+ */
+public class RowBatch implements Iterable<RowMutation> {
+    public final String rowKey;
+    private final List<RowMutation> rowMutations;
+
+    private RowBatch(String rowKey, List<RowMutation> rowMutations) {
+        this.rowKey = rowKey;
+        this.rowMutations = rowMutations;
+    }
+
+    /**
+     * @param rowMutations applied in the order given, all for the same row
+     */
+    public static RowBatch newRowBatch(List<RowMutation> rowMutations) {
+        checkArgument(!rowMutations.isEmpty(), "A row batch must hold at least one mutation");
+        String rowKey = rowMutations.get(0).rowKey;
+        for (RowMutation rowMutation : rowMutations)
+            checkArgument(rowKey.equals(rowMutation.rowKey), "Every mutation in a row batch must be for row " + rowKey);
+
+        return new RowBatch(rowKey, ImmutableList.copyOf(rowMutations));
+    }
+
+    public int size() {
+        int size = 0;
+        for (RowMutation rowMutation : rowMutations)
+            size += rowMutation.size();
+        return size;
+    }
+
+    public int count() {
+        return rowMutations.size();
+    }
+
+    @Override
+    public Iterator<RowMutation> iterator() {
+        return rowMutations.iterator();
+    }
+}
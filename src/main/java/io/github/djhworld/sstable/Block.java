@@ -13,4 +13,8 @@ interface Block {
     default String read(int offsetInBlock) {
         throw new UnsupportedOperationException();
     }
+
+    default int sizeInBytes() {
+        throw new UnsupportedOperationException();
+    }
 }
@@ -0,0 +1,124 @@
+package io.github.djhworld.sstable;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Decoded blocks shared between every SSTable on a tablet server.
+ * <p>
+ * Blocks are keyed by (SSTable id, block id) and weighed by their
+ * size in bytes, once the capacity is reached the least recently
+ * used blocks are evicted. The cache is split into segments so
+ * concurrent readers rarely contend on the same lock.
+ */
+public class BlockCache {
+    private static final Logger LOGGER = getLogger(BlockCache.class);
+    public static final long DEFAULT_CAPACITY_IN_BYTES = 256_000_000;
+    private static final int CONCURRENCY_LEVEL = 16;
+
+    private final Cache<Key, Block> cache;
+    private final AtomicLong sizeInBytes;
+    private final long capacityInBytes;
+
+    public BlockCache() {
+        this(DEFAULT_CAPACITY_IN_BYTES);
+    }
+
+    public BlockCache(long capacityInBytes) {
+        LOGGER.info("Initialising block cache with capacity of " + capacityInBytes + " bytes");
+        this.capacityInBytes = capacityInBytes;
+        this.sizeInBytes = new AtomicLong(0);
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(capacityInBytes)
+                .weigher((Key key, Block block) -> block.sizeInBytes())
+                .removalListener(notification -> sizeInBytes.addAndGet(-notification.getValue().sizeInBytes()))
+                .concurrencyLevel(CONCURRENCY_LEVEL)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return hit, miss and eviction counts since the cache was created
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long sizeInBytes() {
+        return sizeInBytes.get();
+    }
+
+    public long capacityInBytes() {
+        return capacityInBytes;
+    }
+
+    Block get(long ssTableId, int blockId, BlockLoader loader) throws IOException {
+        try {
+            return cache.get(new Key(ssTableId, blockId), () -> {
+                Block block = loader.load(blockId);
+                sizeInBytes.addAndGet(block.sizeInBytes());
+                return block;
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+
+            throw new IOException("Unable to load block " + blockId, e.getCause());
+        }
+    }
+
+    Block getIfPresent(long ssTableId, int blockId) {
+        return cache.getIfPresent(new Key(ssTableId, blockId));
+    }
+
+    long cachedBlocks(long ssTableId) {
+        return cache.asMap()
+                .keySet()
+                .stream()
+                .filter(key -> key.ssTableId == ssTableId)
+                .count();
+    }
+
+    void invalidateAll(long ssTableId) {
+        cache.asMap()
+                .keySet()
+                .removeIf(key -> key.ssTableId == ssTableId);
+    }
+
+    @FunctionalInterface
+    interface BlockLoader {
+        Block load(int blockId) throws IOException;
+    }
+
+    private static final class Key {
+        private final long ssTableId;
+        private final int blockId;
+
+        private Key(long ssTableId, int blockId) {
+            this.ssTableId = ssTableId;
+            this.blockId = blockId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return ssTableId == key.ssTableId && blockId == key.blockId;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(ssTableId) + blockId;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package io.github.djhworld.sstable;
+
+import io.github.djhworld.exception.SSTableException;
+import io.github.djhworld.io.CompressionStrategy;
+import io.github.djhworld.io.Source;
+import org.slf4j.Logger;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Footer of version 1 and 2 tables, every key in the table with the
+ * block, timestamp and offset of each of its versions.
+ * <p>
+ * [ no-of-descriptors ][ offset ][ length ][ offset ][ length ]...[ entry ][ entry ]...
+ * <---------4---------><--------8---------><--------8--------->
+ * <p>
+ * Each entry is stored like so, where the entry length describes the length of the full entry
+ * <p>
+ * [entry-length][  row|column  ][block-id][timestamp][block-offset]
+ * <---4--------><------n-------><---4----><----8----><-----4------>
+ * <p>
+ * Entries were written in key order, so they are held as parallel arrays rather
+ * than as objects: one row and column key per cell, with rows shared between
+ * consecutive cells, and the versions of every cell laid out contiguously.
+ */
+class DenseIndex {
+    private static final Logger LOGGER = getLogger(DenseIndex.class);
+    private static final int BLOCK_DESCRIPTOR_HEADER_BYTES = 4;
+    private static final int BLOCK_DESCRIPTOR_BYTES = 8;
+    private static final int BLOCK_ENTRY_METADATA_BYTES = 20;
+    private static final char ENTRY_ROW_KEY_SEPARATOR = '|';
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final BlockDescriptor[] blockDescriptors;
+    private String[] rowKeys;
+    private String[] columnKeys;
+    private int[] firstEntryInCell;
+    private int[] blockIds;
+    private long[] timestamps;
+    private int[] offsets;
+    private int noOfCells;
+    private int noOfEntries;
+
+    DenseIndex(Source source, CompressionStrategy compressionStrategy, int footerOffset, int compressedLength, int uncompressedLength) throws IOException, SSTableException {
+        this.rowKeys = new String[INITIAL_CAPACITY];
+        this.columnKeys = new String[INITIAL_CAPACITY];
+        this.firstEntryInCell = new int[INITIAL_CAPACITY + 1];
+        this.blockIds = new int[INITIAL_CAPACITY];
+        this.timestamps = new long[INITIAL_CAPACITY];
+        this.offsets = new int[INITIAL_CAPACITY];
+
+        try (DataInputStream inputStream = new DataInputStream(compressionStrategy.newInputStream(source.getRange(footerOffset, compressedLength)))) {
+            LOGGER.info("Initialising SSTable footer at offset " + footerOffset);
+            this.blockDescriptors = new BlockDescriptor[inputStream.readInt()];
+            int currentPos = BLOCK_DESCRIPTOR_HEADER_BYTES;
+
+            for (int blockId = 0; blockId < blockDescriptors.length; blockId++) {
+                blockDescriptors[blockId] = new BlockDescriptor(inputStream.readInt(), inputStream.readInt());
+                currentPos += BLOCK_DESCRIPTOR_BYTES;
+            }
+
+            while (currentPos < uncompressedLength) {
+                currentPos += readBlockEntry(inputStream);
+            }
+        }
+
+        this.firstEntryInCell[noOfCells] = noOfEntries;
+        trimToSize();
+    }
+
+    int noOfBlocks() {
+        return blockDescriptors.length;
+    }
+
+    BlockDescriptor getBlockDescriptor(int blockId) {
+        // cannot pass a block id >= number of descriptors
+        if (blockId < 0 || blockId >= blockDescriptors.length)
+            throw new IllegalArgumentException("Requested block id: " + blockId + " is invalid");
+
+        return blockDescriptors[blockId];
+    }
+
+    int noOfCells() {
+        return noOfCells;
+    }
+
+    int noOfEntries() {
+        return noOfEntries;
+    }
+
+    /**
+     * @return the cell with the given key, or -1 if it is not in the table
+     */
+    int find(String rowKey, String columnKey) {
+        int cell = seek(rowKey, columnKey);
+        if (cell < noOfCells && rowKeys[cell].equals(rowKey) && columnKeys[cell].equals(columnKey))
+            return cell;
+
+        return -1;
+    }
+
+    /**
+     * @return the first cell with a key greater than or equal to the one given,
+     * or the number of cells if every key is smaller
+     */
+    int seek(String rowKey, String columnKey) {
+        int low = 0;
+        int high = noOfCells;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareCell(middle, rowKey, columnKey) < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low;
+    }
+
+    /**
+     * @return the cell the entry at the given position in key order belongs to
+     */
+    int cellOf(int entry) {
+        int index = Arrays.binarySearch(firstEntryInCell, 0, noOfCells, entry);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    String rowKey(int cell) {
+        return rowKeys[cell];
+    }
+
+    String columnKey(int cell) {
+        return columnKeys[cell];
+    }
+
+    int firstEntryInCell(int cell) {
+        return firstEntryInCell[cell];
+    }
+
+    int blockId(int entry) {
+        return blockIds[entry];
+    }
+
+    long timestamp(int entry) {
+        return timestamps[entry];
+    }
+
+    int offset(int entry) {
+        return offsets[entry];
+    }
+
+    private int compareCell(int cell, String rowKey, String columnKey) {
+        int rowComparison = rowKeys[cell].compareTo(rowKey);
+        if (rowComparison != 0)
+            return rowComparison;
+
+        return columnKeys[cell].compareTo(columnKey);
+    }
+
+    private int readBlockEntry(DataInputStream inputStream) throws IOException {
+        int blockEntryLength = inputStream.readInt();
+
+        if (blockEntryLength <= BLOCK_ENTRY_METADATA_BYTES)
+            throw new SSTableException("Footer is corrupt, cannot read block index entry");
+
+        byte[] keyBytes = new byte[blockEntryLength - BLOCK_ENTRY_METADATA_BYTES];
+        inputStream.readFully(keyBytes);
+
+        String key = new String(keyBytes);
+        int rowEnd = key.indexOf(ENTRY_ROW_KEY_SEPARATOR);
+        if (rowEnd < 0)
+            throw new SSTableException("Footer is corrupt, block index entry has no column key");
+
+        int columnEnd = key.indexOf(ENTRY_ROW_KEY_SEPARATOR, rowEnd + 1);
+        putEntry(
+                key.substring(0, rowEnd),
+                key.substring(rowEnd + 1, columnEnd < 0 ? key.length() : columnEnd),
+                inputStream.readInt(),
+                inputStream.readLong(),
+                inputStream.readInt()
+        );
+        return blockEntryLength;
+    }
+
+    private void putEntry(String rowKey, String columnKey, int blockId, long timestamp, int offset) {
+        int comparison = noOfCells == 0 ? 1 : -compareCell(noOfCells - 1, rowKey, columnKey);
+        if (comparison < 0)
+            throw new SSTableException("Footer is corrupt, entries are not in key order");
+
+        if (comparison > 0) {
+            ensureCellCapacity();
+            boolean sameRow = noOfCells > 0 && rowKeys[noOfCells - 1].equals(rowKey);
+            rowKeys[noOfCells] = sameRow ? rowKeys[noOfCells - 1] : rowKey;
+            columnKeys[noOfCells] = columnKey;
+            firstEntryInCell[noOfCells] = noOfEntries;
+            noOfCells++;
+        }
+
+        ensureEntryCapacity();
+        blockIds[noOfEntries] = blockId;
+        timestamps[noOfEntries] = timestamp;
+        offsets[noOfEntries] = offset;
+        noOfEntries++;
+    }
+
+    private void ensureCellCapacity() {
+        if (noOfCells < rowKeys.length)
+            return;
+
+        rowKeys = Arrays.copyOf(rowKeys, rowKeys.length * 2);
+        columnKeys = Arrays.copyOf(columnKeys, columnKeys.length * 2);
+        firstEntryInCell = Arrays.copyOf(firstEntryInCell, columnKeys.length + 1);
+    }
+
+    private void ensureEntryCapacity() {
+        if (noOfEntries < blockIds.length)
+            return;
+
+        blockIds = Arrays.copyOf(blockIds, blockIds.length * 2);
+        timestamps = Arrays.copyOf(timestamps, timestamps.length * 2);
+        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+    }
+
+    private void trimToSize() {
+        rowKeys = Arrays.copyOf(rowKeys, noOfCells);
+        columnKeys = Arrays.copyOf(columnKeys, noOfCells);
+        firstEntryInCell = Arrays.copyOf(firstEntryInCell, noOfCells + 1);
+        blockIds = Arrays.copyOf(blockIds, noOfEntries);
+        timestamps = Arrays.copyOf(timestamps, noOfEntries);
+        offsets = Arrays.copyOf(offsets, noOfEntries);
+    }
+}
@@ -1,42 +1,56 @@
 package io.github.djhworld.sstable;
 
 import java.nio.ByteBuffer;
-import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkArgument;
-import static com.google.common.collect.Maps.newTreeMap;
 import static java.nio.ByteBuffer.wrap;
 
+/**
+ * Read only view over a decompressed block, entries are
+ * decoded in place when requested rather than up front.
+ * <p>
+ * The backing buffer may be on heap or direct, it is never
+ * repositioned so a block can be read by many threads at once.
+ */
 class ReadOnlyBlock implements Block {
-    private final Map<Integer, String> entries;
+    private final ByteBuffer buffer;
 
     ReadOnlyBlock(byte[] from) {
-        this.entries = newTreeMap();
-        loadEntries(from);
+        this(wrap(from));
     }
 
-    public String read(int offsetInBlock) {
-        checkArgument(entries.containsKey(offsetInBlock), "Invalid offset requested! (" + offsetInBlock + ")");
-        return entries.get(offsetInBlock);
+    ReadOnlyBlock(ByteBuffer from) {
+        this.buffer = from.slice();
     }
 
-    private void loadEntries(byte[] block) {
-        ByteBuffer buffer = wrap(block);
-        int position = buffer.position();
-
-        while (position < block.length) {
-            if (buffer.remaining() < 4)
-                break;
+    public String read(int offsetInBlock) {
+        checkArgument(
+                offsetInBlock >= 0 && offsetInBlock <= buffer.limit() - ENTRY_HEADER_BYTES,
+                "Invalid offset requested! (" + offsetInBlock + ")"
+        );
+
+        int length = buffer.getInt(offsetInBlock);
+        checkArgument(
+                length >= ENTRY_HEADER_BYTES && length <= buffer.limit() - offsetInBlock,
+                "Invalid offset requested! (" + offsetInBlock + ")"
+        );
+
+        return decode(offsetInBlock + ENTRY_HEADER_BYTES, length - ENTRY_HEADER_BYTES);
+    }
 
-            int length = buffer.getInt();
+    @Override
+    public int sizeInBytes() {
+        return buffer.capacity();
+    }
 
-            if (length == 0)
-                break;
+    private String decode(int position, int length) {
+        if (buffer.hasArray())
+            return new String(buffer.array(), buffer.arrayOffset() + position, length);
 
-            byte[] bytes = new byte[length - ENTRY_HEADER_BYTES];
-            buffer.get(bytes);
-            entries.put(position, new String(bytes));
-            position = buffer.position();
-        }
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.get(bytes);
+        return new String(bytes);
     }
-}
\ No newline at end of file
+}
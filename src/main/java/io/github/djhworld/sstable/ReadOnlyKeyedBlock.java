@@ -0,0 +1,286 @@
+package io.github.djhworld.sstable;
+
+import io.github.djhworld.model.RowMutation;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.github.djhworld.model.RowMutation.newAddMutation;
+import static io.github.djhworld.sstable.WriteableKeyedBlock.BLOCK_TRAILER_BYTES;
+import static io.github.djhworld.sstable.WriteableKeyedBlock.KEYED_ENTRY_HEADER_BYTES;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Read only view over a decompressed block whose entries carry their own keys.
+ * <p>
+ * Prefix compressed blocks, written by {@link WriteableKeyedBlock} from version 4
+ * onwards, are binary searched over their restart points. Version 3 blocks store
+ * every key in full with no restart points and are searched from the start.
+ * <p>
+ * [length][row-length][column-length][timestamp][ row ][ column ][ value ]...
+ * <--4---><----2-----><------2------><----8----><--r--><---c----><---v--->
+ * <p>
+ * Entries are read through a {@link Cursor} which rebuilds each key from the
+ * previous one, keys are compared against the UTF-8 bytes of the requested key
+ * so only the entries actually returned are decoded.
+ */
+class ReadOnlyKeyedBlock implements Block {
+    private static final int V3_ENTRY_HEADER_BYTES = 16;
+    private final ByteBuffer buffer;
+    private final boolean prefixCompressed;
+    private final int entriesEnd;
+    private final int restartsStart;
+    private final int noOfRestarts;
+
+    ReadOnlyKeyedBlock(ByteBuffer from, boolean prefixCompressed) {
+        this.buffer = from.slice();
+        this.prefixCompressed = prefixCompressed;
+
+        if (prefixCompressed) {
+            checkArgument(buffer.limit() >= BLOCK_TRAILER_BYTES, "Block is too small to hold a trailer");
+            this.noOfRestarts = buffer.getInt(buffer.limit() - 4);
+            this.entriesEnd = buffer.getInt(buffer.limit() - BLOCK_TRAILER_BYTES);
+            this.restartsStart = buffer.limit() - BLOCK_TRAILER_BYTES - (noOfRestarts * 4);
+            checkArgument(
+                    noOfRestarts >= 0 && entriesEnd >= 0 && entriesEnd <= restartsStart,
+                    "Block trailer is corrupt"
+            );
+        } else {
+            this.noOfRestarts = 0;
+            this.entriesEnd = buffer.limit();
+            this.restartsStart = buffer.limit();
+        }
+    }
+
+    /**
+     * @return cursor positioned at the first entry of the block
+     */
+    Cursor first() {
+        Cursor cursor = new Cursor();
+        cursor.moveTo(0);
+        return cursor;
+    }
+
+    /**
+     * @return cursor positioned at the first entry with a key greater than or equal to the one given,
+     * the cursor is not valid if every key in the block is smaller
+     */
+    Cursor seek(byte[] rowKey, byte[] columnKey) {
+        Cursor cursor = new Cursor();
+        cursor.moveTo(restartBefore(rowKey, columnKey));
+        while (cursor.isValid() && cursor.compareKey(rowKey, columnKey) < 0)
+            cursor.next();
+
+        return cursor;
+    }
+
+    @Override
+    public int sizeInBytes() {
+        return buffer.capacity();
+    }
+
+    /**
+     * @return offset of the last restart point whose key is smaller than the one given
+     */
+    private int restartBefore(byte[] rowKey, byte[] columnKey) {
+        int low = 0;
+        int high = noOfRestarts - 1;
+        int found = 0;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int restart = buffer.getInt(restartsStart + (middle * 4));
+            int rowStart = restart + KEYED_ENTRY_HEADER_BYTES;
+            int rowLength = Short.toUnsignedInt(buffer.getShort(restart + 2));
+            int columnLength = Short.toUnsignedInt(buffer.getShort(restart + 6));
+
+            int comparison = compare(rowStart, rowLength, rowKey, rowKey.length);
+            if (comparison == 0)
+                comparison = compare(rowStart + rowLength, columnLength, columnKey, columnKey.length);
+
+            if (comparison < 0) {
+                found = restart;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return found;
+    }
+
+    private int compare(int position, int length, byte[] key, int keyLength) {
+        int common = Math.min(length, keyLength);
+        for (int i = 0; i < common; i++) {
+            int comparison = Integer.compare(buffer.get(position + i) & 0xFF, key[i] & 0xFF);
+            if (comparison != 0)
+                return comparison;
+        }
+        return Integer.compare(length, keyLength);
+    }
+
+    private static int compare(byte[] bytes, int length, byte[] key) {
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int comparison = Integer.compare(bytes[i] & 0xFF, key[i] & 0xFF);
+            if (comparison != 0)
+                return comparison;
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private void copy(int position, byte[] into, int intoOffset, int length) {
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + position, into, intoOffset, length);
+            return;
+        }
+
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.get(into, intoOffset, length);
+    }
+
+    private String decode(int position, int length) {
+        if (buffer.hasArray())
+            return new String(buffer.array(), buffer.arrayOffset() + position, length, UTF_8);
+
+        byte[] bytes = new byte[length];
+        copy(position, bytes, 0, length);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Position within the block, holds the current entry's key
+     * and is only ever moved forwards
+     */
+    class Cursor {
+        private int offset;
+        private int nextOffset;
+        private boolean valid;
+        private byte[] rowKey = new byte[32];
+        private int rowKeyLength;
+        private byte[] columnKey = new byte[32];
+        private int columnKeyLength;
+        private String decodedRowKey;
+        private int valueStart;
+        private int valueLength;
+        private long timestamp;
+
+        boolean isValid() {
+            return valid;
+        }
+
+        void next() {
+            moveTo(nextOffset);
+        }
+
+        int compareKey(byte[] rowKey, byte[] columnKey) {
+            int rowComparison = compare(this.rowKey, rowKeyLength, rowKey);
+            if (rowComparison != 0)
+                return rowComparison;
+
+            return compare(this.columnKey, columnKeyLength, columnKey);
+        }
+
+        boolean hasRowKey(byte[] rowKey) {
+            return rowKeyLength == rowKey.length && compare(this.rowKey, rowKeyLength, rowKey) == 0;
+        }
+
+        boolean columnKeyStartsWith(byte[] prefix) {
+            return columnKeyLength >= prefix.length && compare(this.columnKey, prefix.length, prefix) == 0;
+        }
+
+        long timestamp() {
+            return timestamp;
+        }
+
+        String value() {
+            return decode(valueStart, valueLength);
+        }
+
+        RowMutation mutation() {
+            if (decodedRowKey == null)
+                decodedRowKey = new String(rowKey, 0, rowKeyLength, UTF_8);
+
+            return newAddMutation(
+                    decodedRowKey,
+                    new String(columnKey, 0, columnKeyLength, UTF_8),
+                    value(),
+                    timestamp
+            );
+        }
+
+        private void moveTo(int offset) {
+            this.offset = offset;
+            this.valid = prefixCompressed ? readPrefixCompressedEntry() : readEntry();
+        }
+
+        private boolean readPrefixCompressedEntry() {
+            if (offset >= entriesEnd)
+                return false;
+
+            checkArgument(offset <= entriesEnd - KEYED_ENTRY_HEADER_BYTES, "Invalid offset requested! (" + offset + ")");
+            int sharedRow = Short.toUnsignedInt(buffer.getShort(offset));
+            int unsharedRow = Short.toUnsignedInt(buffer.getShort(offset + 2));
+            int sharedColumn = Short.toUnsignedInt(buffer.getShort(offset + 4));
+            int unsharedColumn = Short.toUnsignedInt(buffer.getShort(offset + 6));
+            this.valueLength = buffer.getInt(offset + 8);
+            this.timestamp = buffer.getLong(offset + 12);
+
+            int rowStart = offset + KEYED_ENTRY_HEADER_BYTES;
+            this.valueStart = rowStart + unsharedRow + unsharedColumn;
+            this.nextOffset = valueStart + valueLength;
+            checkArgument(
+                    sharedRow <= rowKeyLength && sharedColumn <= columnKeyLength && valueLength >= 0 && nextOffset <= entriesEnd,
+                    "Invalid offset requested! (" + offset + ")"
+            );
+
+            if (unsharedRow > 0 || sharedRow != rowKeyLength) {
+                this.rowKey = ensureCapacity(rowKey, sharedRow + unsharedRow);
+                copy(rowStart, rowKey, sharedRow, unsharedRow);
+                this.rowKeyLength = sharedRow + unsharedRow;
+                this.decodedRowKey = null;
+            }
+
+            this.columnKey = ensureCapacity(columnKey, sharedColumn + unsharedColumn);
+            copy(rowStart + unsharedRow, columnKey, sharedColumn, unsharedColumn);
+            this.columnKeyLength = sharedColumn + unsharedColumn;
+            return true;
+        }
+
+        private boolean readEntry() {
+            if (offset < 0 || offset > buffer.limit() - V3_ENTRY_HEADER_BYTES)
+                return false;
+
+            int length = buffer.getInt(offset);
+            if (length == 0)
+                return false;
+
+            int rowLength = Short.toUnsignedInt(buffer.getShort(offset + 4));
+            int columnLength = Short.toUnsignedInt(buffer.getShort(offset + 6));
+            checkArgument(
+                    length >= V3_ENTRY_HEADER_BYTES + rowLength + columnLength && length <= buffer.limit() - offset,
+                    "Invalid offset requested! (" + offset + ")"
+            );
+
+            int rowStart = offset + V3_ENTRY_HEADER_BYTES;
+            this.timestamp = buffer.getLong(offset + 8);
+            this.rowKey = ensureCapacity(rowKey, rowLength);
+            this.columnKey = ensureCapacity(columnKey, columnLength);
+            copy(rowStart, rowKey, 0, rowLength);
+            copy(rowStart + rowLength, columnKey, 0, columnLength);
+            this.rowKeyLength = rowLength;
+            this.columnKeyLength = columnLength;
+            this.decodedRowKey = null;
+            this.valueStart = rowStart + rowLength + columnLength;
+            this.valueLength = length - V3_ENTRY_HEADER_BYTES - rowLength - columnLength;
+            this.nextOffset = offset + length;
+            return true;
+        }
+
+        private byte[] ensureCapacity(byte[] key, int length) {
+            return key.length >= length ? key : Arrays.copyOf(key, Math.max(length, key.length * 2));
+        }
+    }
+}
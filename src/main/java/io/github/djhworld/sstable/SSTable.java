@@ -1,10 +1,9 @@
 package io.github.djhworld.sstable;
 
-import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Splitter;
 import com.google.common.collect.Table;
-import com.google.common.collect.TreeBasedTable;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
 import io.github.djhworld.exception.SSTableException;
 import io.github.djhworld.io.CompressionType;
 import io.github.djhworld.io.CompressionStrategy;
@@ -14,68 +13,175 @@ import io.github.djhworld.model.RowMutation;
 import org.slf4j.Logger;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
-import static com.google.common.collect.Lists.newArrayList;
-import static com.google.common.collect.TreeBasedTable.create;
+import static com.google.common.collect.Tables.immutableCell;
 import static io.github.djhworld.io.CompressionType.*;
+import static io.github.djhworld.model.RowMutation.TOMBSTONE;
 import static io.github.djhworld.model.RowMutation.newAddMutation;
-import static io.github.djhworld.sstable.SSTable.Header.HEADER_LENGTH;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Optional.empty;
 import static java.util.Optional.ofNullable;
 import static java.util.Spliterators.spliteratorUnknownSize;
+import static org.apache.commons.io.IOUtils.closeQuietly;
 import static org.slf4j.LoggerFactory.getLogger;
 
-public class SSTable {
+public class SSTable implements Closeable {
     private static final Logger LOGGER = getLogger(SSTable.class);
     private static final int MAGIC = 55748130;
+    private static final AtomicLong SSTABLE_IDS = new AtomicLong(0);
+    private static final int DEFAULT_SCAN_READAHEAD_BLOCKS = 4;
 
+    private final long id;
     private final Source source;
     private final Header header;
-    private final Footer footer;
-    private final Block[] blocks;
+    private final DenseIndex denseIndex;
+    private final SparseIndex sparseIndex;
+    private final Filter filter;
+    private final Metadata metadata;
+    private final BlockCache blockCache;
     private final CompressionStrategy compressionStrategy;
 
     public SSTable(Source source) {
+        this(source, new BlockCache());
+    }
+
+    /**
+     * @param blockCache cache of decoded blocks, usually shared with every other SSTable on the server
+     */
+    public SSTable(Source source, BlockCache blockCache) {
         LOGGER.info("Initialising SSTable at " + source.getLocation());
         try {
+            this.id = SSTABLE_IDS.incrementAndGet();
             this.source = source;
+            this.blockCache = blockCache;
             this.header = new Header(this.source);
             this.compressionStrategy = CompressionStrategyFactory.create(header.compressionType);
-            this.footer = newFooter();
+            this.denseIndex = header.hasSparseIndex() ? null : newDenseIndex();
+            this.sparseIndex = header.hasSparseIndex() ? newSparseIndex() : null;
+            this.filter = newFilter();
+            this.metadata = newMetadata();
 
-            if (header.noOfBlocks != this.footer.blockDescriptors.size())
+            int noOfBlocksInFooter = header.hasSparseIndex() ? this.sparseIndex.noOfBlocks() : this.denseIndex.noOfBlocks();
+            if (header.noOfBlocks != noOfBlocksInFooter)
                 throw new SSTableException("Number of blocks do not match in header and footer");
-
-            this.blocks = new ReadOnlyBlock[header.noOfBlocks];
         } catch (Exception e) {
+            closeQuietly(source);
             throw new SSTableException("Exception caught attempting to initialise SSTable", e);
         }
     }
 
     public boolean contains(String rowName, String columnName) {
-        return this.footer.keysToBlockEntries.contains(
-                rowName, columnName
-        );
+        if (!this.filter.mightContain(rowName, columnName))
+            return false;
+
+        boolean contains = header.hasSparseIndex()
+                ? findInSparseIndex(rowName.getBytes(UTF_8), columnName.getBytes(UTF_8)) != null
+                : this.denseIndex.find(rowName, columnName) >= 0;
+        this.filter.recordLookup(contains);
+        return contains;
     }
 
     //TODO: get all versions?
     public Optional<String> get(String rowName, String columnName) {
-        List<BlockEntryDescriptor> blockEntryDescriptors =
-                this.footer.keysToBlockEntries.get(rowName, columnName);
+        return get(rowName, columnName, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxTimestamp versions with a later timestamp are ignored, apart from deletes which hide every
+     *                     version written before them whatever the bound
+     * @return the first version of the cell, in the order versions were written, that is no later than
+     * maxTimestamp or is a tombstone
+     */
+    public Optional<String> get(String rowName, String columnName, long maxTimestamp) {
+        if (!this.metadata.mayContainVersionsAtOrBefore(maxTimestamp))
+            return empty();
+
+        if (!this.filter.mightContain(rowName, columnName))
+            return empty();
+
+        if (header.hasSparseIndex()) {
+            byte[] rowKey = rowName.getBytes(UTF_8);
+            byte[] columnKey = columnName.getBytes(UTF_8);
+            KeyedBlockPosition position = findInSparseIndex(rowKey, columnKey);
+            this.filter.recordLookup(position != null);
+
+            while (position != null && position.cursor.timestamp() > maxTimestamp && !isTombstone(position.cursor.timestamp(), position.cursor::value)) {
+                position.cursor.next();
+                if (!position.skipToEntry() || position.cursor.compareKey(rowKey, columnKey) != 0)
+                    position = null;
+            }
+
+            return position == null ? empty() : ofNullable(position.cursor.value());
+        }
 
-        if (blockEntryDescriptors == null || blockEntryDescriptors.size() == 0)
+        int cell = this.denseIndex.find(rowName, columnName);
+        this.filter.recordLookup(cell >= 0);
+
+        if (cell < 0)
             return empty();
 
-        return ofNullable(getValueFromBlock(blockEntryDescriptors.get(0)));
+        for (int entry = this.denseIndex.firstEntryInCell(cell); entry < this.denseIndex.firstEntryInCell(cell + 1); entry++) {
+            int blockId = this.denseIndex.blockId(entry);
+            int offset = this.denseIndex.offset(entry);
+            long timestamp = this.denseIndex.timestamp(entry);
+            if (timestamp <= maxTimestamp)
+                return ofNullable(getValueFromBlock(blockId, offset));
+            if (isTombstone(timestamp, () -> getValueFromBlock(blockId, offset)))
+                return Optional.of(TOMBSTONE);
+        }
+
+        return empty();
+    }
+
+    /**
+     * Deletes are written with the maximum timestamp, so the value is only read for versions carrying it
+     */
+    private static boolean isTombstone(long timestamp, Supplier<String> value) {
+        return timestamp == Long.MAX_VALUE && TOMBSTONE.equals(value.get());
+    }
+
+    /**
+     * @return false if the row is outside the range of rows in the table, answered without touching the index
+     */
+    public boolean mayContainRow(String rowKey) {
+        return this.metadata.mayContainRow(rowKey.getBytes(UTF_8));
+    }
+
+    /**
+     * @return false if every version in the table is later than the timestamp and none may be a delete,
+     * answered without touching the index
+     */
+    public boolean mayContainVersionsAtOrBefore(long timestamp) {
+        return this.metadata.mayContainVersionsAtOrBefore(timestamp);
     }
 
     public Stream<RowMutation> stream() {
-        this.loadAllBlocks();
-        Iterator<RowMutation> scanIterator = createScanIterator();
-        return StreamSupport.stream(spliteratorUnknownSize(scanIterator, Spliterator.SUBSIZED), false);
+        return stream(DEFAULT_SCAN_READAHEAD_BLOCKS);
+    }
+
+    /**
+     * Scans the whole table in key order, reading blocks sequentially through a
+     * window of at most readaheadBlocks blocks. Blocks are decoded once for the scan
+     * and released afterwards, none of them are put into the block cache.
+     * <p>
+     * The stream is sized and splits along block boundaries, so a parallel stream
+     * decodes different ranges of blocks on different threads, each in key order.
+     *
+     * @param readaheadBlocks number of blocks fetched per read from the source
+     */
+    public Stream<RowMutation> stream(int readaheadBlocks) {
+        Preconditions.checkArgument(readaheadBlocks > 0, "Readahead must be at least one block");
+        if (header.hasSparseIndex())
+            return StreamSupport.stream(new KeyedBlockRangeSpliterator(0, header.noOfBlocks, readaheadBlocks), false);
+
+        return StreamSupport.stream(new BlockRangeSpliterator(0, denseIndex.noOfEntries(), readaheadBlocks), false);
     }
 
     public Stream<RowMutation> stream(String rowKey) {
@@ -87,12 +193,23 @@ public class SSTable {
     }
 
     public long cachedBlocks() {
-        int size = 0;
-        for (int i = 0; i < blocks.length; i++) {
-            if (blocks[i] != null)
-                size++;
-        }
-        return size;
+        return blockCache.cachedBlocks(id);
+    }
+
+    /**
+     * Drops any of this table's blocks from the block cache, used once the table is no longer served
+     */
+    public void evictCachedBlocks() {
+        blockCache.invalidateAll(id);
+    }
+
+    /**
+     * Evicts the table's blocks and closes its source, callers must make sure no read of the table is in flight
+     */
+    @Override
+    public void close() throws IOException {
+        evictCachedBlocks();
+        source.close();
     }
 
     public int blocks() {
@@ -104,188 +221,507 @@ public class SSTable {
     }
 
     public int noOfRows() {
-        return this.footer.keysToBlockEntries.size();
+        if (header.hasSparseIndex())
+            return this.sparseIndex.noOfCells();
+
+        return this.denseIndex.noOfCells();
+    }
+
+    /**
+     * @return number of values in the table, counting every version of every cell
+     */
+    public int noOfEntries() {
+        if (header.hasSparseIndex())
+            return this.sparseIndex.noOfEntries();
+
+        return this.denseIndex.noOfEntries();
     }
 
     public CompressionType compressionCodec() {
         return this.header.compressionType;
     }
 
-    private Stream<RowMutation> scanRowFor(String rowKey, String columnFamily) {
-        SortedMap<String, List<BlockEntryDescriptor>> row = this.footer.keysToBlockEntries.row(rowKey);
+    /**
+     * @return number of lookups the bloom filter passed that were present in the table
+     */
+    public long bloomFilterHits() {
+        return this.filter.hits.get();
+    }
+
+    /**
+     * @return number of lookups answered by the bloom filter alone, without touching the index
+     */
+    public long bloomFilterMisses() {
+        return this.filter.misses.get();
+    }
 
-        if (row == null)
+    /**
+     * @return number of lookups the bloom filter passed that were not present in the table
+     */
+    public long bloomFilterFalsePositives() {
+        return this.filter.falsePositives.get();
+    }
+
+    private Stream<RowMutation> scanRowFor(String rowKey, String columnFamily) {
+        if (!mayContainRow(rowKey))
             return Stream.empty();
 
-        Iterator<RowMutation> rowMutationIterator = createRowColumnFamilyIterator(rowKey, columnFamily, row);
-        return StreamSupport.stream(spliteratorUnknownSize(rowMutationIterator, Spliterator.SUBSIZED), false);
+        if (header.hasSparseIndex()) {
+            Iterator<RowMutation> rowMutationIterator = createKeyedRowColumnFamilyIterator(rowKey, columnFamily);
+            return StreamSupport.stream(spliteratorUnknownSize(rowMutationIterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+        }
+
+        Iterator<RowMutation> rowMutationIterator = createRowColumnFamilyIterator(rowKey, columnFamily);
+        return StreamSupport.stream(spliteratorUnknownSize(rowMutationIterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
     }
 
-    private Iterator<RowMutation> createScanIterator() {
+    private Iterator<RowMutation> createRowColumnFamilyIterator(final String rowKey, final String columnFamily) {
+        final int firstCell = denseIndex.seek(rowKey, columnFamily);
+
         return new Iterator<RowMutation>() {
-            private Iterator<Table.Cell<String, String, List<BlockEntryDescriptor>>> cellIterator = footer.keysToBlockEntries.cellSet().iterator();
-            private Iterator<BlockEntryDescriptor> valueVersionIterator;
-            private Table.Cell<String, String, List<BlockEntryDescriptor>> currentCell;
-            private BlockEntryDescriptor currentValueVersion;
+            private int cell = firstCell;
+            private int entry = firstCell < denseIndex.noOfCells() ? denseIndex.firstEntryInCell(firstCell) : denseIndex.noOfEntries();
 
             @Override
             public boolean hasNext() {
-                if (!cellIterator.hasNext())
-                    return false;
-
-                if (valueVersionIterator == null || !valueVersionIterator.hasNext()) {
-                    currentCell = cellIterator.next();
-                    valueVersionIterator = currentCell.getValue().iterator();
-                    currentValueVersion = valueVersionIterator.next();
-                } else if (valueVersionIterator.hasNext()) {
-                    currentValueVersion = valueVersionIterator.next();
-                }
-
-                return true;
+                return cell < denseIndex.noOfCells()
+                        && denseIndex.rowKey(cell).equals(rowKey)
+                        && denseIndex.columnKey(cell).startsWith(columnFamily);
             }
 
             @Override
             public RowMutation next() {
-                String value = getValueFromBlock(currentValueVersion);
-                return newAddMutation(
-                        currentCell.getRowKey(),
-                        currentCell.getColumnKey(),
-                        value,
-                        currentValueVersion.timestamp
-                );
+                if (!hasNext())
+                    throw new NoSuchElementException();
+
+                RowMutation rowMutation = newAddMutation(
+                        rowKey,
+                        denseIndex.columnKey(cell),
+                        getValueFromBlock(denseIndex.blockId(entry), denseIndex.offset(entry)),
+                        denseIndex.timestamp(entry));
+
+                entry++;
+                if (entry == denseIndex.firstEntryInCell(cell + 1))
+                    cell++;
+
+                return rowMutation;
             }
         };
     }
 
-    private Iterator<RowMutation> createRowColumnFamilyIterator(final String rowKey,
-                                                                final String columnFamily,
-                                                                final SortedMap<String, List<BlockEntryDescriptor>> row) {
-        Preconditions.checkNotNull(row);
+    private Iterator<RowMutation> createKeyedRowColumnFamilyIterator(final String rowKey, final String columnFamily) {
+        final byte[] rowKeyBytes = rowKey.getBytes(UTF_8);
+        final byte[] columnFamilyBytes = columnFamily.getBytes(UTF_8);
+        final KeyedBlockPosition start = seekInSparseIndex(rowKeyBytes, columnFamilyBytes);
 
         return new Iterator<RowMutation>() {
-            private boolean columnFamilyFound = false;
-            private Iterator<Map.Entry<String, List<BlockEntryDescriptor>>> columnsIterator = row.entrySet().iterator();
-            private Iterator<BlockEntryDescriptor> valueVersionIterator;
-            private Map.Entry<String, List<BlockEntryDescriptor>> currentColumn;
-            private BlockEntryDescriptor currentValueVersion;
+            private KeyedBlockPosition position = start;
 
             @Override
             public boolean hasNext() {
-                if (!columnsIterator.hasNext())
-                    return false;
-
-                moveForward();
-
-                // column family out of scope so we can quit
-                if (columnFamilyFound && !currentColumn.getKey().startsWith(columnFamily))
-                    return false;
-
-                //skip until column family found
-                while (!columnFamilyFound && columnsIterator.hasNext()) {
-                    if (currentColumn.getKey().startsWith(columnFamily))
-                        columnFamilyFound = true;
-                    else
-                        moveForward();
-                }
-
-                return columnFamilyFound;
-            }
-
-            private void moveForward() {
-                if (valueVersionIterator == null || !valueVersionIterator.hasNext()) {
-                    currentColumn = columnsIterator.next();
-                    valueVersionIterator = currentColumn.getValue().iterator();
-                    currentValueVersion = valueVersionIterator.next();
-                } else if (valueVersionIterator.hasNext()) {
-                    currentValueVersion = valueVersionIterator.next();
-                }
+                return position != null
+                        && position.cursor.hasRowKey(rowKeyBytes)
+                        && position.cursor.columnKeyStartsWith(columnFamilyBytes);
             }
 
             @Override
             public RowMutation next() {
-                String value = getValueFromBlock(currentValueVersion);
-                return newAddMutation(
-                        rowKey,
-                        currentColumn.getKey(),
-                        value,
-                        currentValueVersion.timestamp);
+                if (!hasNext())
+                    throw new NoSuchElementException();
+
+                RowMutation rowMutation = position.cursor.mutation();
+                position.cursor.next();
+                if (!position.skipToEntry())
+                    position = null;
+
+                return rowMutation;
             }
         };
     }
 
-    private Footer newFooter() throws IOException {
-        int footerCompressedLength = this.header.fileLength - this.header.footerOffset;
-        int footerOffset = this.header.fileLength - footerCompressedLength;
-        return new Footer(
+    /**
+     * @return position of the first version of the cell, null if the cell is not in the table
+     */
+    private KeyedBlockPosition findInSparseIndex(byte[] rowKey, byte[] columnKey) {
+        KeyedBlockPosition position = seekInSparseIndex(rowKey, columnKey);
+
+        if (position == null || position.cursor.compareKey(rowKey, columnKey) != 0)
+            return null;
+
+        return position;
+    }
+
+    /**
+     * @return position of the first entry with a key greater than or equal to the one given,
+     * null if there is no such entry in the table
+     */
+    private KeyedBlockPosition seekInSparseIndex(byte[] rowKey, byte[] columnKey) {
+        int blockId = this.sparseIndex.findBlock(rowKey, columnKey);
+        KeyedBlockPosition position = new KeyedBlockPosition(blockId, getKeyedBlock(blockId).seek(rowKey, columnKey));
+        return position.skipToEntry() ? position : null;
+    }
+
+    private ReadOnlyKeyedBlock getKeyedBlock(int blockId) {
+        try {
+            return (ReadOnlyKeyedBlock) getBlock(blockId);
+        } catch (IOException e) {
+            throw new SSTableException("Problem reading from block " + blockId, e);
+        }
+    }
+
+    private DenseIndex newDenseIndex() throws IOException {
+        int footerEnd = this.header.hasFilter() ? this.header.filterOffset : this.header.fileLength;
+        int footerCompressedLength = footerEnd - this.header.footerOffset;
+        return new DenseIndex(
                 this.source,
                 this.compressionStrategy,
-                footerOffset,
+                this.header.footerOffset,
                 footerCompressedLength,
                 this.header.footerUncompressedLength
         );
     }
 
-    private String getValueFromBlock(BlockEntryDescriptor blockEntryDescriptor) {
+    private SparseIndex newSparseIndex() throws IOException {
+        return new SparseIndex(
+                this.source,
+                this.compressionStrategy,
+                this.header.footerOffset,
+                this.header.filterOffset - this.header.footerOffset
+        );
+    }
+
+    private Filter newFilter() throws IOException {
+        if (!this.header.hasFilter())
+            return Filter.absent();
+
+        int filterEnd = this.header.hasMetadata() ? this.header.metadataOffset : this.header.fileLength;
+        return new Filter(
+                this.source,
+                this.header.filterOffset,
+                filterEnd - this.header.filterOffset
+        );
+    }
+
+    private Metadata newMetadata() throws IOException {
+        if (!this.header.hasMetadata())
+            return Metadata.absent();
+
+        return new Metadata(
+                this.source,
+                this.header.metadataOffset,
+                this.header.fileLength - this.header.metadataOffset
+        );
+    }
+
+    private String getValueFromBlock(int blockId, int offset) {
         try {
-            Block block = getBlock(blockEntryDescriptor.id);
-            return block.read(blockEntryDescriptor.offset);
+            Block block = getBlock(blockId);
+            return block.read(offset);
         } catch (IOException e) {
-            throw new SSTableException("Problem reading from block " + blockEntryDescriptor.id, e.getCause());
+            throw new SSTableException("Problem reading from block " + blockId, e.getCause());
         }
     }
 
     private Block getBlock(int blockId) throws IOException {
-        if (blocks[blockId] == null)
-            blocks[blockId] = loadBlock(blockId);
-
-        return blocks[blockId];
+        return blockCache.get(id, blockId, this::loadBlock);
     }
 
     private Block loadBlock(int blockId) throws IOException {
-        BlockDescriptor blockDescriptor = this.footer.getBlockDescriptor(blockId);
-
-        try (DataInputStream inputStream = new DataInputStream(compressionStrategy.newInputStream(source.getRange(blockDescriptor.offset, blockDescriptor.length)))) {
-            byte[] block = new byte[this.blockSize()];
-            inputStream.readFully(block);
-            return new ReadOnlyBlock(block);
-        }
-    }
-
-    private void loadAllBlocks() {
-        if (cachedBlocks() == header.noOfBlocks)
-            return;
-
-        int totalBytesForAllBlocks = this.footer.computeLengthOfAllBlocks();
-
-        byte[] uncompressedBlock = new byte[header.blockSize];
-        byte[] allBlocks = new byte[totalBytesForAllBlocks];
-        try (DataInputStream allBlocksStream = new DataInputStream(source.getRange(HEADER_LENGTH, totalBytesForAllBlocks))) {
-            allBlocksStream.readFully(allBlocks);
-
-            int blockNo = 0;
-            for (BlockDescriptor blockDescriptor : this.footer.blockDescriptors) {
-                if (blocks[blockNo] == null) {
-                    DataInputStream dis = new DataInputStream(
-                            compressionStrategy.newInputStream(
-                                    new ByteArrayInputStream(
-                                            allBlocks,
-                                            blockDescriptor.offset - HEADER_LENGTH,
-                                            blockDescriptor.length)
-                            )
-                    );
-
-                    dis.readFully(uncompressedBlock);
-                    blocks[blockNo] = new ReadOnlyBlock(uncompressedBlock);
-                }
-                blockNo++;
+        BlockDescriptor blockDescriptor = getBlockDescriptor(blockId);
+
+        ByteBuffer compressedBlock = source.getBuffer(blockDescriptor.offset, blockDescriptor.length);
+        return decompressBlock(compressedBlock);
+    }
+
+    private Block decompressBlock(ByteBuffer compressedBlock) throws IOException {
+        ByteBuffer block = compressionStrategy.decompress(compressedBlock, this.blockSize());
+        if (header.hasSparseIndex())
+            return new ReadOnlyKeyedBlock(block, header.hasPrefixCompressedBlocks());
+
+        return new ReadOnlyBlock(block);
+    }
+
+    private BlockDescriptor getBlockDescriptor(int blockId) {
+        return header.hasSparseIndex() ? this.sparseIndex.getBlockDescriptor(blockId) : this.denseIndex.getBlockDescriptor(blockId);
+    }
+
+    /**
+     * Cursor over the blocks of a table with a sparse index, used by point lookups and row scans
+     */
+    private class KeyedBlockPosition {
+        private int blockId;
+        private ReadOnlyKeyedBlock.Cursor cursor;
+
+        private KeyedBlockPosition(int blockId, ReadOnlyKeyedBlock.Cursor cursor) {
+            this.blockId = blockId;
+            this.cursor = cursor;
+        }
+
+        /**
+         * @return false if the end of the table was reached before an entry was found
+         */
+        private boolean skipToEntry() {
+            while (!cursor.isValid()) {
+                if (++blockId >= header.noOfBlocks)
+                    return false;
+
+                cursor = getKeyedBlock(blockId).first();
             }
-        } catch (IOException e) {
-            throw new SSTableException("Error attempting to load all blocks from cache", e);
+            return true;
+        }
+    }
+
+    /**
+     * Spliterator over a range of entries of a dense index with its own scan window,
+     * ranges are only ever split where the next entry lives in another block
+     */
+    private class BlockRangeSpliterator implements Spliterator<RowMutation> {
+        private final int readaheadBlocks;
+        private final ScanWindow scanWindow;
+        private int position;
+        private int cell;
+        private final int end;
+
+        private BlockRangeSpliterator(int position, int end, int readaheadBlocks) {
+            this.position = position;
+            this.cell = position < end ? denseIndex.cellOf(position) : 0;
+            this.end = end;
+            this.readaheadBlocks = readaheadBlocks;
+            this.scanWindow = new ScanWindow(readaheadBlocks, position < end ? denseIndex.blockId(end - 1) + 1 : 0);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super RowMutation> action) {
+            if (position >= end)
+                return false;
+
+            action.accept(read());
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super RowMutation> action) {
+            while (position < end) {
+                action.accept(read());
+            }
+        }
+
+        @Override
+        public Spliterator<RowMutation> trySplit() {
+            int middle = position + ((end - position) / 2);
+
+            int split = middle;
+            while (split < end && split > position && !isBlockBoundary(split))
+                split++;
+
+            if (split >= end) {
+                split = middle;
+                while (split > position && !isBlockBoundary(split))
+                    split--;
+            }
+
+            if (split <= position)
+                return null;
+
+            BlockRangeSpliterator prefix = new BlockRangeSpliterator(position, split, readaheadBlocks);
+            this.position = split;
+            this.cell = denseIndex.cellOf(split);
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - position;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+        }
+
+        private boolean isBlockBoundary(int entry) {
+            return denseIndex.blockId(entry) != denseIndex.blockId(entry - 1);
+        }
+
+        private RowMutation read() {
+            while (position >= denseIndex.firstEntryInCell(cell + 1))
+                cell++;
+
+            RowMutation rowMutation = newAddMutation(
+                    denseIndex.rowKey(cell),
+                    denseIndex.columnKey(cell),
+                    scanWindow.read(denseIndex.blockId(position), denseIndex.offset(position)),
+                    denseIndex.timestamp(position)
+            );
+            position++;
+            return rowMutation;
+        }
+    }
+
+    /**
+     * Spliterator over a range of blocks of a table with a sparse index, entries are
+     * read from the blocks themselves so ranges can only be split between blocks
+     */
+    private class KeyedBlockRangeSpliterator implements Spliterator<RowMutation> {
+        private final int readaheadBlocks;
+        private final ScanWindow scanWindow;
+        private final int endBlockId;
+        private int blockId;
+        private ReadOnlyKeyedBlock.Cursor cursor;
+        private int position;
+
+        private KeyedBlockRangeSpliterator(int blockId, int endBlockId, int readaheadBlocks) {
+            this.blockId = blockId;
+            this.endBlockId = endBlockId;
+            this.position = sparseIndex.firstEntryInBlock(blockId);
+            this.readaheadBlocks = readaheadBlocks;
+            this.scanWindow = new ScanWindow(readaheadBlocks, endBlockId);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super RowMutation> action) {
+            if (position >= sparseIndex.firstEntryInBlock(endBlockId))
+                return false;
+
+            action.accept(read());
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super RowMutation> action) {
+            int end = sparseIndex.firstEntryInBlock(endBlockId);
+            while (position < end) {
+                action.accept(read());
+            }
+        }
+
+        @Override
+        public Spliterator<RowMutation> trySplit() {
+            int split = blockId + 1 + ((endBlockId - blockId - 1) / 2);
+            if (split <= blockId || split >= endBlockId)
+                return null;
+
+            KeyedBlockRangeSpliterator prefix = new KeyedBlockRangeSpliterator(blockId, split, readaheadBlocks);
+            prefix.cursor = this.cursor;
+            prefix.position = this.position;
+            this.blockId = split;
+            this.cursor = null;
+            this.position = sparseIndex.firstEntryInBlock(split);
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return sparseIndex.firstEntryInBlock(endBlockId) - position;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+        }
+
+        private RowMutation read() {
+            try {
+                if (cursor == null)
+                    cursor = ((ReadOnlyKeyedBlock) scanWindow.getBlock(blockId)).first();
+
+                while (!cursor.isValid())
+                    cursor = ((ReadOnlyKeyedBlock) scanWindow.getBlock(++blockId)).first();
+
+                RowMutation rowMutation = cursor.mutation();
+                cursor.next();
+                position++;
+                return rowMutation;
+            } catch (IOException e) {
+                throw new SSTableException("Problem reading from block " + blockId, e);
+            }
+        }
+    }
+
+    /**
+     * Blocks for a single scan, read from the source readahead blocks at a time
+     * in one request and decoded lazily. Blocks already in the block cache are
+     * used as is, but nothing read here is added to it. Reads never reach past
+     * the end of the range being scanned, which another scan may be reading.
+     */
+    private class ScanWindow {
+        private final Block[] window;
+        private final int endBlockId;
+        private int firstBlockId;
+        private int noOfBlocks;
+        private ByteBuffer compressedBlocks;
+
+        /**
+         * @param endBlockId block after the last one scanned
+         */
+        private ScanWindow(int readaheadBlocks, int endBlockId) {
+            this.window = new Block[readaheadBlocks];
+            this.endBlockId = endBlockId;
+            this.firstBlockId = -1;
+            this.noOfBlocks = 0;
+        }
+
+        String read(int blockId, int offset) {
+            try {
+                return getBlock(blockId).read(offset);
+            } catch (IOException e) {
+                throw new SSTableException("Problem reading from block " + blockId, e);
+            }
+        }
+
+        private Block getBlock(int blockId) throws IOException {
+            if (blockId < firstBlockId || blockId >= firstBlockId + noOfBlocks)
+                slideTo(blockId);
+
+            int index = blockId - firstBlockId;
+            if (window[index] == null)
+                window[index] = decode(blockId);
+
+            return window[index];
+        }
+
+        private void slideTo(int blockId) throws IOException {
+            Arrays.fill(window, null);
+            this.firstBlockId = blockId;
+            this.noOfBlocks = Math.min(window.length, endBlockId - blockId);
+
+            BlockDescriptor first = getBlockDescriptor(blockId);
+            BlockDescriptor last = getBlockDescriptor(blockId + noOfBlocks - 1);
+            this.compressedBlocks = source.getBuffer(first.offset, (last.offset + last.length) - first.offset);
+        }
+
+        private Block decode(int blockId) throws IOException {
+            Block cached = blockCache.getIfPresent(id, blockId);
+            if (cached != null)
+                return cached;
+
+            BlockDescriptor blockDescriptor = getBlockDescriptor(blockId);
+            ByteBuffer compressedBlock = compressedBlocks.duplicate();
+            compressedBlock.position(blockDescriptor.offset - getBlockDescriptor(firstBlockId).offset);
+            compressedBlock.limit(compressedBlock.position() + blockDescriptor.length);
+            return decompressBlock(compressedBlock.slice());
         }
     }
 
+    /**
+     * Version 1 headers are 29 bytes, version 2 appends the
+     * offset of the bloom filter section that follows the footer.
+     * Version 3 keeps the same header but replaces the footer
+     * with a {@link SparseIndex} and stores keys in the blocks,
+     * version 4 prefix compresses those keys. Version 5 appends
+     * the offset of the metadata section that follows the filter.
+     * <p>
+     * [magic][version][compression][no-of-blocks][block-size][footer-offset][footer-length][file-length][filter-offset][metadata-offset]
+     * <--4---><---4---><-----1-----><-----4------><----4-----><-----4-------><-----4------><-----4-----><-----4------><-------4------->
+     */
     static class Header {
-        static final int HEADER_LENGTH = 29;
+        static final int V1_HEADER_LENGTH = 29;
+        static final int V2_HEADER_LENGTH = 33;
+        static final int HEADER_LENGTH = 37;
+        static final int FILTER_VERSION = 2;
+        static final int SPARSE_INDEX_VERSION = 3;
+        static final int PREFIX_COMPRESSION_VERSION = 4;
+        static final int METADATA_VERSION = 5;
         final int magic;
         final int version;
         final CompressionType compressionType;
@@ -294,6 +730,8 @@ public class SSTable {
         final int fileLength;
         final int noOfBlocks;
         final int blockSize;
+        final int filterOffset;
+        final int metadataOffset;
 
         private Header(Source source) throws IOException {
             LOGGER.info("Initialising SSTable header");
@@ -310,10 +748,12 @@ public class SSTable {
                 this.footerOffset = dis.readInt();
                 this.footerUncompressedLength = dis.readInt();
                 this.fileLength = dis.readInt();
+                this.filterOffset = hasFilter() ? dis.readInt() : -1;
+                this.metadataOffset = hasMetadata() ? dis.readInt() : -1;
             }
         }
 
-        Header(int version, CompressionType compressionType, int noOfBlocks, int blockSize, int footerOffset, int footerUncompressedLength, int fileLength) {
+        Header(int version, CompressionType compressionType, int noOfBlocks, int blockSize, int footerOffset, int footerUncompressedLength, int fileLength, int filterOffset, int metadataOffset) {
             this.magic = MAGIC;
             this.version = version;
             this.compressionType = compressionType;
@@ -322,6 +762,31 @@ public class SSTable {
             this.footerOffset = footerOffset;
             this.footerUncompressedLength = footerUncompressedLength;
             this.fileLength = fileLength;
+            this.filterOffset = filterOffset;
+            this.metadataOffset = metadataOffset;
+        }
+
+        boolean hasFilter() {
+            return this.version >= FILTER_VERSION;
+        }
+
+        boolean hasSparseIndex() {
+            return this.version >= SPARSE_INDEX_VERSION;
+        }
+
+        boolean hasPrefixCompressedBlocks() {
+            return this.version >= PREFIX_COMPRESSION_VERSION;
+        }
+
+        boolean hasMetadata() {
+            return this.version >= METADATA_VERSION;
+        }
+
+        int length() {
+            if (hasMetadata())
+                return HEADER_LENGTH;
+
+            return hasFilter() ? V2_HEADER_LENGTH : V1_HEADER_LENGTH;
         }
 
         /**
@@ -338,164 +803,178 @@ public class SSTable {
                 dos.writeInt(this.footerOffset);
                 dos.writeInt(this.footerUncompressedLength);
                 dos.writeInt(this.fileLength);
+                if (hasFilter())
+                    dos.writeInt(this.filterOffset);
+                if (hasMetadata())
+                    dos.writeInt(this.metadataOffset);
             } catch (IOException e) {
                 throw new SSTableException("Error writing header", e);
             }
         }
     }
 
-    static class Footer {
-        private static final int BLOCK_DESCRIPTOR_HEADER_BYTES = 4;
-        private static final int BLOCK_DESCRIPTOR_BYTES = 8;
-        private static final int BLOCK_ENTRY_METADATA_BYTES = 20;
-        private static final String ENTRY_ROW_KEY_SEPARATOR = "|";
-        private static final Splitter ENTRY_ROW_KEY_SPLITTER = Splitter.on(ENTRY_ROW_KEY_SEPARATOR);
-        private static final Joiner ENTRY_ROW_KEY_JOINER = Joiner.on(ENTRY_ROW_KEY_SEPARATOR);
-        private final List<BlockDescriptor> blockDescriptors;
-        private final TreeBasedTable<String, String, List<BlockEntryDescriptor>> keysToBlockEntries;
-        private final CompressionStrategy compressionStrategy;
-
-        Footer(CompressionStrategy compressionStrategy) {
-            this.compressionStrategy = compressionStrategy;
-            this.blockDescriptors = newArrayList();
-            this.keysToBlockEntries = create();
+    /**
+     * Bloom filter over every (row, column) key in the table, stored
+     * uncompressed after the footer so that lookups for keys that are
+     * not present can be answered without consulting the index
+     */
+    static class Filter {
+        static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+        private static final Funnel<Table.Cell<String, String, ?>> KEY_FUNNEL = (cell, into) -> into
+                .putInt(cell.getRowKey().length())
+                .putUnencodedChars(cell.getRowKey())
+                .putUnencodedChars(cell.getColumnKey());
+
+        private final BloomFilter<Table.Cell<String, String, ?>> bloomFilter;
+        private final AtomicLong hits;
+        private final AtomicLong misses;
+        private final AtomicLong falsePositives;
+
+        private Filter(BloomFilter<Table.Cell<String, String, ?>> bloomFilter) {
+            this.bloomFilter = bloomFilter;
+            this.hits = new AtomicLong(0);
+            this.misses = new AtomicLong(0);
+            this.falsePositives = new AtomicLong(0);
         }
 
-
-        private Footer(Source source, CompressionStrategy compressionStrategy, int footerOffset, int compressedLength, int uncompressedLength) throws IOException, SSTableException {
-            this(compressionStrategy);
-            try (DataInputStream inputStream = new DataInputStream(compressionStrategy.newInputStream(source.getRange(footerOffset, compressedLength)))) {
-                LOGGER.info("Initialising SSTable footer at offset " + footerOffset);
-                int currentPos = 0;
-                currentPos += loadBlockDescriptors(inputStream);
-
-                while (currentPos < uncompressedLength) {
-                    int bytesRead = readBlockEntry(inputStream);
-                    currentPos += bytesRead;
-                }
-            }
+        private Filter(Source source, int offset, int length) throws IOException {
+            this(readBloomFilter(source, offset, length));
         }
 
-        private int loadBlockDescriptors(DataInputStream inputStream) throws IOException {
-            int bytesRead = 0;
-            int noOfBlockDescriptors = inputStream.readInt();
-
-            bytesRead += BLOCK_DESCRIPTOR_HEADER_BYTES;
-            for (int descriptorsRead = 0; descriptorsRead < noOfBlockDescriptors; descriptorsRead++) {
-                this.blockDescriptors.add(new BlockDescriptor(
-                        inputStream.readInt(),
-                        inputStream.readInt()
-                ));
-                bytesRead += BLOCK_DESCRIPTOR_BYTES;
-            }
-
-            return bytesRead;
+        /**
+         * Filter for tables written before bloom filters were introduced, lets everything through
+         */
+        static Filter absent() {
+            return new Filter((BloomFilter<Table.Cell<String, String, ?>>) null);
         }
 
-        void putEntry(String rowName, String columnName, BlockEntryDescriptor blockEntryDescriptor) {
-            List<BlockEntryDescriptor> blockEntryDescriptors = this.keysToBlockEntries.get(rowName, columnName);
-            if (blockEntryDescriptors == null) {
-                blockEntryDescriptors = newArrayList();
-                this.keysToBlockEntries.put(rowName, columnName, blockEntryDescriptors);
-            }
-            blockEntryDescriptors.add(blockEntryDescriptor);
+        static Filter create(int expectedKeys, double falsePositiveRate) {
+            return new Filter(BloomFilter.create(KEY_FUNNEL, expectedKeys, falsePositiveRate));
         }
 
-        void putBlockDescriptor(BlockDescriptor blockDescriptor) {
-            this.blockDescriptors.add(blockDescriptor);
+        void put(String rowKey, String columnKey) {
+            bloomFilter.put(immutableCell(rowKey, columnKey, null));
         }
 
-        BlockDescriptor getBlockDescriptor(int blockId) {
-            // cannot pass a block id >= number of descriptors
-            if (blockId < 0 || blockId >= blockDescriptors.size())
-                throw new IllegalArgumentException("Requested block id: " + blockId + " is invalid");
+        boolean mightContain(String rowKey, String columnKey) {
+            if (bloomFilter == null)
+                return true;
 
+            boolean mightContain = bloomFilter.mightContain(immutableCell(rowKey, columnKey, null));
+            if (!mightContain)
+                misses.incrementAndGet();
 
-            return blockDescriptors.get(blockId);
+            return mightContain;
         }
 
-        int computeLengthOfAllBlocks() {
-            return blockDescriptors
-                    .stream()
-                    .mapToInt(bd -> bd.length)
-                    .sum();
+        void recordLookup(boolean found) {
+            if (bloomFilter == null)
+                return;
+
+            if (found)
+                hits.incrementAndGet();
+            else
+                falsePositives.incrementAndGet();
         }
 
         /**
          * @throws SSTableException
          */
-        int writeTo(OutputStream out) {
-            try (DataOutputStream compressedOut = new DataOutputStream(compressionStrategy.newOutputStream(out))) {
-                writeBlockDescriptors(compressedOut);
-                writeBlockEntries(compressedOut);
-                return compressedOut.size();
+        void writeTo(OutputStream out) {
+            try {
+                bloomFilter.writeTo(out);
             } catch (IOException e) {
-                throw new SSTableException("Error writing to footer", e);
+                throw new SSTableException("Error writing bloom filter", e);
+            }
+        }
+
+        private static BloomFilter<Table.Cell<String, String, ?>> readBloomFilter(Source source, int offset, int length) throws IOException {
+            LOGGER.info("Initialising SSTable bloom filter at offset " + offset);
+            try (InputStream inputStream = source.getRange(offset, length)) {
+                return BloomFilter.readFrom(inputStream, KEY_FUNNEL);
+            }
+        }
+    }
+
+    /**
+     * Range of row keys and timestamps held by the table, stored
+     * uncompressed after the bloom filter so reads can skip tables
+     * that cannot hold the answer. Rows are compared by their UTF-8
+     * bytes, the same order the blocks are written in.
+     * <p>
+     * [first-row-length][first-row][last-row-length][last-row][min-timestamp][max-timestamp]
+     * <-------2--------><----r----><-------2-------><----r---><------8------><------8------>
+     */
+    static class Metadata {
+        private final byte[] firstRowKey;
+        private final byte[] lastRowKey;
+        private final long minTimestamp;
+        private final long maxTimestamp;
+
+        Metadata(byte[] firstRowKey, byte[] lastRowKey, long minTimestamp, long maxTimestamp) {
+            this.firstRowKey = firstRowKey;
+            this.lastRowKey = lastRowKey;
+            this.minTimestamp = minTimestamp;
+            this.maxTimestamp = maxTimestamp;
+        }
+
+        private Metadata(Source source, int offset, int length) throws IOException {
+            LOGGER.info("Initialising SSTable metadata at offset " + offset);
+            try (DataInputStream dis = new DataInputStream(source.getRange(offset, length))) {
+                this.firstRowKey = new byte[dis.readUnsignedShort()];
+                dis.readFully(this.firstRowKey);
+                this.lastRowKey = new byte[dis.readUnsignedShort()];
+                dis.readFully(this.lastRowKey);
+                this.minTimestamp = dis.readLong();
+                this.maxTimestamp = dis.readLong();
             }
         }
 
         /**
-         * [ no-of-descriptors ][ offset ][ length ][ offset ][ length ]...
-         * <---------4---------><--------8---------><--------8--------->
-         *
-         * @param out the output stream to write the block descriptors to
-         * @throws IOException
+         * Metadata for tables written before the metadata section was introduced, nothing can be ruled out
          */
-        private void writeBlockDescriptors(DataOutputStream out) throws IOException {
-            out.writeInt(blockDescriptors.size());
-            this.blockDescriptors.forEach(bd -> {
-                try {
-                    out.writeInt(bd.offset);
-                    out.writeInt(bd.length);
-                } catch (IOException e) {
-                    throw new SSTableException("Error writing block descriptor to footer", e);
-                }
-            });
+        static Metadata absent() {
+            return new Metadata(null, null, Long.MIN_VALUE, Long.MAX_VALUE);
         }
 
         /**
-         * Each entry is stored like so
-         * <p>
-         * [entry-length][     key     ][block-id][block-offset]
-         * <---4--------><------n------><---4----><-----4------>
-         * <p>
-         * The entry length describes the length of the full entry
+         * Metadata for a table without any entries, which holds no rows or timestamps
          */
-        private void writeBlockEntries(DataOutputStream out) {
-            this.keysToBlockEntries.cellSet().forEach((cell) -> {
-                try {
-                    for (BlockEntryDescriptor entryDescriptor : cell.getValue()) {
-                        byte[] keyBytes = ENTRY_ROW_KEY_JOINER.join(cell.getRowKey(), cell.getColumnKey()).getBytes();
-                        int blockIndexEntryLength = keyBytes.length + BLOCK_ENTRY_METADATA_BYTES;
-                        out.writeInt(blockIndexEntryLength);
-                        out.write(keyBytes);
-                        out.writeInt(entryDescriptor.id);
-                        out.writeLong(entryDescriptor.timestamp);
-                        out.writeInt(entryDescriptor.offset);
-                    }
-                } catch (IOException e) {
-                    throw new SSTableException("Error writing entry to footer", e);
-                }
-            });
+        static Metadata empty() {
+            return new Metadata(new byte[0], new byte[0], Long.MAX_VALUE, Long.MIN_VALUE);
         }
 
-        private int readBlockEntry(DataInputStream inputStream) throws IOException {
-            int blockEntryLength = inputStream.readInt();
-
-            if (blockEntryLength <= 0)
-                throw new SSTableException("Footer is corrupt, cannot read block index entry");
-
-            byte[] keyBytes = new byte[blockEntryLength - BLOCK_ENTRY_METADATA_BYTES];
-            inputStream.readFully(keyBytes);
+        boolean mayContainRow(byte[] rowKey) {
+            if (firstRowKey == null)
+                return true;
 
-            int blockId = inputStream.readInt();
-            long timestamp = inputStream.readLong();
-            int blockOffset = inputStream.readInt();
+            return minTimestamp <= maxTimestamp
+                    && SparseIndex.KEY_COMPARATOR.compare(rowKey, firstRowKey) >= 0
+                    && SparseIndex.KEY_COMPARATOR.compare(rowKey, lastRowKey) <= 0;
+        }
 
-            Iterator<String> rowKey = ENTRY_ROW_KEY_SPLITTER.split(new String(keyBytes)).iterator();
+        /**
+         * A table that may hold deletes, written with the maximum timestamp, is never ruled out
+         * as a delete hides older versions whatever the bound of the read
+         */
+        boolean mayContainVersionsAtOrBefore(long timestamp) {
+            return minTimestamp <= maxTimestamp && (minTimestamp <= timestamp || maxTimestamp == Long.MAX_VALUE);
+        }
 
-            this.putEntry(rowKey.next(), rowKey.next(), BlockEntryDescriptor.of(blockId, timestamp, blockOffset));
-            return blockEntryLength;
+        /**
+         * @throws SSTableException
+         */
+        void writeTo(DataOutputStream dos) {
+            try {
+                dos.writeShort(firstRowKey.length);
+                dos.write(firstRowKey);
+                dos.writeShort(lastRowKey.length);
+                dos.write(lastRowKey);
+                dos.writeLong(minTimestamp);
+                dos.writeLong(maxTimestamp);
+            } catch (IOException e) {
+                throw new SSTableException("Error writing metadata", e);
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -1,65 +1,120 @@
 package io.github.djhworld.sstable;
 
+import io.github.djhworld.exception.SSTableException;
 import io.github.djhworld.io.*;
 
 import java.io.Closeable;
 import java.io.DataOutputStream;
 import java.io.IOException;
 
-import static io.github.djhworld.sstable.SSTable.Footer;
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.github.djhworld.sstable.SSTable.Filter;
 import static io.github.djhworld.sstable.SSTable.Header;
+import static io.github.djhworld.sstable.SSTable.Metadata;
 import static io.github.djhworld.sstable.SSTable.Header.HEADER_LENGTH;
+import static io.github.djhworld.sstable.SparseIndex.KEY_COMPARATOR;
+import static io.github.djhworld.sstable.WriteableKeyedBlock.MAX_KEY_LENGTH;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class SSTableWriter implements Closeable {
-    private static final int VERSION = 1;
-    private static final int DEFAULT_BLOCK_SIZE = 64000;
+    public static final int DEFAULT_BLOCK_SIZE = 64000;
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = Filter.DEFAULT_FALSE_POSITIVE_RATE;
+    /**
+     * Cells the bloom filter is sized for when the caller does not know, writing more raises its false positive rate
+     */
+    public static final int DEFAULT_EXPECTED_CELLS = 10_000;
+    private static final int VERSION = 5;
     private final DataOutputStream dos;
     private final RewindableByteArrayOutputStream rbaos;
-    private final SSTable.Footer footer;
+    private final SparseIndex sparseIndex;
     private final Sink sink;
     private final CompressionStrategy compressionStrategy;
     private final int blockSize;
+    private final Filter filter;
 
     private int currentBlockNo;
-    private WriteableBlock currentBlock;
+    private WriteableKeyedBlock currentBlock;
+    private byte[] firstRowKey;
+    private byte[] previousRowKey;
+    private byte[] previousColumnKey;
+    private long minTimestamp;
+    private long maxTimestamp;
 
     public SSTableWriter(Sink sink, CompressionType compressionType) throws IOException {
         this(sink, compressionType, DEFAULT_BLOCK_SIZE);
     }
 
     public SSTableWriter(Sink sink, CompressionType compressionType, int blockSize) throws IOException {
+        this(sink, compressionType, blockSize, DEFAULT_FALSE_POSITIVE_RATE);
+    }
+
+    public SSTableWriter(Sink sink, CompressionType compressionType, int blockSize, double falsePositiveRate) throws IOException {
+        this(sink, compressionType, blockSize, falsePositiveRate, DEFAULT_EXPECTED_CELLS);
+    }
+
+    /**
+     * @param falsePositiveRate the desired false positive rate of the bloom filter written after the footer
+     * @param expectedCells     number of distinct cells the bloom filter is sized for
+     */
+    public SSTableWriter(Sink sink, CompressionType compressionType, int blockSize, double falsePositiveRate, int expectedCells) throws IOException {
         this.sink = sink;
         this.compressionStrategy = CompressionStrategyFactory.create(compressionType);
         this.blockSize = blockSize;
+        this.filter = Filter.create(Math.max(1, expectedCells), falsePositiveRate);
         this.rbaos = new RewindableByteArrayOutputStream();
         this.dos = new DataOutputStream(rbaos);
         this.currentBlockNo = 0;
         this.currentBlock = newBlock();
-        this.footer = new Footer(this.compressionStrategy);
+        this.sparseIndex = new SparseIndex(this.compressionStrategy);
+        this.minTimestamp = Long.MAX_VALUE;
+        this.maxTimestamp = Long.MIN_VALUE;
         writeDummyHeader(dos);
     }
 
     /**
-     * Keys will be inserted into the footer
+     * Entries must be written in key order, ordered by the UTF-8 bytes of the row key then the
+     * column key. Versions of the same cell are kept in the order they were written.
      */
     public void write(String rowKey, String columnKey, String value, long timestamp) throws IOException {
-        if (!currentBlock.hasEnoughSpaceFor(value)) {
+        byte[] rowKeyBytes = rowKey.getBytes(UTF_8);
+        byte[] columnKeyBytes = columnKey.getBytes(UTF_8);
+        checkArgument(rowKeyBytes.length <= MAX_KEY_LENGTH, "Row key is longer than " + MAX_KEY_LENGTH + " bytes");
+        checkArgument(columnKeyBytes.length <= MAX_KEY_LENGTH, "Column key is longer than " + MAX_KEY_LENGTH + " bytes");
+
+        int keyComparison = previousRowKey == null ? 1 : compareKeys(rowKeyBytes, columnKeyBytes, previousRowKey, previousColumnKey);
+        checkArgument(keyComparison >= 0, "Entry for " + rowKey + "/" + columnKey + " is written out of key order");
+        if (keyComparison > 0) {
+            sparseIndex.putCell();
+            filter.put(rowKey, columnKey);
+        }
+
+        byte[] valueBytes = value.getBytes(UTF_8);
+        if (!currentBlock.hasEnoughSpaceFor(rowKeyBytes, columnKeyBytes, valueBytes)) {
+            if (currentBlock.isEmpty())
+                throw new SSTableException("Entry for " + rowKey + "/" + columnKey + " does not fit in a block of " + blockSize + " bytes");
+
             flushCurrentBlock();
             this.currentBlock = newBlock();
         }
-
-        int blockOffset = this.currentBlock.put(value);
-        this.footer.putEntry(
-                rowKey,
-                columnKey,
-                BlockEntryDescriptor.of(this.currentBlockNo, timestamp, blockOffset));
+        currentBlock.put(rowKeyBytes, columnKeyBytes, timestamp, valueBytes);
+
+        if (firstRowKey == null)
+            firstRowKey = rowKeyBytes;
+        previousRowKey = rowKeyBytes;
+        previousColumnKey = columnKeyBytes;
+        minTimestamp = Math.min(minTimestamp, timestamp);
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
     }
 
     @Override
     public void close() throws IOException {
         flushCurrentBlock();
         int footerStartOffset = getNoOfBytesWritten();
-        int footerUncompressedLength = footer.writeTo(dos);
+        int footerUncompressedLength = sparseIndex.writeTo(dos);
+        int filterStartOffset = getNoOfBytesWritten();
+        filter.writeTo(dos);
+        int metadataStartOffset = getNoOfBytesWritten();
+        newMetadata().writeTo(dos);
 
         //rewind to the beginning but get current length
         int length = rbaos.rewind();
@@ -71,13 +126,33 @@ public class SSTableWriter implements Closeable {
                 this.blockSize,
                 footerStartOffset,
                 footerUncompressedLength,
-                getNoOfBytesWritten()
+                getNoOfBytesWritten(),
+                filterStartOffset,
+                metadataStartOffset
         );
         header.writeTo(dos);
 
         sink.flush(rbaos.toInputStream(), length);
     }
 
+    /**
+     * Range of rows and timestamps in the table, so readers can skip it without consulting the index
+     */
+    private Metadata newMetadata() {
+        if (firstRowKey == null)
+            return Metadata.empty();
+
+        return new Metadata(firstRowKey, previousRowKey, minTimestamp, maxTimestamp);
+    }
+
+    private static int compareKeys(byte[] rowKey, byte[] columnKey, byte[] otherRowKey, byte[] otherColumnKey) {
+        int rowComparison = KEY_COMPARATOR.compare(rowKey, otherRowKey);
+        if (rowComparison != 0)
+            return rowComparison;
+
+        return KEY_COMPARATOR.compare(columnKey, otherColumnKey);
+    }
+
     private int getNoOfBytesWritten() {
         return dos.size();
     }
@@ -87,8 +162,8 @@ public class SSTableWriter implements Closeable {
         dos.write(headerBytes);
     }
 
-    private WriteableBlock newBlock() {
-        return new WriteableBlock(DEFAULT_BLOCK_SIZE);
+    private WriteableKeyedBlock newBlock() {
+        return new WriteableKeyedBlock(this.blockSize);
     }
 
     private void flushCurrentBlock() throws IOException {
@@ -102,11 +177,14 @@ public class SSTableWriter implements Closeable {
         int blockEnd = getNoOfBytesWritten();
         int blockLength = blockEnd - blockStart;
 
-        this.footer.putBlockDescriptor(
+        this.sparseIndex.putBlock(
                 new BlockDescriptor(
                         blockStart,
                         blockLength
-                )
+                ),
+                currentBlock.firstRowKey(),
+                currentBlock.firstColumnKey(),
+                currentBlock.noOfEntries()
         );
 
         currentBlockNo++;
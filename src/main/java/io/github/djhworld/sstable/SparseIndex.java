@@ -0,0 +1,173 @@
+package io.github.djhworld.sstable;
+
+import com.google.common.primitives.UnsignedBytes;
+import io.github.djhworld.exception.SSTableException;
+import io.github.djhworld.io.CompressionStrategy;
+import io.github.djhworld.io.Source;
+import org.slf4j.Logger;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Footer from version 3 onwards, holds the first key of every block
+ * rather than every key in the table. Keys are ordered by the
+ * unsigned UTF-8 bytes of the row key, then the column key.
+ * <p>
+ * [no-of-blocks][no-of-cells][no-of-entries][block]...
+ * <-----4------><-----4-----><------4------>
+ * <p>
+ * Each block is described like so
+ * <p>
+ * [offset][length][no-of-entries][row-length][column-length][first-row-key][first-column-key]
+ * <--4---><--4---><------4------><----2-----><------2------><------r------><-------c-------->
+ */
+class SparseIndex {
+    private static final Logger LOGGER = getLogger(SparseIndex.class);
+    static final Comparator<byte[]> KEY_COMPARATOR = UnsignedBytes.lexicographicalComparator();
+
+    private final CompressionStrategy compressionStrategy;
+    private final List<BlockDescriptor> blockDescriptors;
+    private final List<byte[]> firstRowKeys;
+    private final List<byte[]> firstColumnKeys;
+    private final List<Integer> blockEntryCounts;
+    private int[] firstEntryInBlock;
+    private int noOfCells;
+    private int noOfEntries;
+
+    SparseIndex(CompressionStrategy compressionStrategy) {
+        this.compressionStrategy = compressionStrategy;
+        this.blockDescriptors = newArrayList();
+        this.firstRowKeys = newArrayList();
+        this.firstColumnKeys = newArrayList();
+        this.blockEntryCounts = newArrayList();
+    }
+
+    SparseIndex(Source source, CompressionStrategy compressionStrategy, int offset, int compressedLength) throws IOException {
+        this(compressionStrategy);
+        try (DataInputStream inputStream = new DataInputStream(compressionStrategy.newInputStream(source.getRange(offset, compressedLength)))) {
+            LOGGER.info("Initialising SSTable sparse index at offset " + offset);
+            int noOfBlocks = inputStream.readInt();
+            this.noOfCells = inputStream.readInt();
+            int expectedEntries = inputStream.readInt();
+
+            for (int blockId = 0; blockId < noOfBlocks; blockId++) {
+                BlockDescriptor blockDescriptor = new BlockDescriptor(inputStream.readInt(), inputStream.readInt());
+                int entriesInBlock = inputStream.readInt();
+                byte[] firstRowKey = new byte[inputStream.readUnsignedShort()];
+                byte[] firstColumnKey = new byte[inputStream.readUnsignedShort()];
+                inputStream.readFully(firstRowKey);
+                inputStream.readFully(firstColumnKey);
+                putBlock(blockDescriptor, firstRowKey, firstColumnKey, entriesInBlock);
+            }
+
+            if (this.noOfEntries != expectedEntries)
+                throw new SSTableException("Sparse index is corrupt, block entry counts do not add up");
+        }
+
+        this.firstEntryInBlock = new int[noOfBlocks() + 1];
+        for (int blockId = 0; blockId < noOfBlocks(); blockId++)
+            this.firstEntryInBlock[blockId + 1] = this.firstEntryInBlock[blockId] + blockEntryCounts.get(blockId);
+    }
+
+    void putBlock(BlockDescriptor blockDescriptor, byte[] firstRowKey, byte[] firstColumnKey, int entriesInBlock) {
+        this.blockDescriptors.add(blockDescriptor);
+        this.firstRowKeys.add(firstRowKey);
+        this.firstColumnKeys.add(firstColumnKey);
+        this.blockEntryCounts.add(entriesInBlock);
+        this.noOfEntries += entriesInBlock;
+    }
+
+    void putCell() {
+        this.noOfCells++;
+    }
+
+    int noOfBlocks() {
+        return blockDescriptors.size();
+    }
+
+    int noOfCells() {
+        return noOfCells;
+    }
+
+    int noOfEntries() {
+        return noOfEntries;
+    }
+
+    BlockDescriptor getBlockDescriptor(int blockId) {
+        if (blockId < 0 || blockId >= blockDescriptors.size())
+            throw new IllegalArgumentException("Requested block id: " + blockId + " is invalid");
+
+        return blockDescriptors.get(blockId);
+    }
+
+    /**
+     * @return position in key order of the first entry in the block, or the number of
+     * entries in the table if blockId is one past the last block
+     */
+    int firstEntryInBlock(int blockId) {
+        return firstEntryInBlock[blockId];
+    }
+
+    /**
+     * @return the last block whose first key is smaller than the one given, the first
+     * entry with the given key is either in that block or first in the one after it
+     */
+    int findBlock(byte[] rowKey, byte[] columnKey) {
+        int low = 0;
+        int high = noOfBlocks() - 1;
+        int found = 0;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (compareFirstKey(middle, rowKey, columnKey) < 0) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * @throws SSTableException
+     */
+    int writeTo(OutputStream out) {
+        try (DataOutputStream compressedOut = new DataOutputStream(compressionStrategy.newOutputStream(out))) {
+            compressedOut.writeInt(noOfBlocks());
+            compressedOut.writeInt(noOfCells);
+            compressedOut.writeInt(noOfEntries);
+
+            for (int blockId = 0; blockId < noOfBlocks(); blockId++) {
+                BlockDescriptor blockDescriptor = blockDescriptors.get(blockId);
+                compressedOut.writeInt(blockDescriptor.offset);
+                compressedOut.writeInt(blockDescriptor.length);
+                compressedOut.writeInt(blockEntryCounts.get(blockId));
+                compressedOut.writeShort(firstRowKeys.get(blockId).length);
+                compressedOut.writeShort(firstColumnKeys.get(blockId).length);
+                compressedOut.write(firstRowKeys.get(blockId));
+                compressedOut.write(firstColumnKeys.get(blockId));
+            }
+            return compressedOut.size();
+        } catch (IOException e) {
+            throw new SSTableException("Error writing sparse index", e);
+        }
+    }
+
+    private int compareFirstKey(int blockId, byte[] rowKey, byte[] columnKey) {
+        int rowComparison = KEY_COMPARATOR.compare(firstRowKeys.get(blockId), rowKey);
+        if (rowComparison != 0)
+            return rowComparison;
+
+        return KEY_COMPARATOR.compare(firstColumnKeys.get(blockId), columnKey);
+    }
+}
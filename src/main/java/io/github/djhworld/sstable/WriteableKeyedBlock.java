@@ -0,0 +1,139 @@
+package io.github.djhworld.sstable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static java.nio.ByteBuffer.allocate;
+
+/**
+ * Entries carry their own keys and must be put in key order. Each key
+ * only stores the bytes it does not share with the previous entry's key,
+ * except at restart points every {@link #RESTART_INTERVAL} entries where
+ * the full key is stored so the block can be binary searched.
+ * <p>
+ * [shared-row][unshared-row][shared-column][unshared-column][value-length][timestamp][row-suffix][column-suffix][ value ]...
+ * <----2-----><-----2------><------2------><-------2-------><-----4------><----8----><----r-----><------c------><---v--->
+ * <p>
+ * The offsets of the restart points are written at the end of the block
+ * <p>
+ * ...[restart-offset][restart-offset][entries-end][no-of-restarts]
+ * <--------4-------><-------4-------><-----4-----><------4------->
+ */
+class WriteableKeyedBlock implements Block {
+    static final int KEYED_ENTRY_HEADER_BYTES = 20;
+    static final int BLOCK_TRAILER_BYTES = 8;
+    static final int RESTART_INTERVAL = 16;
+    static final int MAX_KEY_LENGTH = 0xFFFF;
+    private final ByteBuffer buffer;
+    private final int blockSize;
+    private final List<Integer> restartOffsets;
+    private byte[] firstRowKey;
+    private byte[] firstColumnKey;
+    private byte[] previousRowKey;
+    private byte[] previousColumnKey;
+    private int noOfEntries;
+
+    WriteableKeyedBlock(int blockSize) {
+        this.buffer = allocate(blockSize);
+        this.blockSize = blockSize;
+        this.restartOffsets = newArrayList();
+        this.firstRowKey = new byte[0];
+        this.firstColumnKey = new byte[0];
+        this.noOfEntries = 0;
+    }
+
+    public synchronized int put(byte[] rowKey, byte[] columnKey, long timestamp, byte[] value) throws IOException {
+        int blockOffset = buffer.position();
+        int sharedRow = sharedRowPrefix(rowKey);
+        int sharedColumn = sharedColumnPrefix(rowKey, columnKey);
+
+        if (isRestartPoint())
+            restartOffsets.add(blockOffset);
+
+        if (noOfEntries == 0) {
+            this.firstRowKey = rowKey;
+            this.firstColumnKey = columnKey;
+        }
+
+        buffer.putShort((short) sharedRow);
+        buffer.putShort((short) (rowKey.length - sharedRow));
+        buffer.putShort((short) sharedColumn);
+        buffer.putShort((short) (columnKey.length - sharedColumn));
+        buffer.putInt(value.length);
+        buffer.putLong(timestamp);
+        buffer.put(rowKey, sharedRow, rowKey.length - sharedRow);
+        buffer.put(columnKey, sharedColumn, columnKey.length - sharedColumn);
+        buffer.put(value);
+
+        this.previousRowKey = rowKey;
+        this.previousColumnKey = columnKey;
+        noOfEntries++;
+        return blockOffset;
+    }
+
+    public synchronized void flushTo(OutputStream out) throws IOException {
+        int trailerStart = blockSize - BLOCK_TRAILER_BYTES - (restartOffsets.size() * 4);
+        for (int i = 0; i < restartOffsets.size(); i++)
+            buffer.putInt(trailerStart + (i * 4), restartOffsets.get(i));
+
+        buffer.putInt(blockSize - BLOCK_TRAILER_BYTES, buffer.position());
+        buffer.putInt(blockSize - 4, restartOffsets.size());
+        out.write(this.buffer.array());
+    }
+
+    boolean hasEnoughSpaceFor(byte[] rowKey, byte[] columnKey, byte[] value) {
+        int restarts = restartOffsets.size() + (isRestartPoint() ? 1 : 0);
+        int entryLength = KEYED_ENTRY_HEADER_BYTES
+                + (rowKey.length - sharedRowPrefix(rowKey))
+                + (columnKey.length - sharedColumnPrefix(rowKey, columnKey))
+                + value.length;
+
+        return blockSize - buffer.position() - BLOCK_TRAILER_BYTES - (restarts * 4) >= entryLength;
+    }
+
+    boolean isEmpty() {
+        return noOfEntries == 0;
+    }
+
+    int noOfEntries() {
+        return noOfEntries;
+    }
+
+    byte[] firstRowKey() {
+        return firstRowKey;
+    }
+
+    byte[] firstColumnKey() {
+        return firstColumnKey;
+    }
+
+    private boolean isRestartPoint() {
+        return noOfEntries % RESTART_INTERVAL == 0;
+    }
+
+    private int sharedRowPrefix(byte[] rowKey) {
+        return isRestartPoint() ? 0 : sharedPrefix(previousRowKey, rowKey);
+    }
+
+    /**
+     * Column keys are only delta encoded against the previous entry when both share the same row
+     */
+    private int sharedColumnPrefix(byte[] rowKey, byte[] columnKey) {
+        if (isRestartPoint() || !Arrays.equals(previousRowKey, rowKey))
+            return 0;
+
+        return sharedPrefix(previousColumnKey, columnKey);
+    }
+
+    private static int sharedPrefix(byte[] previous, byte[] current) {
+        int limit = Math.min(previous.length, current.length);
+        int shared = 0;
+        while (shared < limit && previous[shared] == current[shared])
+            shared++;
+        return shared;
+    }
+}
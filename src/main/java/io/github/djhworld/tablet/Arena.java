@@ -0,0 +1,113 @@
+package io.github.djhworld.tablet;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bump allocator over large off heap slabs. Allocations are never freed
+ * individually, the whole arena is released at once by {@link #clear()}
+ * and its slabs are reclaimed once nothing refers to them.
+ * <p>
+ * Allocations larger than a slab are given a buffer of their own.
+ */
+class Arena {
+    static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+    private final int slabSize;
+    private final AtomicLong allocatedBytes;
+    private final AtomicLong reservedBytes;
+    private volatile Slab currentSlab;
+
+    Arena() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    Arena(int slabSize) {
+        checkArgument(slabSize > 0, "Slab size must be positive");
+        this.slabSize = slabSize;
+        this.allocatedBytes = new AtomicLong(0);
+        this.reservedBytes = new AtomicLong(0);
+    }
+
+    /**
+     * @return buffer positioned at the start of the allocation, with its limit at the end,
+     * owned by the caller and safe to write to while other threads allocate
+     */
+    ByteBuffer allocate(int length) {
+        checkArgument(length > 0, "Allocation length must be positive");
+        allocatedBytes.addAndGet(length);
+
+        if (length > slabSize) {
+            reservedBytes.addAndGet(length);
+            return ByteBuffer.allocateDirect(length);
+        }
+
+        while (true) {
+            Slab slab = currentSlab;
+            int offset = slab == null ? -1 : slab.reserve(length);
+            if (offset >= 0) {
+                ByteBuffer allocation = slab.buffer.duplicate();
+                allocation.limit(offset + length);
+                allocation.position(offset);
+                return allocation;
+            }
+
+            synchronized (this) {
+                if (currentSlab == slab) {
+                    currentSlab = new Slab(slabSize);
+                    reservedBytes.addAndGet(slabSize);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return exact number of bytes handed out since the arena was last cleared
+     */
+    long allocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * @return bytes held by slabs, including the unused tail of each slab
+     */
+    long reservedBytes() {
+        return reservedBytes.get();
+    }
+
+    /**
+     * Releases every slab, buffers handed out before this call remain readable
+     * until they are no longer referenced
+     */
+    synchronized void clear() {
+        currentSlab = null;
+        allocatedBytes.set(0);
+        reservedBytes.set(0);
+    }
+
+    private static final class Slab {
+        private final ByteBuffer buffer;
+        private final AtomicInteger position;
+
+        private Slab(int size) {
+            this.buffer = ByteBuffer.allocateDirect(size);
+            this.position = new AtomicInteger(0);
+        }
+
+        /**
+         * @return offset of the reserved region, or -1 if the slab is too full
+         */
+        private int reserve(int length) {
+            while (true) {
+                int offset = position.get();
+                if (offset + length > buffer.capacity())
+                    return -1;
+
+                if (position.compareAndSet(offset, offset + length))
+                    return offset;
+            }
+        }
+    }
+}
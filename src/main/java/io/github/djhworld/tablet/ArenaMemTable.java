@@ -0,0 +1,353 @@
+package io.github.djhworld.tablet;
+
+import io.github.djhworld.model.RowMutation;
+
+import java.nio.ByteBuffer;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.github.djhworld.model.RowMutation.Action.DEL;
+import static io.github.djhworld.model.RowMutation.newAddMutation;
+import static io.github.djhworld.model.RowMutation.newDeleteMutation;
+import static io.github.djhworld.tablet.ObjectSizes.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+
+/**
+ * Copies every version into an off heap {@link Arena} and only keeps a small
+ * reference to it in the skip list, so a full mem table is a handful of slabs
+ * rather than millions of strings, and a flush releases them all at once.
+ * <p>
+ * [sequence][timestamp][action][row-length][column-length][value-length][ row ][ column ][ value ]
+ * <---8----><----8----><--1---><----2-----><------2------><------4------><--r--><---c----><---v--->
+ * <p>
+ * Keys are ordered by their UTF-8 bytes, the order SSTables are written in, and versions
+ * of a cell newest written first. Mutations are only decoded when they are read.
+ * <p>
+ * The physical size is every slab the arena holds, including versions dropped since
+ * it was last cleared, plus the heap held by the reference to each live version.
+ */
+class ArenaMemTable implements MemTable {
+    private static final int ENTRY_HEADER_BYTES = 25;
+    private static final int MAX_KEY_LENGTH = 0xFFFF;
+    /**
+     * An entry and the buffer view it reads through, a direct buffer holding
+     * eight ints and longs and four references, and its skip list nodes
+     */
+    private static final int ENTRY_BYTES = align(OBJECT_HEADER_BYTES + REFERENCE_BYTES + 4)
+            + align(OBJECT_HEADER_BYTES + 4 * REFERENCE_BYTES + 5 * 4 + 8 + 3)
+            + SKIP_LIST_ENTRY_BYTES;
+    private final Arena arena;
+    private final ConcurrentSkipListSet<Key> versions;
+    private final AtomicLong sequence;
+    private final AtomicLong logicalSizeInBytes;
+    private final AtomicLong liveVersions;
+
+    ArenaMemTable() {
+        this(new Arena());
+    }
+
+    ArenaMemTable(Arena arena) {
+        this.arena = arena;
+        this.versions = new ConcurrentSkipListSet<>();
+        this.sequence = new AtomicLong(0);
+        this.logicalSizeInBytes = new AtomicLong(0);
+        this.liveVersions = new AtomicLong(0);
+    }
+
+    @Override
+    public void put(RowMutation rowMutation) {
+        Entry entry = write(rowMutation);
+        versions.add(entry);
+        track(entry, 1);
+    }
+
+    /**
+     * Writes the tombstone then drops the history of the cell behind it,
+     * readers racing with the delete find the tombstone first. The bytes of
+     * dropped versions are held until the arena is cleared.
+     */
+    @Override
+    public void delete(RowMutation tombstone) {
+        Entry entry = write(tombstone);
+        versions.add(entry);
+        track(entry, 1);
+        removeAll(versions.subSet(entry, false, Probe.lastOf(tombstone.rowKey, tombstone.columnKey), true));
+    }
+
+    @Override
+    public void remove(String rowKey, String columnKey) {
+        removeAll(cell(rowKey, columnKey));
+    }
+
+    @Override
+    public void trim(String rowKey, String columnKey, int maxVersions, long minTimestamp) {
+        int kept = 0;
+        for (Key key : cell(rowKey, columnKey)) {
+            Entry entry = (Entry) key;
+            if (entry.isTombstone() || (kept < maxVersions && entry.timestamp() >= minTimestamp)) {
+                kept++;
+                continue;
+            }
+
+            if (versions.remove(entry))
+                track(entry, -1);
+        }
+    }
+
+    @Override
+    public Optional<RowMutation> get(String rowKey, String columnKey, long maxTimestamp) {
+        for (Key key : cell(rowKey, columnKey)) {
+            Entry entry = (Entry) key;
+            if (entry.timestamp() <= maxTimestamp || entry.isTombstone())
+                return of(entry.decode());
+        }
+
+        return empty();
+    }
+
+    @Override
+    public Stream<RowMutation> stream() {
+        return versions.stream().map(key -> ((Entry) key).decode());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return versions.isEmpty();
+    }
+
+    @Override
+    public int size() {
+        int cells = 0;
+        Key previous = null;
+        for (Key key : versions) {
+            if (previous == null || previous.compareCell(key) != 0)
+                cells++;
+            previous = key;
+        }
+        return cells;
+    }
+
+    @Override
+    public long logicalSizeInBytes() {
+        return logicalSizeInBytes.get();
+    }
+
+    @Override
+    public long physicalSizeInBytes() {
+        return arena.reservedBytes() + (liveVersions.get() * ENTRY_BYTES);
+    }
+
+    @Override
+    public void clear() {
+        versions.clear();
+        arena.clear();
+        logicalSizeInBytes.set(0);
+        liveVersions.set(0);
+    }
+
+    /**
+     * Removes the versions one by one so only those this thread removed are untracked
+     */
+    private void removeAll(NavigableSet<Key> removed) {
+        for (Key key : removed) {
+            if (versions.remove(key))
+                track((Entry) key, -1);
+        }
+    }
+
+    private void track(Entry entry, int sign) {
+        logicalSizeInBytes.addAndGet(sign * (entry.rowKeyLength() + entry.columnKeyLength() + entry.valueLength() + 8));
+        liveVersions.addAndGet(sign);
+    }
+
+    private Entry write(RowMutation rowMutation) {
+        byte[] rowKey = rowMutation.rowKey.getBytes(UTF_8);
+        byte[] columnKey = rowMutation.columnKey.getBytes(UTF_8);
+        byte[] value = rowMutation.value.getBytes(UTF_8);
+        checkArgument(rowKey.length <= MAX_KEY_LENGTH, "Row key is longer than " + MAX_KEY_LENGTH + " bytes");
+        checkArgument(columnKey.length <= MAX_KEY_LENGTH, "Column key is longer than " + MAX_KEY_LENGTH + " bytes");
+
+        ByteBuffer buffer = arena.allocate(ENTRY_HEADER_BYTES + rowKey.length + columnKey.length + value.length);
+        int offset = buffer.position();
+        buffer.putLong(sequence.incrementAndGet());
+        buffer.putLong(rowMutation.timestamp);
+        buffer.put((byte) (DEL.equals(rowMutation.action) ? 1 : 0));
+        buffer.putShort((short) rowKey.length);
+        buffer.putShort((short) columnKey.length);
+        buffer.putInt(value.length);
+        buffer.put(rowKey);
+        buffer.put(columnKey);
+        buffer.put(value);
+        return new Entry(buffer, offset);
+    }
+
+    private NavigableSet<Key> cell(String rowKey, String columnKey) {
+        return versions.subSet(Probe.firstOf(rowKey, columnKey), true, Probe.lastOf(rowKey, columnKey), true);
+    }
+
+    private abstract static class Key implements Comparable<Key> {
+        abstract int rowKeyLength();
+
+        abstract byte rowKeyByte(int i);
+
+        abstract int columnKeyLength();
+
+        abstract byte columnKeyByte(int i);
+
+        abstract long sequence();
+
+        int compareCell(Key other) {
+            int common = Math.min(rowKeyLength(), other.rowKeyLength());
+            for (int i = 0; i < common; i++) {
+                int comparison = Integer.compare(rowKeyByte(i) & 0xFF, other.rowKeyByte(i) & 0xFF);
+                if (comparison != 0)
+                    return comparison;
+            }
+            if (rowKeyLength() != other.rowKeyLength())
+                return Integer.compare(rowKeyLength(), other.rowKeyLength());
+
+            common = Math.min(columnKeyLength(), other.columnKeyLength());
+            for (int i = 0; i < common; i++) {
+                int comparison = Integer.compare(columnKeyByte(i) & 0xFF, other.columnKeyByte(i) & 0xFF);
+                if (comparison != 0)
+                    return comparison;
+            }
+            return Integer.compare(columnKeyLength(), other.columnKeyLength());
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int cellComparison = compareCell(other);
+            if (cellComparison != 0)
+                return cellComparison;
+
+            return Long.compare(other.sequence(), sequence());
+        }
+    }
+
+    /**
+     * Version written to the arena
+     */
+    private static final class Entry extends Key {
+        private final ByteBuffer buffer;
+        private final int offset;
+
+        private Entry(ByteBuffer buffer, int offset) {
+            this.buffer = buffer;
+            this.offset = offset;
+        }
+
+        @Override
+        long sequence() {
+            return buffer.getLong(offset);
+        }
+
+        long timestamp() {
+            return buffer.getLong(offset + 8);
+        }
+
+        boolean isTombstone() {
+            return buffer.get(offset + 16) == 1;
+        }
+
+        int valueLength() {
+            return buffer.getInt(offset + 21);
+        }
+
+        @Override
+        int rowKeyLength() {
+            return Short.toUnsignedInt(buffer.getShort(offset + 17));
+        }
+
+        @Override
+        byte rowKeyByte(int i) {
+            return buffer.get(offset + ENTRY_HEADER_BYTES + i);
+        }
+
+        @Override
+        int columnKeyLength() {
+            return Short.toUnsignedInt(buffer.getShort(offset + 19));
+        }
+
+        @Override
+        byte columnKeyByte(int i) {
+            return buffer.get(offset + ENTRY_HEADER_BYTES + rowKeyLength() + i);
+        }
+
+        RowMutation decode() {
+            int rowKeyLength = rowKeyLength();
+            int columnKeyLength = columnKeyLength();
+            int rowStart = offset + ENTRY_HEADER_BYTES;
+            String rowKey = decode(rowStart, rowKeyLength);
+            String columnKey = decode(rowStart + rowKeyLength, columnKeyLength);
+
+            if (isTombstone())
+                return newDeleteMutation(rowKey, columnKey);
+
+            String value = decode(rowStart + rowKeyLength + columnKeyLength, valueLength());
+            return newAddMutation(rowKey, columnKey, value, timestamp());
+        }
+
+        private String decode(int position, int length) {
+            byte[] bytes = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(position);
+            view.get(bytes);
+            return new String(bytes, UTF_8);
+        }
+    }
+
+    /**
+     * Bound of a cell used to look up its versions, never stored
+     */
+    private static final class Probe extends Key {
+        private final byte[] rowKey;
+        private final byte[] columnKey;
+        private final long sequence;
+
+        private Probe(String rowKey, String columnKey, long sequence) {
+            this.rowKey = rowKey.getBytes(UTF_8);
+            this.columnKey = columnKey.getBytes(UTF_8);
+            this.sequence = sequence;
+        }
+
+        private static Probe firstOf(String rowKey, String columnKey) {
+            return new Probe(rowKey, columnKey, Long.MAX_VALUE);
+        }
+
+        private static Probe lastOf(String rowKey, String columnKey) {
+            return new Probe(rowKey, columnKey, Long.MIN_VALUE);
+        }
+
+        @Override
+        int rowKeyLength() {
+            return rowKey.length;
+        }
+
+        @Override
+        byte rowKeyByte(int i) {
+            return rowKey[i];
+        }
+
+        @Override
+        int columnKeyLength() {
+            return columnKey.length;
+        }
+
+        @Override
+        byte columnKeyByte(int i) {
+            return columnKey[i];
+        }
+
+        @Override
+        long sequence() {
+            return sequence;
+        }
+    }
+}
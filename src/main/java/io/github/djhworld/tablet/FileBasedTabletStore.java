@@ -1,7 +1,7 @@
 package io.github.djhworld.tablet;
 
 import io.github.djhworld.io.FileSink;
-import io.github.djhworld.io.FileSource;
+import io.github.djhworld.io.MappedFileSource;
 import io.github.djhworld.io.Sink;
 import io.github.djhworld.io.Source;
 
@@ -35,7 +35,7 @@ class FileBasedTabletStore extends TabletStore {
         Path currentGenerationPath = getCurrentGenerationPath(currentGeneration);
         createDirectories(currentGenerationPath);
 
-        return new FileSource(getCurrentGenerationPath(currentGeneration).resolve(subLocation));
+        return new MappedFileSource(getCurrentGenerationPath(currentGeneration).resolve(subLocation));
     }
 
     @Override
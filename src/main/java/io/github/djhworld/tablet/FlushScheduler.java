@@ -0,0 +1,204 @@
+package io.github.djhworld.tablet;
+
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.Lists.newArrayList;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Keeps the mem tables of every tablet on a server within one memory budget.
+ * <p>
+ * Tablets are not flushed at a fixed size. Once the mem tables of all tablets fill
+ * {@link #FLUSH_THRESHOLD} of the budget the largest are flushed first, so a few hot
+ * tablets may grow large while many idle ones hold little. No single mem table may
+ * grow beyond an even split of the threshold between the tablets holding data, kept
+ * between {@link #MIN_TABLET_SHARE} and {@link #MAX_TABLET_SHARE} of the budget, so a
+ * lone busy tablet may use half of it while many busy ones cannot crowd each other out.
+ * Writers are held back while the budget is exceeded and flushes are under way to free it.
+ */
+class FlushScheduler {
+    private static final Logger LOGGER = getLogger(FlushScheduler.class);
+    static final double FLUSH_THRESHOLD = 0.75;
+    static final double MAX_TABLET_SHARE = 0.5;
+    static final double MIN_TABLET_SHARE = 0.05;
+    private static final double CHECK_INTERVAL = 0.01;
+    private static final long MAX_WAIT_MILLIS = 100;
+    private final long budgetBytes;
+    private final long flushThresholdBytes;
+    private final long checkIntervalBytes;
+    private final int maxConcurrentFlushes;
+    private final Executor flushExecutor;
+    private final AtomicInteger flushesInFlight;
+    private final LongAdder bytesSinceLastCheck;
+    private volatile long usedBytes;
+    private volatile long pendingFlushBytes;
+    private volatile long maxTabletBytes;
+
+    /**
+     * @param budgetBytes          memory shared by the mem tables of every tablet, frozen or not
+     * @param maxConcurrentFlushes flushes allowed to run at once, further tablets wait for the next check
+     */
+    FlushScheduler(long budgetBytes, int maxConcurrentFlushes, Executor flushExecutor) {
+        checkArgument(budgetBytes > 0, "Mem table budget must be positive");
+        checkArgument(maxConcurrentFlushes > 0, "At least one flush must be allowed at a time");
+        this.budgetBytes = budgetBytes;
+        this.flushThresholdBytes = (long) (budgetBytes * FLUSH_THRESHOLD);
+        this.maxTabletBytes = (long) (budgetBytes * MAX_TABLET_SHARE);
+        this.checkIntervalBytes = Math.max(1, (long) (budgetBytes * CHECK_INTERVAL));
+        this.maxConcurrentFlushes = maxConcurrentFlushes;
+        this.flushExecutor = flushExecutor;
+        this.flushesInFlight = new AtomicInteger(0);
+        this.bytesSinceLastCheck = new LongAdder();
+    }
+
+    /**
+     * Called once a mutation has been applied to the tablet, the usage of every
+     * tablet is only summed each time roughly 1% of the budget has been written
+     */
+    void afterApply(Tablet tablet, Collection<Tablet> tablets, int mutationBytes) {
+        if (tablet.approximateMemTableSizeInBytes() > maxTabletBytes)
+            flush(tablet);
+
+        bytesSinceLastCheck.add(mutationBytes);
+        if (bytesSinceLastCheck.sum() < checkIntervalBytes)
+            return;
+
+        bytesSinceLastCheck.reset();
+        scheduleFlushes(tablets);
+    }
+
+    /**
+     * Holds the caller back while the budget is exhausted, for as long as
+     * flushes in flight may still free memory
+     */
+    void awaitCapacity(Collection<Tablet> tablets) throws InterruptedException {
+        while (usedBytes >= budgetBytes) {
+            scheduleFlushes(tablets);
+            if (usedBytes < budgetBytes || flushesInFlight.get() == 0)
+                return;
+
+            synchronized (this) {
+                wait(MAX_WAIT_MILLIS);
+            }
+            measure(tablets);
+        }
+    }
+
+    /**
+     * @return true if the budget was not exhausted as of the last check, so writers need not be held back
+     */
+    boolean hasCapacity() {
+        return usedBytes < budgetBytes;
+    }
+
+    /**
+     * Flushes the largest mem tables, while usage is over the threshold once
+     * the flushes already in flight complete
+     */
+    synchronized void scheduleFlushes(Collection<Tablet> tablets) {
+        measure(tablets);
+        if (usedBytes - pendingFlushBytes < flushThresholdBytes)
+            return;
+
+        // sizes keep changing under concurrent writes, so sort on a snapshot of them
+        Map<Tablet, Long> sizes = Maps.toMap(tablets, Tablet::approximateMemTableSizeInBytes);
+        List<Tablet> largestFirst = newArrayList(sizes.keySet());
+        largestFirst.sort(Comparator.comparing(sizes::get).reversed());
+
+        long remainingBytes = usedBytes - pendingFlushBytes;
+        for (Tablet tablet : largestFirst) {
+            if (remainingBytes < flushThresholdBytes || flushesInFlight.get() >= maxConcurrentFlushes)
+                break;
+
+            if (sizes.get(tablet) > 0 && flush(tablet))
+                remainingBytes -= sizes.get(tablet);
+        }
+    }
+
+    /**
+     * @return bytes held by frozen mem tables waiting to be written out, as of the last check
+     */
+    long pendingFlushBytes() {
+        return pendingFlushBytes;
+    }
+
+    /**
+     * @return largest a mem table may grow before it is flushed, as of the last check
+     */
+    long maxTabletBytes() {
+        return maxTabletBytes;
+    }
+
+    /**
+     * @return bytes held by every mem table, as of the last check
+     */
+    long usedBytes() {
+        return usedBytes;
+    }
+
+    int flushesInFlight() {
+        return flushesInFlight.get();
+    }
+
+    private void measure(Collection<Tablet> tablets) {
+        long used = 0;
+        long pending = 0;
+        int activeTablets = 0;
+        for (Tablet tablet : tablets) {
+            long active = tablet.approximateMemTableSizeInBytes();
+            long frozen = tablet.frozenMemTableSizeInBytes();
+            used += active + frozen;
+            pending += frozen;
+            if (active > 0)
+                activeTablets++;
+        }
+        this.usedBytes = used;
+        this.pendingFlushBytes = pending;
+        this.maxTabletBytes = (long) (budgetBytes * tabletShare(activeTablets));
+    }
+
+    /**
+     * @return share of the budget one mem table may hold while the given number of tablets hold data
+     */
+    static double tabletShare(int activeTablets) {
+        double evenShare = FLUSH_THRESHOLD / Math.max(1, activeTablets);
+        return Math.max(MIN_TABLET_SHARE, Math.min(MAX_TABLET_SHARE, evenShare));
+    }
+
+    private synchronized boolean flush(Tablet tablet) {
+        if (flushesInFlight.get() >= maxConcurrentFlushes)
+            return false;
+
+        LOGGER.info("Scheduling flush of tablet " + tablet.getTabletId() + " holding " + tablet.approximateMemTableSizeInBytes() + " bytes");
+        return tablet.flushInBackground(this::execute);
+    }
+
+    private void execute(Runnable flush) {
+        flushesInFlight.incrementAndGet();
+        try {
+            flushExecutor.execute(() -> {
+                try {
+                    flush.run();
+                } finally {
+                    flushesInFlight.decrementAndGet();
+                    synchronized (this) {
+                        notifyAll();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            flushesInFlight.decrementAndGet();
+            throw e;
+        }
+    }
+}
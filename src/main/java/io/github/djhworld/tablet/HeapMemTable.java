@@ -0,0 +1,221 @@
+package io.github.djhworld.tablet;
+
+import io.github.djhworld.model.RowMutation;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static io.github.djhworld.model.RowMutation.Action.DEL;
+import static io.github.djhworld.tablet.ObjectSizes.*;
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+
+/**
+ * Every version is its own entry in a skip list keyed by row, column and a sequence
+ * number assigned when the version is written, so writers never lock and readers
+ * see each version either fully written or not at all. Versions of a cell sort
+ * newest first, by the order they were written rather than their timestamps, as
+ * deletes are written with the maximum timestamp.
+ * <p>
+ * Sizes are tracked as versions are added and removed. A version's physical size
+ * counts the mutation, its strings, its key and its skip list nodes; the row and
+ * column strings are shared by the mutation and the key so are only counted once.
+ */
+class HeapMemTable implements MemTable {
+    private static final int ROW_MUTATION_BYTES = align(OBJECT_HEADER_BYTES + 4 * REFERENCE_BYTES + 8);
+    private static final int KEY_BYTES = align(OBJECT_HEADER_BYTES + 2 * REFERENCE_BYTES + 8);
+    private final ConcurrentSkipListMap<Key, RowMutation> versions;
+    private final AtomicLong sequence;
+    private final AtomicLong logicalSizeInBytes;
+    private final AtomicLong physicalSizeInBytes;
+
+    HeapMemTable() {
+        this.versions = new ConcurrentSkipListMap<>();
+        this.sequence = new AtomicLong(0);
+        this.logicalSizeInBytes = new AtomicLong(0);
+        this.physicalSizeInBytes = new AtomicLong(0);
+    }
+
+    @Override
+    public void put(RowMutation rowMutation) {
+        versions.put(new Key(rowMutation.rowKey, rowMutation.columnKey, sequence.incrementAndGet()), rowMutation);
+        track(rowMutation, 1);
+    }
+
+    /**
+     * Writes the tombstone then drops the history of the cell behind it,
+     * readers racing with the delete find the tombstone first
+     */
+    @Override
+    public void delete(RowMutation tombstone) {
+        Key key = new Key(tombstone.rowKey, tombstone.columnKey, sequence.incrementAndGet());
+        versions.put(key, tombstone);
+        track(tombstone, 1);
+        removeAll(versions.subMap(key, false, Key.lastOf(tombstone.rowKey, tombstone.columnKey), true));
+    }
+
+    @Override
+    public void remove(String rowKey, String columnKey) {
+        removeAll(cell(rowKey, columnKey));
+    }
+
+    @Override
+    public void trim(String rowKey, String columnKey, int maxVersions, long minTimestamp) {
+        int kept = 0;
+        for (Map.Entry<Key, RowMutation> version : cell(rowKey, columnKey).entrySet()) {
+            RowMutation rowMutation = version.getValue();
+            if (DEL.equals(rowMutation.action) || (kept < maxVersions && rowMutation.timestamp >= minTimestamp)) {
+                kept++;
+                continue;
+            }
+
+            if (versions.remove(version.getKey(), rowMutation))
+                track(rowMutation, -1);
+        }
+    }
+
+    @Override
+    public Optional<RowMutation> get(String rowKey, String columnKey, long maxTimestamp) {
+        for (RowMutation rowMutation : cell(rowKey, columnKey).values()) {
+            if (rowMutation.timestamp <= maxTimestamp || DEL.equals(rowMutation.action))
+                return of(rowMutation);
+        }
+
+        return empty();
+    }
+
+    @Override
+    public Stream<RowMutation> stream() {
+        return versions.values().stream();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return versions.isEmpty();
+    }
+
+    @Override
+    public int size() {
+        int cells = 0;
+        Key previous = null;
+        Iterator<Key> iterator = versions.keySet().iterator();
+        while (iterator.hasNext()) {
+            Key key = iterator.next();
+            if (previous == null || !previous.isSameCell(key))
+                cells++;
+            previous = key;
+        }
+        return cells;
+    }
+
+    @Override
+    public long logicalSizeInBytes() {
+        return logicalSizeInBytes.get();
+    }
+
+    @Override
+    public long physicalSizeInBytes() {
+        return physicalSizeInBytes.get();
+    }
+
+    @Override
+    public void clear() {
+        versions.clear();
+        logicalSizeInBytes.set(0);
+        physicalSizeInBytes.set(0);
+    }
+
+    /**
+     * Removes the versions one by one so only those this thread removed are untracked
+     */
+    private void removeAll(ConcurrentNavigableMap<Key, RowMutation> removed) {
+        for (Map.Entry<Key, RowMutation> version : removed.entrySet()) {
+            if (versions.remove(version.getKey(), version.getValue()))
+                track(version.getValue(), -1);
+        }
+    }
+
+    private void track(RowMutation rowMutation, int sign) {
+        logicalSizeInBytes.addAndGet(sign * (utf8SizeOf(rowMutation.rowKey) + utf8SizeOf(rowMutation.columnKey) + utf8SizeOf(rowMutation.value) + 8));
+        physicalSizeInBytes.addAndGet(sign * (ROW_MUTATION_BYTES + KEY_BYTES + SKIP_LIST_ENTRY_BYTES
+                + sizeOf(rowMutation.rowKey) + sizeOf(rowMutation.columnKey) + sizeOf(rowMutation.value)));
+    }
+
+    private ConcurrentNavigableMap<Key, RowMutation> cell(String rowKey, String columnKey) {
+        return versions.subMap(Key.firstOf(rowKey, columnKey), true, Key.lastOf(rowKey, columnKey), true);
+    }
+
+    private static final class Key implements Comparable<Key> {
+        private final String rowKey;
+        private final String columnKey;
+        private final long sequence;
+
+        private Key(String rowKey, String columnKey, long sequence) {
+            this.rowKey = rowKey;
+            this.columnKey = columnKey;
+            this.sequence = sequence;
+        }
+
+        private static Key firstOf(String rowKey, String columnKey) {
+            return new Key(rowKey, columnKey, Long.MAX_VALUE);
+        }
+
+        private static Key lastOf(String rowKey, String columnKey) {
+            return new Key(rowKey, columnKey, Long.MIN_VALUE);
+        }
+
+        private boolean isSameCell(Key other) {
+            return rowKey.equals(other.rowKey) && columnKey.equals(other.columnKey);
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int rowComparison = compareUtf8(rowKey, other.rowKey);
+            if (rowComparison != 0)
+                return rowComparison;
+
+            int columnComparison = compareUtf8(columnKey, other.columnKey);
+            if (columnComparison != 0)
+                return columnComparison;
+
+            return Long.compare(other.sequence, sequence);
+        }
+
+        /**
+         * Orders strings as their UTF-8 bytes are ordered in an SSTable, which differs from
+         * {@link String#compareTo} only where a surrogate pair meets a character above it
+         */
+        private static int compareUtf8(String a, String b) {
+            int length = Math.min(a.length(), b.length());
+            for (int i = 0; i < length; i++) {
+                char c1 = a.charAt(i);
+                char c2 = b.charAt(i);
+                if (c1 != c2)
+                    return Integer.compare(codePointOrder(c1), codePointOrder(c2));
+            }
+            return a.length() - b.length();
+        }
+
+        private static int codePointOrder(char c) {
+            return Character.isSurrogate(c) ? c + 0x2000 : (c >= 0xE000 ? c - 0x800 : c);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return sequence == key.sequence && isSameCell(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * rowKey.hashCode() + columnKey.hashCode()) + Long.hashCode(sequence);
+        }
+    }
+}
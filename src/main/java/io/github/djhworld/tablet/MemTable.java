@@ -0,0 +1,61 @@
+package io.github.djhworld.tablet;
+
+import io.github.djhworld.model.RowMutation;
+
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Sorted in memory view of the mutations applied to a tablet since it was last flushed.
+ * <p>
+ * Mutations may be put and read concurrently, {@link #clear()} must not race with writers.
+ */
+interface MemTable {
+    void put(RowMutation rowMutation);
+
+    /**
+     * Writes the tombstone and drops the history of the cell behind it
+     */
+    void delete(RowMutation tombstone);
+
+    /**
+     * Drops every version of the cell
+     */
+    void remove(String rowKey, String columnKey);
+
+    /**
+     * Drops the versions of the cell beyond the latest written maxVersions, and those with
+     * a timestamp before minTimestamp. A tombstone ending the cell's history is always kept.
+     */
+    void trim(String rowKey, String columnKey, int maxVersions, long minTimestamp);
+
+    /**
+     * @return the latest written version of the cell with a timestamp no later than maxTimestamp,
+     * or a tombstone written after it, as a delete hides every version written before it whatever the bound
+     */
+    Optional<RowMutation> get(String rowKey, String columnKey, long maxTimestamp);
+
+    /**
+     * @return every version in key order, latest written version of each cell first
+     */
+    Stream<RowMutation> stream();
+
+    boolean isEmpty();
+
+    /**
+     * @return number of cells, found by walking every version
+     */
+    int size();
+
+    /**
+     * @return UTF-8 encoded size of the keys and values, plus timestamps, of the versions held
+     */
+    long logicalSizeInBytes();
+
+    /**
+     * @return memory held by the mem table, including the structures indexing each version
+     */
+    long physicalSizeInBytes();
+
+    void clear();
+}
@@ -0,0 +1,21 @@
+package io.github.djhworld.tablet;
+
+public enum MemTableType {
+    /**
+     * Mutations held as objects on the heap, sized by estimate
+     */
+    HEAP,
+    /**
+     * Mutations copied into off heap slabs released together on flush, sized exactly
+     */
+    OFF_HEAP_ARENA;
+
+    MemTable newMemTable() {
+        switch (this) {
+            case OFF_HEAP_ARENA:
+                return new ArenaMemTable();
+            default:
+                return new HeapMemTable();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package io.github.djhworld.tablet;
+
+import com.google.common.base.Utf8;
+
+/**
+ * Shallow sizes of the objects mem tables are built from, assuming a 64 bit
+ * JVM with compressed references, 12 byte object headers and 8 byte alignment.
+ */
+final class ObjectSizes {
+    static final int OBJECT_HEADER_BYTES = 12;
+    static final int ARRAY_HEADER_BYTES = 16;
+    static final int REFERENCE_BYTES = 4;
+    /**
+     * A skip list node, plus the index nodes above it which average one for every three nodes
+     */
+    static final int SKIP_LIST_ENTRY_BYTES = align(OBJECT_HEADER_BYTES + 3 * REFERENCE_BYTES)
+            + align(OBJECT_HEADER_BYTES + 3 * REFERENCE_BYTES) / 3;
+    /**
+     * A string is an object holding a char array and a cached hash
+     */
+    private static final int STRING_BYTES = align(OBJECT_HEADER_BYTES + REFERENCE_BYTES + 4);
+
+    private ObjectSizes() {
+    }
+
+    static int align(long bytes) {
+        return (int) ((bytes + 7) & ~7);
+    }
+
+    static long sizeOf(String value) {
+        return STRING_BYTES + align(ARRAY_HEADER_BYTES + 2L * value.length());
+    }
+
+    static long utf8SizeOf(String value) {
+        return Utf8.encodedLength(value);
+    }
+}
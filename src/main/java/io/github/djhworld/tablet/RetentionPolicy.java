@@ -0,0 +1,55 @@
+package io.github.djhworld.tablet;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * How many versions of each cell in a column family are kept, and for how long.
+ * Policies are applied as versions are written to the mem table and again when
+ * they are flushed, so a cell overwritten many times only holds its live versions.
+ * <p>
+ * A tombstone is never dropped by a policy as it may still hide versions already flushed.
+ */
+public final class RetentionPolicy {
+    public static final RetentionPolicy DEFAULT = maxVersions(3);
+    private final int maxVersions;
+    private final long timeToLiveMillis;
+
+    private RetentionPolicy(int maxVersions, long timeToLiveMillis) {
+        this.maxVersions = maxVersions;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    public static RetentionPolicy maxVersions(int maxVersions) {
+        checkArgument(maxVersions > 0, "At least one version must be kept");
+        return new RetentionPolicy(maxVersions, 0);
+    }
+
+    /**
+     * @return policy also dropping versions whose timestamp is older than the time to live
+     */
+    public RetentionPolicy withTimeToLive(long timeToLive, TimeUnit unit) {
+        checkArgument(timeToLive > 0, "Time to live must be positive");
+        return new RetentionPolicy(maxVersions, unit.toMillis(timeToLive));
+    }
+
+    int maxVersions() {
+        return maxVersions;
+    }
+
+    /**
+     * @return earliest timestamp a version may have and still be kept, as of nowMillis
+     */
+    long minTimestamp(long nowMillis) {
+        return timeToLiveMillis == 0 ? Long.MIN_VALUE : nowMillis - timeToLiveMillis;
+    }
+
+    /**
+     * @return the column family of the column key, the part before the first ':' or the whole key if there is none
+     */
+    static String columnFamilyOf(String columnKey) {
+        int separator = columnKey.indexOf(':');
+        return separator < 0 ? columnKey : columnKey.substring(0, separator);
+    }
+}
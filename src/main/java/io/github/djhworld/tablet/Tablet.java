@@ -1,26 +1,38 @@
 package io.github.djhworld.tablet;
 
 import com.google.common.base.Stopwatch;
-import com.google.common.collect.Table;
-import com.google.common.collect.TreeBasedTable;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Striped;
 import io.github.djhworld.exception.TabletException;
-import io.github.djhworld.log.CommitLog;
+import io.github.djhworld.log.TabletCommitLog;
+import io.github.djhworld.model.RowBatch;
 import io.github.djhworld.model.RowMutation;
+import io.github.djhworld.sstable.BlockCache;
 import io.github.djhworld.sstable.SSTable;
 import io.github.djhworld.sstable.SSTableWriter;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 
 import java.io.IOException;
+import java.time.Clock;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
-import static com.google.common.collect.TreeBasedTable.create;
-import static io.github.djhworld.model.RowMutation.Action.DEL;
 import static io.github.djhworld.model.RowMutation.TOMBSTONE;
 import static java.time.LocalDateTime.now;
 import static java.time.format.DateTimeFormatter.ofPattern;
@@ -32,34 +44,71 @@ import static org.slf4j.LoggerFactory.getLogger;
 public class Tablet {
     private static final Logger LOGGER = getLogger(Tablet.class);
     private static final DateTimeFormatter FILENAME_FORMATTER = ofPattern("yyyyMMddHHmmssSSS");
-    private static final int MAX_VERSIONS_TO_KEEP = 3;
+    private static final int ROW_LOCK_STRIPES = 64;
     private final String tabletId;
     private final TabletMetadataService metadataService;
-    private final AtomicLong approximateMemTableSizeInBytes;
     private final AtomicLong flushCount;
-    private final CommitLog commitLog;
+    private final TabletCommitLog commitLog;
     private final TabletStore tabletStore;
+    private final BlockCache blockCache;
+    private final Map<String, RetentionPolicy> retentionPolicies;
+    private final Clock clock;
 
-    private final TreeBasedTable<String, String, Stack<RowMutation>> memTable;
-    private final Stack<SSTable> ssTables;
+    private final MemTableType memTableType;
+    private final ReadWriteLock memTableLock;
+    private final Striped<ReadWriteLock> rowLocks;
+    private final AtomicBoolean flushing;
+    private final List<SSTable> ssTables;
+    private final ReadWriteLock ssTablesLock;
+
+    private volatile MemTable memTable;
+    private volatile MemTable frozenMemTable;
+    private long frozenCommitLogMark;
 
     //TODO: metadata service
     //TODO: need to store commit log somewhere more permanent
     //feed it metadata service and it requests the information it needs
     public Tablet(String tabletId, TabletMetadataService tabletMetadataService) {
+        this(tabletId, tabletMetadataService, new BlockCache());
+    }
+
+    public Tablet(String tabletId, TabletMetadataService tabletMetadataService, BlockCache blockCache) {
+        this(tabletId, tabletMetadataService, blockCache, MemTableType.HEAP);
+    }
+
+    /**
+     * @param memTableType how mutations are held in memory until they are flushed
+     */
+    public Tablet(String tabletId, TabletMetadataService tabletMetadataService, BlockCache blockCache, MemTableType memTableType) {
+        this(tabletId, tabletMetadataService, blockCache, memTableType, null);
+    }
+
+    /**
+     * @param replayExecutor decodes and applies the commit log on its threads while the tablet is restored,
+     *                       rows are split into as many partitions as it has threads. Null to replay on the
+     *                       calling thread alone.
+     */
+    public Tablet(String tabletId, TabletMetadataService tabletMetadataService, BlockCache blockCache, MemTableType memTableType, ThreadPoolExecutor replayExecutor) {
         try {
             this.tabletId = tabletId;
             this.metadataService = tabletMetadataService;
-
-            this.memTable = create();
-            this.ssTables = new Stack<>();
+            this.blockCache = blockCache;
+            this.retentionPolicies = tabletMetadataService.getRetentionPoliciesFor(tabletId);
+            this.clock = Clock.systemUTC();
+
+            this.memTableType = memTableType;
+            this.memTable = memTableType.newMemTable();
+            this.memTableLock = new ReentrantReadWriteLock();
+            this.rowLocks = Striped.readWriteLock(ROW_LOCK_STRIPES);
+            this.flushing = new AtomicBoolean(false);
+            this.ssTables = new CopyOnWriteArrayList<>();
+            this.ssTablesLock = new ReentrantReadWriteLock();
             this.flushCount = new AtomicLong(0);
-            this.approximateMemTableSizeInBytes = new AtomicLong(0);
 
             //TODO: when to close?
             this.commitLog = tabletMetadataService.getCurrentCommitLog(tabletId);
             if (commitLog.exists())
-                restoreFromCommitLog();
+                restoreFromCommitLog(replayExecutor);
 
             this.tabletStore = tabletMetadataService.getTabletStore(tabletId);
             this.loadSSTables();
@@ -68,71 +117,240 @@ public class Tablet {
         }
     }
 
-    synchronized void apply(RowMutation rowMutation) {
-        synchronized (memTable) {
-            try {
+    /**
+     * Mutations of different rows are applied concurrently, they only wait while the mem table
+     * is being frozen. Committing and applying happen under the row lock so mutations of a row
+     * reach the log and the mem table in the same order, and replay ends on the same latest value.
+     */
+    void apply(RowMutation rowMutation) {
+        Lock rowLock = rowLocks.get(rowMutation.rowKey).writeLock();
+        memTableLock.readLock().lock();
+        rowLock.lock();
+        try {
+            switch (rowMutation.action) {
+                case ADD:
+                    insert(rowMutation, true);
+                    break;
+                case DEL:
+                    delete(rowMutation, true);
+                    break;
+            }
+        } catch (Exception e) {
+            throw new TabletException("Caught exception attempting to apply mutation ", e);
+        } finally {
+            rowLock.unlock();
+            memTableLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Commits the batch as one record then applies it, batches for the same row are
+     * applied one at a time in the order they were committed so none interleave
+     */
+    void apply(RowBatch rowBatch) {
+        Lock rowLock = rowLocks.get(rowBatch.rowKey).writeLock();
+        memTableLock.readLock().lock();
+        rowLock.lock();
+        try {
+            commitLog.commit(rowBatch);
+            for (RowMutation rowMutation : rowBatch) {
                 switch (rowMutation.action) {
                     case ADD:
-                        insert(rowMutation, true);
+                        insert(rowMutation, false);
                         break;
                     case DEL:
-                        delete(rowMutation, true);
+                        delete(rowMutation, false);
                         break;
                 }
-            } catch (Exception e) {
-                throw new TabletException("Caught exception attempting to apply mutation ", e);
             }
+        } catch (Exception e) {
+            throw new TabletException("Caught exception attempting to apply row batch ", e);
+        } finally {
+            rowLock.unlock();
+            memTableLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Queues the mutation in the commit log and applies it without waiting for the log to
+     * be written, so it can be read before it is durable. Queueing and applying happen
+     * under the row lock so mutations of a row reach the log and the mem table in the same order.
+     *
+     * @return future completed once the mutation is as durable as the tablet's commit log asks for
+     */
+    CompletableFuture<Void> applyAsync(RowMutation rowMutation) {
+        return applyAsync(rowMutation.rowKey, () -> {
+            CompletableFuture<Void> durable = commitLog.commitAsync(rowMutation);
+            applyCommitted(rowMutation);
+            return durable;
+        });
+    }
+
+    /**
+     * Queues the batch as one record and applies it without waiting, see {@link #applyAsync(RowMutation)}
+     */
+    CompletableFuture<Void> applyAsync(RowBatch rowBatch) {
+        return applyAsync(rowBatch.rowKey, () -> {
+            CompletableFuture<Void> durable = commitLog.commitAsync(rowBatch);
+            rowBatch.forEach(this::applyCommitted);
+            return durable;
+        });
+    }
+
+    private CompletableFuture<Void> applyAsync(String rowKey, Supplier<CompletableFuture<Void>> commitAndApply) {
+        Lock rowLock = rowLocks.get(rowKey).writeLock();
+        memTableLock.readLock().lock();
+        rowLock.lock();
+        try {
+            return commitAndApply.get();
+        } catch (Exception e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new TabletException("Caught exception attempting to apply mutation ", e));
+            return failed;
+        } finally {
+            rowLock.unlock();
+            memTableLock.readLock().unlock();
         }
     }
 
     public Optional<String> get(String rowKey, String columnName) {
-        Stack<RowMutation> rowMutations = memTable.get(rowKey, columnName);
+        return get(rowKey, columnName, Long.MAX_VALUE);
+    }
 
-        if (rowMutations != null && !rowMutations.isEmpty()) {
-            if (TOMBSTONE.equals(rowMutations.peek().value))
+    /**
+     * The mem tables are read under the row lock, so a batch for the row is seen either whole
+     * or not at all. SSTables only ever hold whole batches so are read without it.
+     *
+     * @param maxTimestamp versions with a later timestamp are ignored
+     * @return the latest version of the cell no later than maxTimestamp
+     */
+    public Optional<String> get(String rowKey, String columnName, long maxTimestamp) {
+        Optional<RowMutation> rowMutation;
+        Lock rowLock = rowLocks.get(rowKey).readLock();
+        rowLock.lock();
+        try {
+            // read the active table before the frozen one, so a table frozen in between is still seen
+            MemTable active = this.memTable;
+            MemTable frozen = this.frozenMemTable;
+            rowMutation = active.get(rowKey, columnName, maxTimestamp);
+            if (!rowMutation.isPresent() && frozen != null)
+                rowMutation = frozen.get(rowKey, columnName, maxTimestamp);
+        } finally {
+            rowLock.unlock();
+        }
+
+        if (rowMutation.isPresent()) {
+            if (TOMBSTONE.equals(rowMutation.get().value))
                 return empty();
 
-            return of(rowMutations.peek().value);
+            return of(rowMutation.get().value);
         }
 
-        for (SSTable ssTable : ssTables) {
-            Optional<String> ssTableResult = ssTable.get(rowKey, columnName);
+        // tables are held oldest first, the latest flushed holds the latest versions and deletes
+        ssTablesLock.readLock().lock();
+        try {
+            for (SSTable ssTable : Lists.reverse(ssTables)) {
+                if (!ssTable.mayContainRow(rowKey))
+                    continue;
+
+                Optional<String> ssTableResult = ssTable.get(rowKey, columnName, maxTimestamp);
 
-            if (ssTableResult.isPresent()) {
-                if (TOMBSTONE.equals(ssTableResult.get()))
-                    return empty();
+                if (ssTableResult.isPresent()) {
+                    if (TOMBSTONE.equals(ssTableResult.get()))
+                        return empty();
 
-                return ssTableResult;
+                    return ssTableResult;
+                }
             }
+        } finally {
+            ssTablesLock.readLock().unlock();
         }
 
         return empty();
     }
 
+    /**
+     * Flushes every mutation applied so far, waiting for the SSTable to be written
+     */
     //TODO: what if compacting?
     public synchronized void flush() {
-        synchronized (memTable) {
-            try {
-                if (memTable.isEmpty())
-                    return;
+        flushFrozen();
+        if (freeze())
+            flushFrozen();
+    }
 
-                LOGGER.info("Flushing mem table to SSTable as it is " + approximateMemTableSizeInBytes.get() + " bytes");
-                int currentTabletGeneration = metadataService.getCurrentTabletGeneration(tabletId);
-                this.approximateMemTableSizeInBytes.set(0);
+    /**
+     * Freezes the mem table so writes carry on into a fresh one while the frozen
+     * table is flushed on the executor. Does nothing if a flush is already under way.
+     *
+     * @return true if a flush was handed to the executor
+     */
+    public boolean flushInBackground(Executor flushExecutor) {
+        if (!flushing.compareAndSet(false, true))
+            return false;
 
-                TreeBasedTable<String, String, Stack<RowMutation>> oldMemTable = this.memTable;
-                Path filename = createSSTable(oldMemTable, currentTabletGeneration);
+        try {
+            freeze();
+            flushExecutor.execute(() -> {
+                try {
+                    flushFrozen();
+                } catch (Exception e) {
+                    LOGGER.error("Background flush of tablet " + tabletId + " failed, will retry on next flush", e);
+                } finally {
+                    flushing.set(false);
+                }
+            });
+            return true;
+        } catch (RuntimeException e) {
+            flushing.set(false);
+            throw e;
+        }
+    }
 
-                this.ssTables.add(
-                        new SSTable(tabletStore.get(currentTabletGeneration, filename))
-                );
+    /**
+     * @return false if there is nothing to freeze, or a frozen table is still waiting to be flushed
+     */
+    private boolean freeze() {
+        memTableLock.writeLock().lock();
+        try {
+            if (frozenMemTable != null || memTable.isEmpty())
+                return false;
+
+            this.frozenCommitLogMark = commitLog.mark();
+            this.frozenMemTable = memTable;
+            this.memTable = memTableType.newMemTable();
+            return true;
+        } catch (IOException e) {
+            throw new TabletException("Caught error attempting to mark commit log", e);
+        } finally {
+            memTableLock.writeLock().unlock();
+        }
+    }
 
-                this.memTable.clear();
-                this.flushCount.incrementAndGet();
-                this.commitLog.checkpoint();
-            } catch (Exception e) {
-                throw new TabletException("Caught error attempting to flushTo mem table to SSTable", e);
-            }
+    /**
+     * Writes the frozen mem table out, then drops it and the part of the commit log it covers
+     */
+    private synchronized void flushFrozen() {
+        MemTable frozen = this.frozenMemTable;
+        if (frozen == null)
+            return;
+
+        try {
+            LOGGER.info("Flushing mem table to SSTable as it is " + frozen.physicalSizeInBytes() + " bytes, holding " + frozen.logicalSizeInBytes() + " bytes of data");
+            int currentTabletGeneration = metadataService.getCurrentTabletGeneration(tabletId);
+
+            Path filename = createSSTable(frozen, currentTabletGeneration);
+
+            this.ssTables.add(
+                    new SSTable(tabletStore.get(currentTabletGeneration, filename), blockCache)
+            );
+
+            this.frozenMemTable = null;
+            frozen.clear();
+            this.flushCount.incrementAndGet();
+            this.commitLog.checkpoint(frozenCommitLogMark);
+        } catch (Exception e) {
+            throw new TabletException("Caught error attempting to flushTo mem table to SSTable", e);
         }
     }
 
@@ -146,14 +364,14 @@ public class Tablet {
                     LOGGER.info("Compacting tablet generation " + currentTabletGeneration);
                     int newTabletGeneration = currentTabletGeneration + 1;
 
-                    TreeBasedTable<String, String, Stack<RowMutation>> tempTable = create();
+                    MemTable tempTable = new HeapMemTable();
                     for (SSTable ssTable : ssTables) {
                         Stopwatch stopwatch = Stopwatch.createStarted();
                         ssTable.stream().forEach(rm -> {
                             if (TOMBSTONE.equals(rm.value)) {
                                 tempTable.remove(rm.rowKey, rm.columnKey);
                             } else {
-                                insertIntoTable(tempTable, rm);
+                                tempTable.put(rm);
                             }
                         });
                         LOGGER.info("Took " + stopwatch.stop().elapsed(MILLISECONDS) + "ms to scan");
@@ -175,14 +393,31 @@ public class Tablet {
     }
 
 
-    public synchronized long approximateMemTableSizeInBytes() {
-        synchronized (approximateMemTableSizeInBytes) {
-            return approximateMemTableSizeInBytes.get();
-        }
+    /**
+     * @return memory held by the mem table taking writes, excluding any frozen table being flushed
+     */
+    public long approximateMemTableSizeInBytes() {
+        return memTable.physicalSizeInBytes();
+    }
+
+    /**
+     * @return encoded size of the data in the mem table taking writes, roughly what it would take up in an SSTable
+     */
+    public long memTableLogicalSizeInBytes() {
+        return memTable.logicalSizeInBytes();
+    }
+
+    /**
+     * @return memory held by the frozen mem table waiting to be flushed, zero if there is none
+     */
+    public long frozenMemTableSizeInBytes() {
+        MemTable frozen = this.frozenMemTable;
+        return frozen == null ? 0 : frozen.physicalSizeInBytes();
     }
 
     public int size() {
-        return memTable.size();
+        MemTable frozen = this.frozenMemTable;
+        return memTable.size() + (frozen == null ? 0 : frozen.size());
     }
 
     public String getTabletId() {
@@ -198,44 +433,41 @@ public class Tablet {
         if (requiresCommit)
             commitLog.commit(rowMutation);
 
-        insertIntoTable(memTable, rowMutation);
-        this.approximateMemTableSizeInBytes.addAndGet(rowMutation.size());
+        memTable.put(rowMutation);
+        RetentionPolicy policy = retentionPolicyFor(rowMutation.columnKey);
+        memTable.trim(rowMutation.rowKey, rowMutation.columnKey, policy.maxVersions(), policy.minTimestamp(clock.millis()));
     }
 
     private void delete(RowMutation rowMutation, boolean requiresCommit) throws IOException {
         if (requiresCommit)
             commitLog.commit(rowMutation);
 
-        deleteFromTable(memTable, rowMutation);
-        this.approximateMemTableSizeInBytes.addAndGet((rowMutation.rowKey + rowMutation.columnKey + TOMBSTONE).getBytes().length);
+        memTable.delete(rowMutation);
     }
 
-    private void deleteFromTable(Table<String, String, Stack<RowMutation>> table, RowMutation rm) {
-        Stack<RowMutation> rowMutations = table.get(rm.rowKey, rm.columnKey);
-        if (rowMutations != null) {
-            rowMutations.clear(); //clear all history
-        }
-        insertIntoTable(table, rm);
+    private RetentionPolicy retentionPolicyFor(String columnKey) {
+        RetentionPolicy policy = retentionPolicies.get(RetentionPolicy.columnFamilyOf(columnKey));
+        return policy == null ? RetentionPolicy.DEFAULT : policy;
     }
 
-    private void insertIntoTable(Table<String, String, Stack<RowMutation>> table, RowMutation rm) {
-        Stack<RowMutation> rowMutations = table.get(rm.rowKey, rm.columnKey);
-        if (rowMutations == null) {
-            rowMutations = new Stack<>();
-            table.put(rm.rowKey, rm.columnKey, rowMutations);
-        }
-
-        //if top is a delete action ,then remove it as we are reading
-        if (!rowMutations.isEmpty() && DEL.equals(rowMutations.peek())) {
-            rowMutations.pop();
+    private void restoreFromCommitLog(ThreadPoolExecutor replayExecutor) throws IOException {
+        LOGGER.info("Restoring from commit log....");
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        if (replayExecutor == null) {
+            for (RowMutation rowMutation : commitLog)
+                applyCommitted(rowMutation);
+        } else {
+            // the mem table takes concurrent writes, each partition of rows is applied on its own
+            commitLog.replay(replayExecutor, replayExecutor.getMaximumPoolSize(), this::applyCommitted);
         }
-
-        rowMutations.push(rm);
+        LOGGER.info("Took " + stopwatch.stop().elapsed(MILLISECONDS) + "ms to restore tablet " + tabletId + " from commit log");
     }
 
-    private void restoreFromCommitLog() throws IOException {
-        LOGGER.info("Restoring from commit log....");
-        for (RowMutation rowMutation : commitLog) {
+    /**
+     * Applies a mutation already in the commit log to the mem table
+     */
+    private void applyCommitted(RowMutation rowMutation) {
+        try {
             switch (rowMutation.action) {
                 case ADD:
                     insert(rowMutation, false);
@@ -244,46 +476,84 @@ public class Tablet {
                     delete(rowMutation, false);
                     break;
             }
+        } catch (IOException e) {
+            throw new TabletException("Caught error attempting to apply committed mutation", e);
         }
     }
 
+    /**
+     * Opens the tables of the current generation in place of those served so far, which are
+     * closed once the reads already under way on them have finished
+     */
     private void loadSSTables() throws IOException {
         int currentGeneration = metadataService.getCurrentTabletGeneration(tabletId);
 
-        List<Path> ssTablePaths = tabletStore.list(currentGeneration);
-        Stack<SSTable> ssTablesStack = new Stack<>();
+        List<SSTable> loaded = new ArrayList<>();
+        try {
+            for (Path ssTablePath : tabletStore.list(currentGeneration)) {
+                loaded.add(new SSTable(
+                        tabletStore.get(currentGeneration, ssTablePath),
+                        blockCache
+                ));
+            }
+        } catch (IOException | RuntimeException e) {
+            loaded.forEach(IOUtils::closeQuietly);
+            throw e;
+        }
 
-        for (Path ssTablePath : ssTablePaths) {
-            ssTablesStack.push(new SSTable(
-                    tabletStore.get(currentGeneration, ssTablePath)
-            ));
+        List<SSTable> replaced;
+        ssTablesLock.writeLock().lock();
+        try {
+            replaced = new ArrayList<>(ssTables);
+            ssTables.clear();
+            ssTables.addAll(loaded);
+        } finally {
+            ssTablesLock.writeLock().unlock();
         }
 
-        ssTables.clear();
-        ssTables.addAll(ssTablesStack);
+        for (SSTable ssTable : replaced) {
+            try {
+                ssTable.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close replaced SSTable of tablet " + tabletId, e);
+            }
+        }
     }
 
-    private Path createSSTable(TreeBasedTable<String, String, Stack<RowMutation>> data, Integer tabletGeneration) throws IOException {
+    private Path createSSTable(MemTable data, Integer tabletGeneration) throws IOException {
         Path filename = Paths.get(now().format(FILENAME_FORMATTER) + ".db");
         LOGGER.info("Creating SSTable at path " + filename);
 
 
-        try (SSTableWriter ssTableWriter = new SSTableWriter(tabletStore.newSink(tabletGeneration, filename), metadataService.getCompressionCodecFor(tabletId))) {
-            for (Table.Cell<String, String, Stack<RowMutation>> cell : data.cellSet()) {
-                Stack<RowMutation> mutationVersions = cell.getValue();
-                int versionsCount = 0;
-                for (int i = mutationVersions.size() - 1; i >= 0; i--) {
-                    if(versionsCount == MAX_VERSIONS_TO_KEEP) break;
-
-                    RowMutation mutationVersion = mutationVersions.get(i);
-                    ssTableWriter.write(
-                            mutationVersion.rowKey,
-                            mutationVersion.columnKey,
-                            mutationVersion.value,
-                            mutationVersion.timestamp
-                    );
-                    versionsCount++;
-                }
+        long now = clock.millis();
+        try (SSTableWriter ssTableWriter = new SSTableWriter(
+                tabletStore.newSink(tabletGeneration, filename),
+                metadataService.getCompressionCodecFor(tabletId),
+                SSTableWriter.DEFAULT_BLOCK_SIZE,
+                SSTableWriter.DEFAULT_FALSE_POSITIVE_RATE,
+                data.size())) {
+            RowMutation previous = null;
+            RetentionPolicy policy = null;
+            int versionsCount = 0;
+            for (RowMutation mutationVersion : (Iterable<RowMutation>) data.stream()::iterator) {
+                boolean sameCell = previous != null
+                        && previous.rowKey.equals(mutationVersion.rowKey)
+                        && previous.columnKey.equals(mutationVersion.columnKey);
+                if (!sameCell)
+                    policy = retentionPolicyFor(mutationVersion.columnKey);
+                versionsCount = sameCell ? versionsCount + 1 : 0;
+                previous = mutationVersion;
+
+                boolean tombstone = TOMBSTONE.equals(mutationVersion.value);
+                if (!tombstone && (versionsCount >= policy.maxVersions() || mutationVersion.timestamp < policy.minTimestamp(now)))
+                    continue;
+
+                ssTableWriter.write(
+                        mutationVersion.rowKey,
+                        mutationVersion.columnKey,
+                        mutationVersion.value,
+                        mutationVersion.timestamp
+                );
             }
         }
 
@@ -3,33 +3,57 @@ package io.github.djhworld.tablet;
 import com.amazonaws.services.s3.AmazonS3Client;
 import io.github.djhworld.io.CompressionType;
 import io.github.djhworld.log.CommitLog;
+import io.github.djhworld.log.Durability;
+import io.github.djhworld.log.TabletCommitLog;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 
 import static io.github.djhworld.io.CompressionType.*;
 import static java.nio.file.Paths.get;
+import static java.util.Collections.emptyMap;
 
 //TODO:....
 public class TabletMetadataService {
-    private Map<String, CommitLog> tabletToCommitLogs;
+    private CommitLog commitLog;
     private Map<String, Integer> tabletGenerations;
 
     public TabletMetadataService() throws IOException {
-        tabletToCommitLogs = new HashMap<>();
-        tabletToCommitLogs.put("0", new CommitLog(get("/tmp/commit0")));
-        tabletToCommitLogs.put("1", new CommitLog(get("/tmp/commit1")));
-
         tabletGenerations = new HashMap<>();
         tabletGenerations.put("0", 1);
         tabletGenerations.put("1", 1);
     }
 
-    public CommitLog getCurrentCommitLog(String tabletId) throws IOException {
-        return new CommitLog(get("/tmp/commit" + tabletId));
+    /**
+     * @return the tablet's part of the commit log shared by every tablet on this server
+     */
+    public TabletCommitLog getCurrentCommitLog(String tabletId) throws IOException {
+        return getCommitLog().forTablet(tabletId, getDurabilityFor(tabletId));
+    }
+
+    /**
+     * @return how far commits to the tablet must get before they are acknowledged
+     */
+    public Durability getDurabilityFor(String tabletId) {
+        //TODO!!
+        return Durability.SYNC;
+    }
 
+    /**
+     * Opens the log shared by every tablet, adopting the log each tablet kept of its own
+     * before they shared one so nothing committed to them is lost
+     */
+    public synchronized CommitLog getCommitLog() throws IOException {
+        if (commitLog == null) {
+            Map<String, Path> legacyLogs = new HashMap<>();
+            for (String tabletId : tabletGenerations.keySet())
+                legacyLogs.put(tabletId, get("/tmp/commit" + tabletId));
+            commitLog = new CommitLog(get("/tmp/commit"), legacyLogs);
+        }
+        return commitLog;
     }
 
     public int getCurrentTabletGeneration(String tabletId) {
@@ -52,4 +76,17 @@ public class TabletMetadataService {
         //TODO!!
         return SNAPPY;
     }
+
+    public MemTableType getMemTableTypeFor(String tabletId) {
+        //TODO!!
+        return MemTableType.HEAP;
+    }
+
+    /**
+     * @return retention policy of each column family of the tablet, families not listed use {@link RetentionPolicy#DEFAULT}
+     */
+    public Map<String, RetentionPolicy> getRetentionPoliciesFor(String tabletId) {
+        //TODO!!
+        return emptyMap();
+    }
 }
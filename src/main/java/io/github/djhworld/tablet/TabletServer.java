@@ -2,34 +2,116 @@ package io.github.djhworld.tablet;
 
 import com.google.common.collect.Range;
 import com.google.common.collect.RangeMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.github.djhworld.exception.TabletException;
+import io.github.djhworld.model.RowBatch;
 import io.github.djhworld.model.RowMutation;
+import io.github.djhworld.sstable.BlockCache;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Function;
 
-import static com.google.common.collect.Maps.newHashMap;
 import static com.google.common.collect.TreeRangeMap.create;
 import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class TabletServer {
-    public static final int TABLET_MEMTABLE_LIMIT = 10_000_000;
+    public static final long DEFAULT_MEMTABLE_BUDGET = 256_000_000;
+    private static final int FLUSH_THREADS = 2;
+    private static final int RECOVERY_THREADS = 4;
+    private static final int REPLAY_THREADS = Runtime.getRuntime().availableProcessors();
     private final TabletMetadataService metadataService;
     private final RangeMap<String, String> rowRangeToTabletsMap;
     private final Map<String, Tablet> tabletIdToTabletMap;
     private final ScheduledExecutorService executorService;
+    private final FlushScheduler flushScheduler;
+    private final BlockCache blockCache;
+    private final ThreadPoolExecutor recoveryExecutor;
+    private final ThreadPoolExecutor replayExecutor;
+    private final ThreadPoolExecutor stalledWriteExecutor;
 
     public TabletServer(TabletMetadataService metadataService, ScheduledExecutorService executorService) {
+        this(metadataService, executorService, new BlockCache());
+    }
+
+    /**
+     * @param blockCache cache of decoded SSTable blocks shared by every tablet on this server
+     */
+    public TabletServer(TabletMetadataService metadataService, ScheduledExecutorService executorService, BlockCache blockCache) {
+        this(
+                metadataService,
+                executorService,
+                blockCache,
+                DEFAULT_MEMTABLE_BUDGET,
+                new ThreadPoolExecutor(
+                        FLUSH_THREADS,
+                        FLUSH_THREADS,
+                        0L,
+                        MILLISECONDS,
+                        new LinkedBlockingQueue<>(),
+                        new ThreadFactoryBuilder().setNameFormat("tablet-flush-%d").setDaemon(true).build()
+                )
+        );
+    }
+
+    /**
+     * @param memTableBudget memory shared by the mem tables of every tablet on this server
+     * @param flushExecutor  writes frozen mem tables to SSTables away from the threads applying mutations,
+     *                       no more flushes than it has threads are run at once
+     */
+    public TabletServer(TabletMetadataService metadataService, ScheduledExecutorService executorService, BlockCache blockCache, long memTableBudget, ThreadPoolExecutor flushExecutor) {
         this.metadataService = metadataService;
         this.rowRangeToTabletsMap = create();
-        this.tabletIdToTabletMap = newHashMap();
+        this.tabletIdToTabletMap = new ConcurrentHashMap<>();
         this.executorService = executorService;
+        this.flushScheduler = new FlushScheduler(memTableBudget, flushExecutor.getMaximumPoolSize(), flushExecutor);
+        this.blockCache = blockCache;
+        this.recoveryExecutor = newIdleTimingOutExecutor(RECOVERY_THREADS, "tablet-recovery-%d");
+        this.replayExecutor = newIdleTimingOutExecutor(REPLAY_THREADS, "commit-log-replay-%d");
+        this.stalledWriteExecutor = newIdleTimingOutExecutor(1, "tablet-stalled-write-%d");
         startScheduledCompaction();
     }
 
     public synchronized void register(Range<String> rowRange, String tabletId) {
         rowRangeToTabletsMap.put(rowRange, tabletId);
-        tabletIdToTabletMap.put(tabletId, new Tablet(tabletId, metadataService));
+        tabletIdToTabletMap.put(tabletId, newTablet(tabletId));
+        //TODO: this needs committing somewhere
+    }
+
+    /**
+     * Registers every tablet, restoring them from the commit log a few at a time rather
+     * than one after another. No tablet serves requests until all of them are restored.
+     */
+    public synchronized void registerAll(Map<Range<String>, String> rowRangesToTabletIds) {
+        Map<Range<String>, Future<Tablet>> restoring = new LinkedHashMap<>();
+        rowRangesToTabletIds.forEach((rowRange, tabletId) ->
+                restoring.put(rowRange, recoveryExecutor.submit(() -> newTablet(tabletId))));
+
+        Map<Range<String>, Tablet> restored = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<Range<String>, Future<Tablet>> tablet : restoring.entrySet())
+                restored.put(tablet.getKey(), tablet.getValue().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TabletException("Interrupted waiting for tablets to be restored", e);
+        } catch (ExecutionException e) {
+            throw new TabletException("Caught error attempting to restore tablets", e.getCause());
+        }
+
+        restored.forEach((rowRange, tablet) -> {
+            rowRangeToTabletsMap.put(rowRange, tablet.getTabletId());
+            tabletIdToTabletMap.put(tablet.getTabletId(), tablet);
+        });
         //TODO: this needs committing somewhere
     }
 
@@ -43,19 +125,90 @@ public class TabletServer {
 
     public void apply(RowMutation rowMutation) {
         Tablet tabletFor = getTabletFor(rowMutation.rowKey);
+        awaitCapacity();
+
+        tabletFor.apply(rowMutation);
+        flushScheduler.afterApply(tabletFor, tabletIdToTabletMap.values(), rowMutation.size());
+    }
+
+    /**
+     * Applies every mutation in the batch to its row atomically
+     */
+    public void apply(RowBatch rowBatch) {
+        Tablet tabletFor = getTabletFor(rowBatch.rowKey);
+        awaitCapacity();
+
+        tabletFor.apply(rowBatch);
+        flushScheduler.afterApply(tabletFor, tabletIdToTabletMap.values(), rowBatch.size());
+    }
+
+    /**
+     * Applies the mutation without blocking the caller on the commit log. While the mem
+     * table budget is exhausted the mutation is handed to a single thread that waits for
+     * memory to be freed, rather than holding back the caller.
+     *
+     * @return future completed once the mutation is as durable as its tablet's commit log asks for
+     */
+    public CompletableFuture<Void> applyAsync(RowMutation rowMutation) {
+        return applyAsync(rowMutation.rowKey, rowMutation.size(), tablet -> tablet.applyAsync(rowMutation));
+    }
 
-        //TODO: this should be placed on tablet instead?
-        if (tabletFor.approximateMemTableSizeInBytes() > TABLET_MEMTABLE_LIMIT) {
-            tabletFor.flush();
+    /**
+     * Applies every mutation in the batch to its row atomically, without blocking the caller
+     * on the commit log, see {@link #applyAsync(RowMutation)}
+     */
+    public CompletableFuture<Void> applyAsync(RowBatch rowBatch) {
+        return applyAsync(rowBatch.rowKey, rowBatch.size(), tablet -> tablet.applyAsync(rowBatch));
+    }
+
+    private CompletableFuture<Void> applyAsync(String rowKey, int mutationBytes, Function<Tablet, CompletableFuture<Void>> apply) {
+        try {
+            Tablet tabletFor = getTabletFor(rowKey);
+            if (!flushScheduler.hasCapacity()) {
+                return CompletableFuture
+                        .runAsync(this::awaitCapacity, stalledWriteExecutor)
+                        .thenCompose(ignored -> applyTo(tabletFor, mutationBytes, apply));
+            }
+            return applyTo(tabletFor, mutationBytes, apply);
+        } catch (RuntimeException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
         }
+    }
 
-        tabletFor.apply(rowMutation);
+    private CompletableFuture<Void> applyTo(Tablet tablet, int mutationBytes, Function<Tablet, CompletableFuture<Void>> apply) {
+        CompletableFuture<Void> durable = apply.apply(tablet);
+        flushScheduler.afterApply(tablet, tabletIdToTabletMap.values(), mutationBytes);
+        return durable;
+    }
+
+    /**
+     * @return bytes held by frozen mem tables still being written out to SSTables
+     */
+    public long pendingFlushBytes() {
+        return flushScheduler.pendingFlushBytes();
+    }
+
+    /**
+     * @return bytes held by the mem tables of every tablet, frozen or not
+     */
+    public long memTableBytes() {
+        return flushScheduler.usedBytes();
     }
 
     public Optional<String> get(String rowKey, String columnKey) {
         return getTabletFor(rowKey).get(rowKey, columnKey);
     }
 
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    private Tablet newTablet(String tabletId) {
+        return new Tablet(tabletId, metadataService, blockCache, metadataService.getMemTableTypeFor(tabletId), replayExecutor);
+    }
+
     private Tablet getTabletFor(String rowKey) {
         String tabletId = rowRangeToTabletsMap.get(rowKey);
 
@@ -65,6 +218,31 @@ public class TabletServer {
         return tabletIdToTabletMap.get(tabletId);
     }
 
+    private void awaitCapacity() {
+        try {
+            flushScheduler.awaitCapacity(tabletIdToTabletMap.values());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TabletException("Interrupted waiting for mem table memory to be freed", e);
+        }
+    }
+
+    /**
+     * @return executor whose threads are only kept while there is work, recovery only happens now and again
+     */
+    private static ThreadPoolExecutor newIdleTimingOutExecutor(int threads, String nameFormat) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                30L,
+                SECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     private void startScheduledCompaction() {
         executorService.scheduleAtFixedRate(() -> {
             this.tabletIdToTabletMap.forEach((tabletId, tablet) -> {
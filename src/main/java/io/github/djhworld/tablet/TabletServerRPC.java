@@ -2,12 +2,16 @@ package io.github.djhworld.tablet;
 
 import com.google.common.collect.Range;
 import io.github.djhworld.helloworld.*;
+import io.github.djhworld.model.RowBatch;
 import io.github.djhworld.model.RowMutation;
 import io.grpc.stub.StreamObserver;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 public class TabletServerRPC extends TabletServerGrpc.TabletServerImplBase {
@@ -32,18 +36,67 @@ public class TabletServerRPC extends TabletServerGrpc.TabletServerImplBase {
 
     @Override
     public void batchAdd(BatchAddItemRequest request, StreamObserver<BatchAddItemResponse> responseObserver) {
-        for(AddItemRequest addItemRequest : request.getAddItemRequestsList()) {
-            tabletServer.apply(RowMutation.newAddMutation(addItemRequest.getRow(), addItemRequest.getColumn(), addItemRequest.getValue()));
+        try {
+            List<CompletableFuture<Void>> applied = new ArrayList<>(request.getAddItemRequestsCount());
+            for (AddItemRequest addItemRequest : request.getAddItemRequestsList()) {
+                applied.add(tabletServer.applyAsync(RowMutation.newAddMutation(addItemRequest.getRow(), addItemRequest.getColumn(), addItemRequest.getValue())));
+            }
+
+            respondWhenDurable(
+                    CompletableFuture.allOf(applied.toArray(new CompletableFuture<?>[0])),
+                    BatchAddItemResponse.newBuilder().setOk(true).build(),
+                    responseObserver
+            );
+        } catch (Exception e) {
+            responseObserver.onError(e);
         }
+    }
 
-        responseObserver.onNext(BatchAddItemResponse.newBuilder().setOk(true).build());
-        responseObserver.onCompleted();
+    @Override
+    public void mutateRow(MutateRowRequest request, StreamObserver<MutateRowResponse> responseObserver) {
+        try {
+            List<RowMutation> rowMutations = new ArrayList<>(request.getMutationsCount());
+            for (ColumnMutation columnMutation : request.getMutationsList()) {
+                rowMutations.add(columnMutation.getDelete()
+                        ? RowMutation.newDeleteMutation(request.getRow(), columnMutation.getColumn())
+                        : RowMutation.newAddMutation(request.getRow(), columnMutation.getColumn(), columnMutation.getValue()));
+            }
+
+            respondWhenDurable(
+                    tabletServer.applyAsync(RowBatch.newRowBatch(rowMutations)),
+                    MutateRowResponse.newBuilder().setOk(true).build(),
+                    responseObserver
+            );
+        } catch (Exception e) {
+            responseObserver.onError(e);
+        }
     }
 
     @Override
     public void add(AddItemRequest request, StreamObserver<AddItemResponse> responseObserver) {
-        tabletServer.apply(RowMutation.newAddMutation(request.getRow(), request.getColumn(), request.getValue()));
-        responseObserver.onNext(AddItemResponse.newBuilder().setOk(true).build());
-        responseObserver.onCompleted();
+        try {
+            respondWhenDurable(
+                    tabletServer.applyAsync(RowMutation.newAddMutation(request.getRow(), request.getColumn(), request.getValue())),
+                    AddItemResponse.newBuilder().setOk(true).build(),
+                    responseObserver
+            );
+        } catch (Exception e) {
+            responseObserver.onError(e);
+        }
+    }
+
+    /**
+     * Completes the call from whichever thread makes the write durable, so no transport thread waits on the commit log
+     */
+    private static <T> void respondWhenDurable(CompletableFuture<Void> durable, T response, StreamObserver<T> responseObserver) {
+        durable.whenComplete((ignored, e) -> {
+            if (e != null) {
+                responseObserver.onError(e instanceof CompletionException ? e.getCause() : e);
+                return;
+            }
+
+            responseObserver.onNext(response);
+            responseObserver.onCompleted();
+        });
     }
 }
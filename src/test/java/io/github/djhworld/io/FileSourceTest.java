@@ -5,6 +5,7 @@ import org.junit.Test;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 
 import static com.google.common.io.Resources.getResource;
@@ -40,6 +41,14 @@ public class FileSourceTest {
         }
     }
 
+    @Test
+    public void shouldProvideRangedBuffer() throws Exception {
+        ByteBuffer buffer = fileSource.getBuffer(5, 4);
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        assertThat(new String(bytes), is("data"));
+    }
+
     @Test
     public void shouldProvideLocation() {
         assertThat(fileSource.getLocation(), is(path));
@@ -0,0 +1,85 @@
+package io.github.djhworld.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import static com.google.common.io.Resources.getResource;
+import static java.nio.file.Paths.get;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class MappedFileSourceTest {
+    private Path path;
+    private MappedFileSource mappedFileSource;
+
+    @Before
+    public void setUp() throws Exception {
+        path = get(getResource("file-source.txt").toURI());
+        mappedFileSource = new MappedFileSource(path);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mappedFileSource.close();
+    }
+
+    @Test
+    public void shouldProvideFullInputStream() throws Exception {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(mappedFileSource.open()))) {
+            reader.lines().forEach(line -> {
+                assertThat(line, is("test data"));
+            });
+        }
+    }
+
+    @Test
+    public void shouldProvideRangedInputStream() throws Exception {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(mappedFileSource.getRange(5, 4)))) {
+            assertThat(reader.readLine(), is("data"));
+        }
+    }
+
+    @Test
+    public void shouldProvideRangeAsViewOfMapping() throws Exception {
+        ByteBuffer buffer = mappedFileSource.getBuffer(5, 4);
+
+        assertThat(mappedFileSource.isMapped(), is(true));
+        assertThat(buffer.isDirect(), is(true));
+        assertThat(asString(buffer), is("data"));
+    }
+
+    @Test
+    public void shouldFallBackToPositionalReadsForFilesTooLargeToMap() throws Exception {
+        try (MappedFileSource unmapped = new MappedFileSource(path, 0)) {
+            assertThat(unmapped.isMapped(), is(false));
+            assertThat(asString(unmapped.getBuffer(0, 4)), is("test"));
+            assertThat(asString(unmapped.getBuffer(5, 4)), is("data"));
+        }
+    }
+
+    @Test
+    public void shouldNotAffectOtherRangesWhenReadingBuffer() throws Exception {
+        ByteBuffer first = mappedFileSource.getBuffer(0, 4);
+        ByteBuffer second = mappedFileSource.getBuffer(5, 4);
+
+        assertThat(asString(first), is("test"));
+        assertThat(asString(second), is("data"));
+    }
+
+    @Test
+    public void shouldProvideLocation() {
+        assertThat(mappedFileSource.getLocation(), is(path));
+    }
+
+    private static String asString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes);
+    }
+}
@@ -0,0 +1,118 @@
+package io.github.djhworld.log;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Strings;
+import io.github.djhworld.model.RowBatch;
+import io.github.djhworld.model.RowMutation;
+import org.apache.commons.io.FileUtils;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Stopwatch.createStarted;
+import static com.google.common.collect.Lists.newArrayList;
+import static io.github.djhworld.model.RowMutation.newAddMutation;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Time taken to open a 1 GB commit log shared by several tablets and replay every
+ * tablet into a sorted map, one record at a time and in parallel on a growing number
+ * of threads
+ */
+@Ignore
+public class CommitLogRecoveryThroughputTest {
+    private static final long LOG_BYTES = 1024L * 1024 * 1024;
+    private static final int TABLETS = 8;
+    private static final int BATCH_MUTATIONS = 100;
+    private static final int VALUE_BYTES = 100;
+    private static final int[] THREADS = {1, 2, 4, 8, 16};
+
+    @Test
+    public void testRecoveryTimeByThreadCount() throws Exception {
+        File directory = Files.createTempDirectory("commit" + System.currentTimeMillis()).toFile();
+        try {
+            writeLog(directory);
+            double megabytes = FileUtils.sizeOfDirectory(directory) / (1024.0 * 1024.0);
+
+            Stopwatch stopwatch = createStarted();
+            CommitLog commitLog = new CommitLog(directory.toPath());
+            long openElapsed = stopwatch.stop().elapsed(MILLISECONDS);
+
+            System.out.println("Recovery of " + (long) megabytes + "MB log, split by tablet in " + openElapsed + "ms");
+            System.out.println(Strings.repeat("-", 100));
+            System.out.println("threads\tms\tMB/sec");
+
+            long sequentialElapsed = replaySequentially(commitLog);
+            System.out.println("iterator\t" + sequentialElapsed + "\t" + (long) (megabytes * 1000 / Math.max(1, sequentialElapsed)));
+            for (int threads : THREADS) {
+                long elapsed = replayInParallel(commitLog, threads);
+                System.out.println(threads + "\t" + elapsed + "\t" + (long) (megabytes * 1000 / Math.max(1, elapsed)));
+            }
+            commitLog.close();
+        } finally {
+            FileUtils.deleteQuietly(directory);
+        }
+    }
+
+    private void writeLog(File directory) throws Exception {
+        CommitLog commitLog = new CommitLog(directory.toPath());
+        String value = Strings.repeat("v", VALUE_BYTES);
+        long batchBytes = (long) BATCH_MUTATIONS * (VALUE_BYTES + 64);
+        long batchesPerTablet = LOG_BYTES / batchBytes / TABLETS;
+
+        ExecutorService executorService = Executors.newFixedThreadPool(TABLETS);
+        try {
+            List<Future<?>> futures = newArrayList();
+            for (int tablet = 0; tablet < TABLETS; tablet++) {
+                String tabletId = Integer.toString(tablet);
+                futures.add(executorService.submit(() -> {
+                    for (long batch = 0; batch < batchesPerTablet; batch++) {
+                        String rowKey = "com.amazon.data.repository" + String.format("%08d", batch % 100_000);
+                        List<RowMutation> rowMutations = newArrayList();
+                        for (int i = 0; i < BATCH_MUTATIONS; i++)
+                            rowMutations.add(newAddMutation(rowKey, "column" + i, value, batch));
+                        commitLog.commit(tabletId, RowBatch.newRowBatch(rowMutations));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executorService.shutdown();
+            commitLog.close();
+        }
+    }
+
+    private long replaySequentially(CommitLog commitLog) {
+        Stopwatch stopwatch = createStarted();
+        for (int tablet = 0; tablet < TABLETS; tablet++) {
+            ConcurrentSkipListMap<String, String> memTable = new ConcurrentSkipListMap<>();
+            for (RowMutation rowMutation : commitLog.forTablet(Integer.toString(tablet)))
+                memTable.put(rowMutation.rowKey + rowMutation.columnKey, rowMutation.value);
+        }
+        return stopwatch.stop().elapsed(MILLISECONDS);
+    }
+
+    private long replayInParallel(CommitLog commitLog, int threads) throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            Stopwatch stopwatch = createStarted();
+            for (int tablet = 0; tablet < TABLETS; tablet++) {
+                ConcurrentSkipListMap<String, String> memTable = new ConcurrentSkipListMap<>();
+                commitLog.forTablet(Integer.toString(tablet)).replay(executorService, threads,
+                        rowMutation -> memTable.put(rowMutation.rowKey + rowMutation.columnKey, rowMutation.value));
+            }
+            return stopwatch.stop().elapsed(MILLISECONDS);
+        } finally {
+            executorService.shutdown();
+        }
+    }
+}
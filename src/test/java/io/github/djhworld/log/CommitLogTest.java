@@ -1,15 +1,30 @@
 package io.github.djhworld.log;
 
+import com.google.common.collect.ImmutableMap;
+import io.github.djhworld.model.RowBatch;
 import io.github.djhworld.model.RowMutation;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import static com.google.common.collect.Lists.newArrayList;
@@ -20,6 +35,7 @@ import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 
 public class CommitLogTest {
+    private static final String TABLET = "tablet";
     public File TEMP_FILE;
 
     @Before
@@ -28,6 +44,11 @@ public class CommitLogTest {
         TEMP_FILE.deleteOnExit();
     }
 
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(TEMP_FILE);
+    }
+
     @Test
     public void shouldReadFromCommitLog() throws Exception {
         List<RowMutation> expected = newArrayList(
@@ -49,7 +70,7 @@ public class CommitLogTest {
         CommitLog commitLog = new CommitLog(TEMP_FILE.toPath());
 
         for (RowMutation mutation : expected) {
-            commitLog.commit(mutation);
+            commitLog.commit(TABLET, mutation);
         }
 
         int index = 0;
@@ -59,6 +80,241 @@ public class CommitLogTest {
         }
     }
 
+    @Test
+    public void shouldReadRowBatchBackAsItsMutations() throws Exception {
+        List<RowMutation> batch = newArrayList(
+                newAddMutation("row2", "col1", "value1"),
+                newDeleteMutation("row2", "col2"),
+                newAddMutation("row2", "col3", "value3")
+        );
+        List<RowMutation> expected = newArrayList(newAddMutation("row1", "col1", "value"));
+        expected.addAll(batch);
+        expected.add(newAddMutation("row3", "col1", "value"));
+
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath());
+        commitLog.commit(TABLET, expected.get(0));
+        commitLog.commit(TABLET, RowBatch.newRowBatch(batch));
+        commitLog.commit(TABLET, expected.get(4));
+
+        List<RowMutation> committed = newArrayList(commitLog);
+        assertThat(committed.size(), is(expected.size()));
+        for (int i = 0; i < expected.size(); i++)
+            assertThat(committed.get(i), is(rowMutationMatcher(expected.get(i))));
+        assertThat(committed.get(3).timestamp, is(batch.get(2).timestamp));
+    }
+
+    @Test
+    public void shouldWriteEveryRecordCommittedConcurrently() throws Exception {
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath(), 16, 1, TimeUnit.MILLISECONDS);
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = newArrayList();
+        for (int thread = 0; thread < 8; thread++) {
+            String rowKey = "row" + thread;
+            futures.add(executorService.submit(() -> {
+                for (int i = 0; i < 100; i++)
+                    commitLog.commit(TABLET, newAddMutation(rowKey, "col" + i, "value"));
+                return null;
+            }));
+        }
+        for (Future<?> future : futures)
+            future.get();
+        executorService.shutdown();
+
+        Map<String, List<String>> columnsByRow = new HashMap<>();
+        commitLog.forEach(rm -> columnsByRow.computeIfAbsent(rm.rowKey, row -> newArrayList()).add(rm.columnKey));
+        assertThat(columnsByRow.size(), is(8));
+        for (List<String> columns : columnsByRow.values()) {
+            assertThat(columns.size(), is(100));
+            for (int i = 0; i < 100; i++)
+                assertThat(columns.get(i), is("col" + i));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectCommitsOnceClosed() throws Exception {
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath());
+        commitLog.commit(TABLET, newAddMutation("row1", "col1", "value"));
+        commitLog.close();
+        commitLog.commit(TABLET, newAddMutation("row2", "col2", "value"));
+    }
+
+    @Test
+    public void shouldReadBackValuesHoldingSeparators() throws Exception {
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath());
+        commitLog.commit(TABLET, newAddMutation("row|||1", "col\n1", "line one\nline two|||\u00e9", 42));
+
+        RowMutation committed = newArrayList(commitLog).get(0);
+        assertThat(committed.rowKey, is("row|||1"));
+        assertThat(committed.columnKey, is("col\n1"));
+        assertThat(committed.value, is("line one\nline two|||\u00e9"));
+        assertThat(committed.timestamp, is(42L));
+    }
+
+    @Test
+    public void shouldStopAtTornRecordAndAppendToNewSegment() throws Exception {
+        RowMutation first = newAddMutation("row1", "col1", "value");
+        RowMutation second = newAddMutation("row2", "col2", "value");
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath());
+        commitLog.commit(TABLET, first);
+        commitLog.commit(TABLET, second);
+        commitLog.close();
+
+        try (RandomAccessFile file = new RandomAccessFile(segment(commitLog, 0), "rw")) {
+            file.setLength(LogRecords.HEADER_BYTES + encodedLength(first) + encodedLength(second) - 3);
+        }
+
+        commitLog = new CommitLog(TEMP_FILE.toPath());
+        List<String> rows = newArrayList();
+        commitLog.forEach(rm -> rows.add(rm.rowKey));
+        assertThat(rows, is(newArrayList("row1")));
+
+        commitLog.commit(TABLET, newAddMutation("row3", "col3", "value"));
+        rows.clear();
+        commitLog.forEach(rm -> rows.add(rm.rowKey));
+        assertThat(rows, is(newArrayList("row1", "row3")));
+    }
+
+    @Test
+    public void shouldStopAtRecordFailingChecksum() throws Exception {
+        RowMutation first = newAddMutation("row1", "col1", "value");
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath());
+        commitLog.commit(TABLET, first);
+        commitLog.commit(TABLET, newAddMutation("row2", "col2", "value"));
+        commitLog.commit(TABLET, newAddMutation("row3", "col3", "value"));
+        commitLog.close();
+
+        try (RandomAccessFile file = new RandomAccessFile(segment(commitLog, 0), "rw")) {
+            file.seek(LogRecords.HEADER_BYTES + encodedLength(first) + 20);
+            file.write('X');
+        }
+
+        List<String> rows = newArrayList();
+        new CommitLog(TEMP_FILE.toPath()).forEach(rm -> rows.add(rm.rowKey));
+        assertThat(rows, is(newArrayList("row1")));
+    }
+
+    @Test
+    public void shouldRewriteTextCommitLogAsBinary() throws Exception {
+        try (FileOutputStream outputStream = new FileOutputStream(TEMP_FILE)) {
+            outputStream.write(newAddMutation("row1", "col1", "value1", 1).serialise());
+            outputStream.write('\n');
+            outputStream.write(newAddMutation("row2", "col1", "value2", 2).serialise());
+            outputStream.write('\n');
+            outputStream.write(newDeleteMutation("row1", "col1").serialise());
+            outputStream.write('\n');
+        }
+
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath());
+        commitLog.commit(TABLET, newAddMutation("row3", "col1", "value4", 4));
+        List<String> values = newArrayList();
+        commitLog.forEach(rm -> values.add(rm.value));
+        assertThat(values, is(newArrayList("value1", "value2", RowMutation.TOMBSTONE, "value4")));
+    }
+
+    @Test
+    public void shouldStartNewSegmentOnceFull() throws Exception {
+        RowMutation rowMutation = newAddMutation("row1", "col1", "value");
+        long segmentBytes = LogRecords.HEADER_BYTES + 2 * encodedLength(rowMutation);
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath(), segmentBytes, 1, 0, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 5; i++)
+            commitLog.commit(TABLET, rowMutation);
+
+        assertThat(commitLog.segmentSequences(), is(newArrayList(1L, 2L, 3L)));
+        assertThat(segment(commitLog, 0).length(), is(segmentBytes));
+        assertThat(newArrayList(commitLog).size(), is(5));
+    }
+
+    @Test
+    public void shouldGrowEmptySegmentToHoldLargerGroup() throws Exception {
+        RowMutation rowMutation = newAddMutation("row1", "col1", "value");
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath(), LogRecords.HEADER_BYTES + 1, 1, 0, TimeUnit.MILLISECONDS);
+        commitLog.commit(TABLET, rowMutation);
+        commitLog.commit(TABLET, rowMutation);
+        commitLog.close();
+
+        assertThat(segment(commitLog, 0).length(), is((long) LogRecords.HEADER_BYTES + encodedLength(rowMutation)));
+        assertThat(newArrayList(new CommitLog(TEMP_FILE.toPath())).size(), is(2));
+    }
+
+    @Test
+    public void shouldReleaseMappingsOfRetiredSegments() throws Exception {
+        long mappedBefore = mappedBufferCount();
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath(), 1024 * 1024, 1, 0, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 50; i++) {
+            commitLog.commit(TABLET, newAddMutation("row" + i, "col1", "value"));
+            commitLog.checkpoint(TABLET, commitLog.mark());
+        }
+
+        assertThat(commitLog.segmentSequences().size(), is(1));
+        assertThat(mappedBufferCount() <= mappedBefore + 1, is(true));
+        commitLog.close();
+        assertThat(mappedBufferCount() <= mappedBefore, is(true));
+    }
+
+    @Test
+    public void shouldOnlyDeleteSegmentsBeforeMark() throws Exception {
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath());
+        commitLog.commit(TABLET, newAddMutation("row1", "col1", "value"));
+        long mark = commitLog.mark();
+        assertThat(commitLog.mark(), is(mark));
+        commitLog.commit(TABLET, newAddMutation("row2", "col2", "value"));
+
+        File retired = segment(commitLog, 0);
+        commitLog.checkpoint(TABLET, mark);
+        assertThat(retired.exists(), is(false));
+        assertThat(commitLog.segmentSequences(), is(newArrayList(mark)));
+
+        commitLog.commit(TABLET, newAddMutation("row3", "col3", "value"));
+        List<String> rows = newArrayList();
+        commitLog.forEach(rm -> rows.add(rm.rowKey));
+        assertThat(rows, is(newArrayList("row2", "row3")));
+    }
+
+    @Test
+    public void shouldCheckpointWhileIteratorIsLeftUnfinished() throws Exception {
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath());
+        commitLog.commit(TABLET, newAddMutation("row1", "col1", "value"));
+        commitLog.mark();
+        commitLog.commit(TABLET, newAddMutation("row2", "col2", "value"));
+        long mark = commitLog.mark();
+        commitLog.commit(TABLET, newAddMutation("row3", "col3", "value"));
+
+        Iterator<RowMutation> iterator = commitLog.iterator();
+        assertThat(iterator.next().rowKey, is("row1"));
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            executorService.submit(() -> {
+                commitLog.checkpoint(TABLET, mark);
+                return null;
+            }).get(5, TimeUnit.SECONDS);
+        } finally {
+            executorService.shutdown();
+        }
+        assertThat(commitLog.segmentSequences(), is(newArrayList(mark)));
+
+        List<String> rows = newArrayList();
+        iterator.forEachRemaining(rm -> rows.add(rm.rowKey));
+        assertThat(rows, is(newArrayList("row3")));
+        commitLog.close();
+    }
+
+    @Test
+    public void shouldAdoptBinarySingleFileLogAsFirstSegment() throws Exception {
+        try (FileOutputStream outputStream = new FileOutputStream(TEMP_FILE)) {
+            outputStream.write(LogRecords.header());
+            outputStream.write(LogRecords.encode(LogRecords.UNTAGGED, 0, newArrayList(newAddMutation("row1", "col1", "value1"))));
+        }
+
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath());
+        commitLog.commit(TABLET, newAddMutation("row2", "col1", "value2"));
+        assertThat(commitLog.segmentSequences(), is(newArrayList(0L, 1L)));
+
+        List<String> rows = newArrayList();
+        commitLog.forEach(rm -> rows.add(rm.rowKey));
+        assertThat(rows, is(newArrayList("row1", "row2")));
+    }
+
     @Test
     public void shouldCheckpointCommitLog() throws Exception {
         List<RowMutation> firstTranch = newArrayList(
@@ -77,13 +333,13 @@ public class CommitLogTest {
         CommitLog commitLog = new CommitLog(TEMP_FILE.toPath());
 
         for (RowMutation mutation : firstTranch) {
-            commitLog.commit(mutation);
+            commitLog.commit(TABLET, mutation);
         }
 
         commitLog.checkpoint();
 
         for (RowMutation mutation : secondTranch) {
-            commitLog.commit(mutation);
+            commitLog.commit(TABLET, mutation);
         }
 
         int index = 0;
@@ -94,9 +350,246 @@ public class CommitLogTest {
     }
 
 
+    @Test
+    public void shouldOnlyDropMutationsCommittedBeforeMark() throws Exception {
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath());
+        commitLog.commit(TABLET, newAddMutation("row1", "col1", "value"));
+        long mark = commitLog.mark();
+        commitLog.commit(TABLET, newAddMutation("row2", "col2", "value"));
+        long secondMark = commitLog.mark();
+        commitLog.commit(TABLET, newAddMutation("row3", "col3", "value"));
+
+        commitLog.checkpoint(TABLET, mark);
+        commitLog.checkpoint(TABLET, mark);
+        List<String> rows = newArrayList();
+        commitLog.forEach(rm -> rows.add(rm.rowKey));
+        assertThat(rows, is(newArrayList("row2", "row3")));
+
+        commitLog.commit(TABLET, newAddMutation("row4", "col4", "value"));
+        commitLog.checkpoint(TABLET, secondMark);
+        rows.clear();
+        commitLog.forEach(rm -> rows.add(rm.rowKey));
+        assertThat(rows, is(newArrayList("row3", "row4")));
+    }
+
+
+    @Test
+    public void shouldKeepSegmentUntilEveryTabletWithRecordsInItHasFlushed() throws Exception {
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath());
+        commitLog.commit("a", newAddMutation("row1", "col1", "value"));
+        commitLog.commit("b", newAddMutation("row2", "col2", "value"));
+        long mark = commitLog.mark();
+        commitLog.commit("c", newAddMutation("row3", "col3", "value"));
+
+        File shared = segment(commitLog, 0);
+        commitLog.checkpoint("a", mark);
+        assertThat(shared.exists(), is(true));
+
+        commitLog.checkpoint("b", mark);
+        assertThat(shared.exists(), is(false));
+        assertThat(commitLog.segmentSequences(), is(newArrayList(mark)));
+    }
+
+    @Test
+    public void shouldReplayOnlyRecordsOfEachTablet() throws Exception {
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath());
+        commitLog.commit("a", newAddMutation("row1", "col1", "value1"));
+        commitLog.commit("b", newAddMutation("row2", "col1", "value2"));
+        commitLog.mark();
+        commitLog.commit("a", RowBatch.newRowBatch(newArrayList(
+                newAddMutation("row3", "col1", "value3"),
+                newDeleteMutation("row3", "col2")
+        )));
+        commitLog.close();
+
+        commitLog = new CommitLog(TEMP_FILE.toPath());
+        List<String> values = newArrayList();
+        commitLog.forTablet("a").forEach(rm -> values.add(rm.value));
+        assertThat(values, is(newArrayList("value1", "value3", RowMutation.TOMBSTONE)));
+        values.clear();
+        commitLog.forTablet("b").forEach(rm -> values.add(rm.value));
+        assertThat(values, is(newArrayList("value2")));
+        assertThat(commitLog.forTablet("c").exists(), is(false));
+
+        TabletCommitLog tabletCommitLog = commitLog.forTablet("a");
+        tabletCommitLog.checkpoint(tabletCommitLog.mark());
+        assertThat(tabletCommitLog.exists(), is(false));
+        assertThat(commitLog.forTablet("b").exists(), is(true));
+    }
+
+    @Test
+    public void shouldOnlyRecoverRecordsNotFlushedBeforeReopening() throws Exception {
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath());
+        commitLog.commit("a", newAddMutation("row1", "col1", "value1"));
+        long mark = commitLog.mark();
+        commitLog.commit("a", newAddMutation("row2", "col1", "value2"));
+        commitLog.commit("b", newAddMutation("row3", "col1", "value3"));
+        long secondMark = commitLog.mark();
+        commitLog.commit("b", newAddMutation("row4", "col1", "value4"));
+        commitLog.checkpoint("a", secondMark);
+        commitLog.checkpoint("b", mark);
+        commitLog.close();
+
+        commitLog = new CommitLog(TEMP_FILE.toPath());
+        assertThat(commitLog.forTablet("a").exists(), is(false));
+        List<String> rows = newArrayList();
+        commitLog.forTablet("b").forEach(rm -> rows.add(rm.rowKey));
+        assertThat(rows, is(newArrayList("row3", "row4")));
+
+        commitLog.checkpoint("b", secondMark);
+        assertThat(commitLog.segmentSequences().get(0), is(secondMark));
+        commitLog.close();
+
+        commitLog = new CommitLog(TEMP_FILE.toPath());
+        commitLog.commit("a", newAddMutation("row5", "col1", "value5"));
+        commitLog.close();
+
+        commitLog = new CommitLog(TEMP_FILE.toPath());
+        rows.clear();
+        commitLog.forTablet("a").forEach(rm -> rows.add(rm.rowKey));
+        assertThat(rows, is(newArrayList("row5")));
+    }
+
+    @Test
+    public void shouldKeepAdoptedSegmentUntilWholeLogIsCheckpointed() throws Exception {
+        try (FileOutputStream outputStream = new FileOutputStream(TEMP_FILE)) {
+            outputStream.write(LogRecords.header());
+            outputStream.write(LogRecords.encode(LogRecords.UNTAGGED, 0, newArrayList(newAddMutation("row1", "col1", "value1"))));
+        }
+
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath());
+        commitLog.commit(TABLET, newAddMutation("row2", "col1", "value2"));
+        commitLog.checkpoint(TABLET, commitLog.mark());
+        assertThat(commitLog.segmentSequences().get(0), is(0L));
+
+        commitLog.checkpoint();
+        assertThat(commitLog.segmentSequences().contains(0L), is(false));
+    }
+
+    @Test
+    public void shouldReplayAdoptedSingleFileLogForTabletItBelongsTo() throws Exception {
+        try (FileOutputStream outputStream = new FileOutputStream(TEMP_FILE)) {
+            outputStream.write(LogRecords.header());
+            outputStream.write(LogRecords.encode(LogRecords.UNTAGGED, 0, newArrayList(newAddMutation("row1", "col1", "value1"))));
+        }
+
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath(), ImmutableMap.of(TABLET, TEMP_FILE.toPath()));
+        List<String> rows = newArrayList();
+        commitLog.forTablet(TABLET).replay(Runnable::run, 1, rm -> rows.add(rm.rowKey));
+        assertThat(rows, is(newArrayList("row1")));
+
+        TabletCommitLog tabletCommitLog = commitLog.forTablet(TABLET);
+        tabletCommitLog.checkpoint(tabletCommitLog.mark());
+        assertThat(commitLog.segmentSequences().contains(0L), is(false));
+    }
+
+    @Test
+    public void shouldAdoptLegacyLogOfEachTablet() throws Exception {
+        File legacyA = File.createTempFile("commita", ".log");
+        File legacyB = File.createTempFile("commitb", ".log");
+        try {
+            try (FileOutputStream outputStream = new FileOutputStream(legacyA)) {
+                outputStream.write(newAddMutation("row1", "col1", "value1", 1).serialise());
+                outputStream.write('\n');
+            }
+            try (FileOutputStream outputStream = new FileOutputStream(legacyB)) {
+                outputStream.write(LogRecords.header());
+                outputStream.write(LogRecords.encode(LogRecords.UNTAGGED, 0, newArrayList(newAddMutation("row2", "col1", "value2"))));
+            }
+            FileUtils.deleteQuietly(TEMP_FILE);
+
+            Map<String, Path> legacyLogs = ImmutableMap.of("a", legacyA.toPath(), "b", legacyB.toPath());
+            CommitLog commitLog = new CommitLog(TEMP_FILE.toPath(), legacyLogs);
+            assertThat(legacyA.exists() || legacyB.exists(), is(false));
+            commitLog.commit("a", newAddMutation("row3", "col1", "value3"));
+            commitLog.close();
+
+            commitLog = new CommitLog(TEMP_FILE.toPath(), legacyLogs);
+            List<String> rows = newArrayList();
+            commitLog.forTablet("a").forEach(rm -> rows.add(rm.rowKey));
+            assertThat(rows, is(newArrayList("row1", "row3")));
+            rows.clear();
+            commitLog.forTablet("b").forEach(rm -> rows.add(rm.rowKey));
+            assertThat(rows, is(newArrayList("row2")));
+        } finally {
+            FileUtils.deleteQuietly(legacyA);
+            FileUtils.deleteQuietly(legacyB);
+            FileUtils.deleteQuietly(TEMP_FILE);
+        }
+    }
+
+    @Test
+    public void shouldReplayEachRowInCommitOrderOnManyThreads() throws Exception {
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath(), 64, 0, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 5000; i++)
+            commitLog.commit(TABLET, newAddMutation("row" + (i % 16), "col", "value" + i));
+        commitLog.close();
+
+        commitLog = new CommitLog(TEMP_FILE.toPath());
+        Map<String, List<String>> valuesByRow = new ConcurrentHashMap<>();
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            commitLog.forTablet(TABLET).replay(executorService, 4, rm ->
+                    valuesByRow.computeIfAbsent(rm.rowKey, row -> newArrayList()).add(rm.value));
+        } finally {
+            executorService.shutdown();
+        }
+
+        assertThat(valuesByRow.size(), is(16));
+        for (int row = 0; row < 16; row++) {
+            List<String> values = valuesByRow.get("row" + row);
+            assertThat(values.size(), is(5000 / 16 + (row < 5000 % 16 ? 1 : 0)));
+            for (int i = 0; i < values.size(); i++)
+                assertThat(values.get(i), is("value" + (i * 16 + row)));
+        }
+    }
+
+    @Test
+    public void shouldReadBackCommitsOfEveryDurability() throws Exception {
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath(), CommitLog.DEFAULT_SEGMENT_BYTES, 16, 0, 5, TimeUnit.MILLISECONDS);
+        commitLog.commit(TABLET, newAddMutation("row1", "col1", "value"), Durability.ASYNC);
+        commitLog.commit(TABLET, newAddMutation("row2", "col2", "value"), Durability.PERIODIC);
+        commitLog.forTablet(TABLET, Durability.SYNC).commit(newAddMutation("row3", "col3", "value"));
+        commitLog.commit(TABLET, newAddMutation("row4", "col4", "value"), Durability.PERIODIC);
+        commitLog.close();
+
+        for (Durability durability : Durability.values())
+            assertThat(commitLog.commitLatency(durability).getCount(), is(durability == Durability.PERIODIC ? 2L : 1L));
+
+        List<String> rows = newArrayList();
+        new CommitLog(TEMP_FILE.toPath()).forEach(rm -> rows.add(rm.rowKey));
+        assertThat(rows, is(newArrayList("row1", "row2", "row3", "row4")));
+    }
+
+    @Test
+    public void shouldCompleteAsyncCommitOnceWritten() throws Exception {
+        CommitLog commitLog = new CommitLog(TEMP_FILE.toPath());
+        CompletableFuture<Void> durable = commitLog.forTablet(TABLET).commitAsync(newAddMutation("row1", "col1", "value"));
+        durable.get(5, TimeUnit.SECONDS);
+        assertThat(newArrayList(commitLog).size(), is(1));
+
+        commitLog.close();
+        assertThat(commitLog.commitAsync(TABLET, newAddMutation("row2", "col2", "value"), Durability.SYNC).isCompletedExceptionally(), is(true));
+    }
+
     @Test
     public void shouldPropagateErrorIfCheckpointFails() throws Exception {
         Assert.fail("TODO");
     }
 
-}
\ No newline at end of file
+    private static long mappedBufferCount() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("mapped"))
+                return pool.getCount();
+        }
+        throw new IllegalStateException("No mapped buffer pool");
+    }
+
+    private File segment(CommitLog commitLog, int index) {
+        return TEMP_FILE.toPath().resolve(Segment.nameOf(commitLog.segmentSequences().get(index))).toFile();
+    }
+
+    private static int encodedLength(RowMutation rowMutation) {
+        return LogRecords.encode(TABLET, 1, newArrayList(rowMutation)).length;
+    }
+}
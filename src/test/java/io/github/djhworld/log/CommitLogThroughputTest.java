@@ -0,0 +1,106 @@
+package io.github.djhworld.log;
+
+import com.codahale.metrics.Snapshot;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Strings;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Stopwatch.createStarted;
+import static com.google.common.collect.Lists.newArrayList;
+import static io.github.djhworld.model.RowMutation.newAddMutation;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Commits per second as the number of writer threads grows, with and without a group
+ * delay, and the latency of each durability
+ */
+@Ignore
+public class CommitLogThroughputTest {
+    private static final int COMMITS_PER_THREAD = 2_000;
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+    private static final long[] GROUP_DELAYS_MICROS = {0, 200};
+
+    @Test
+    public void testThroughputByThreadCount() throws Exception {
+        for (long groupDelay : GROUP_DELAYS_MICROS) {
+            System.out.println("Group delay " + groupDelay + "us Test");
+            System.out.println(Strings.repeat("-", 100));
+            System.out.println("threads\tms\tcommits/sec");
+            for (int threads : THREADS) {
+                File file = File.createTempFile("commit" + System.currentTimeMillis(), ".log");
+                file.deleteOnExit();
+                CommitLog commitLog = new CommitLog(file.toPath(), CommitLog.DEFAULT_MAX_GROUP_RECORDS, groupDelay, MICROSECONDS);
+                try {
+                    long elapsed = run(commitLog, threads);
+                    long commits = (long) COMMITS_PER_THREAD * threads;
+                    System.out.println(threads + "\t" + elapsed + "\t" + (commits * 1000L / Math.max(1, elapsed)));
+                } finally {
+                    commitLog.close();
+                }
+            }
+            System.out.println("\n");
+        }
+    }
+
+    @Test
+    public void testLatencyByDurability() throws Exception {
+        System.out.println("Durability Test");
+        System.out.println(Strings.repeat("-", 100));
+        System.out.println("durability\tthreads\tms\tcommits/sec\tp50 us\tp99 us");
+        for (Durability durability : Durability.values()) {
+            for (int threads : THREADS) {
+                File file = File.createTempFile("commit" + System.currentTimeMillis(), ".log");
+                file.deleteOnExit();
+                CommitLog commitLog = new CommitLog(file.toPath());
+                try {
+                    long elapsed = run(commitLog, threads, durability);
+                    long commits = (long) COMMITS_PER_THREAD * threads;
+                    Snapshot latencies = commitLog.commitLatency(durability).getSnapshot();
+                    System.out.println(durability + "\t" + threads + "\t" + elapsed + "\t" + (commits * 1000L / Math.max(1, elapsed))
+                            + "\t" + (long) latencies.getMedian() + "\t" + (long) latencies.get99thPercentile());
+                } finally {
+                    commitLog.close();
+                }
+            }
+        }
+    }
+
+    private long run(CommitLog commitLog, int threads) throws Exception {
+        return run(commitLog, threads, Durability.SYNC);
+    }
+
+    private long run(CommitLog commitLog, int threads, Durability durability) throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = newArrayList();
+            for (int thread = 0; thread < threads; thread++) {
+                String tabletId = Integer.toString(thread);
+                String rowKey = "com.amazon.data.repository" + String.format("%08d", thread);
+                futures.add(executorService.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < COMMITS_PER_THREAD; i++)
+                        commitLog.commit(tabletId, newAddMutation(rowKey, "key", "value" + i, i), durability);
+                    return null;
+                }));
+            }
+
+            Stopwatch stopwatch = createStarted();
+            start.countDown();
+            for (Future<?> future : futures)
+                future.get();
+            return stopwatch.stop().elapsed(MILLISECONDS);
+        } finally {
+            executorService.shutdown();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package io.github.djhworld.sstable;
 
+import io.github.djhworld.io.CompressionType;
 import io.github.djhworld.io.FileSink;
 import io.github.djhworld.model.RowMutation;
 
@@ -10,6 +11,7 @@ import java.util.List;
 import static com.google.common.collect.Lists.newArrayList;
 import static io.github.djhworld.io.CompressionType.*;
 import static io.github.djhworld.model.RowMutation.newAddMutation;
+import static java.util.Comparator.comparing;
 
 public class AbstractSSTableTest {
     static List<RowMutation> MUTATIONS;
@@ -35,9 +37,15 @@ public class AbstractSSTableTest {
     }
 
     static void writeSSTable() throws IOException {
-        FileSink sink = new FileSink(TEMP_FILE.toPath());
-        try (SSTableWriter ssTableWriter = new SSTableWriter(sink, SNAPPY)) {
-            for (RowMutation mutation : MUTATIONS) {
+        writeSSTable(TEMP_FILE, SNAPPY);
+    }
+
+    static void writeSSTable(File file, CompressionType compressionType) throws IOException {
+        FileSink sink = new FileSink(file.toPath());
+        List<RowMutation> inKeyOrder = newArrayList(MUTATIONS);
+        inKeyOrder.sort(comparing((RowMutation rm) -> rm.rowKey).thenComparing(rm -> rm.columnKey));
+        try (SSTableWriter ssTableWriter = new SSTableWriter(sink, compressionType)) {
+            for (RowMutation mutation : inKeyOrder) {
                 ssTableWriter.write(mutation.rowKey, mutation.columnKey, mutation.value, mutation.timestamp);
             }
         }
@@ -0,0 +1,89 @@
+package io.github.djhworld.sstable;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class BlockCacheTest {
+    private AtomicInteger loads;
+
+    @Before
+    public void setUp() throws Exception {
+        loads = new AtomicInteger(0);
+    }
+
+    @Test
+    public void shouldOnlyLoadBlockOnce() throws Exception {
+        BlockCache blockCache = new BlockCache();
+
+        assertThat(blockCache.get(1, 0, this::loadBlock).read(0), is("value0"));
+        assertThat(blockCache.get(1, 0, this::loadBlock).read(0), is("value0"));
+
+        assertThat(loads.get(), is(1));
+        assertThat(blockCache.stats().hitCount(), is(1L));
+        assertThat(blockCache.stats().missCount(), is(1L));
+    }
+
+    @Test
+    public void shouldKeepBlocksForDifferentSSTablesApart() throws Exception {
+        BlockCache blockCache = new BlockCache();
+
+        blockCache.get(1, 0, this::loadBlock);
+        blockCache.get(2, 0, this::loadBlock);
+        blockCache.get(2, 1, this::loadBlock);
+
+        assertThat(loads.get(), is(3));
+        assertThat(blockCache.cachedBlocks(1), is(1L));
+        assertThat(blockCache.cachedBlocks(2), is(2L));
+    }
+
+    @Test
+    public void shouldEvictBlocksOnceCapacityIsReached() throws Exception {
+        int blockSizeInBytes = loadBlock(0).sizeInBytes();
+        BlockCache blockCache = new BlockCache(blockSizeInBytes * 4);
+
+        for (int blockId = 0; blockId < 100; blockId++) {
+            blockCache.get(1, blockId, this::loadBlock);
+        }
+
+        assertThat(blockCache.cachedBlocks(1) <= 4, is(true));
+        assertThat(blockCache.sizeInBytes() <= blockCache.capacityInBytes(), is(true));
+        assertThat(blockCache.stats().evictionCount() >= 96, is(true));
+    }
+
+    @Test
+    public void shouldInvalidateAllBlocksForSSTable() throws Exception {
+        BlockCache blockCache = new BlockCache();
+
+        blockCache.get(1, 0, this::loadBlock);
+        blockCache.get(1, 1, this::loadBlock);
+        blockCache.get(2, 0, this::loadBlock);
+        blockCache.invalidateAll(1);
+
+        assertThat(blockCache.cachedBlocks(1), is(0L));
+        assertThat(blockCache.cachedBlocks(2), is(1L));
+        assertThat(blockCache.sizeInBytes(), is((long) loadBlock(0).sizeInBytes()));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldPropagateErrorIfBlockCannotBeLoaded() throws Exception {
+        new BlockCache().get(1, 0, blockId -> {
+            throw new IOException("simulated");
+        });
+    }
+
+    private Block loadBlock(int blockId) throws IOException {
+        loads.incrementAndGet();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        WriteableBlock writeableBlock = new WriteableBlock(64);
+        writeableBlock.put("value" + blockId);
+        writeableBlock.flushTo(baos);
+        return new ReadOnlyBlock(baos.toByteArray());
+    }
+}
@@ -13,12 +13,16 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.IntStream;
 
 import static com.google.common.base.Stopwatch.createStarted;
 import static io.github.djhworld.io.CompressionType.*;
 import static java.lang.System.currentTimeMillis;
 import static java.nio.file.Files.deleteIfExists;
+import static java.util.Comparator.comparing;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.toList;
 
 public class CompressionComparisonTest {
     private static final int RECORDS = 10_000_000;
@@ -79,17 +83,27 @@ public class CompressionComparisonTest {
     private void write(Sink sink, CompressionType compressionType) throws IOException {
         Stopwatch stopwatch = createStarted();
         try (SSTableWriter writer = new SSTableWriter(sink, compressionType)) {
-            for (int i = 0; i < RECORDS; i++) {
+            for (int i = 0; i < RECORDS; i++)
                 writer.write("com.amazon.data.repository", "key", "value" + i, currentTimeMillis());
-                if (i % 1000 == 0)
-                    writer.write("com.amazon.data.repository", "key" + i, "value" + i, currentTimeMillis());
-                if (i % 5000 == 0)
-                    writer.write("com.amazon.data.repository" + i, "key", "value" + i, currentTimeMillis());
-            }
+            for (int i : everyNthInKeyOrder(1000))
+                writer.write("com.amazon.data.repository", "key" + i, "value" + i, currentTimeMillis());
+            for (int i : everyNthInKeyOrder(5000))
+                writer.write("com.amazon.data.repository" + i, "key", "value" + i, currentTimeMillis());
         }
         results.put(compressionType.toString(), "write", stopwatch.stop().elapsed(MILLISECONDS));
     }
 
+    /**
+     * Records written to a cell of their own, ordered by the key they are written under
+     */
+    private static List<Integer> everyNthInKeyOrder(int n) {
+        return IntStream.range(0, RECORDS / n)
+                .map(i -> i * n)
+                .boxed()
+                .sorted(comparing(String::valueOf))
+                .collect(toList());
+    }
+
     private SSTable open(Source source, CompressionType compressionType) throws IOException {
         Stopwatch stopwatch = createStarted();
         SSTable ssTable = new SSTable(source);
@@ -3,6 +3,7 @@ package io.github.djhworld.sstable;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
@@ -88,4 +89,59 @@ public class ReadOnlyBlockTest {
         ReadOnlyBlock readOnlyBlock = new ReadOnlyBlock(baos.toByteArray());
         readOnlyBlock.read(1);
     }
+
+    @Test
+    public void shouldReadEntriesFromDirectBuffer() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        WriteableBlock writeableBlock = new WriteableBlock(16);
+        writeableBlock.put("1234");
+        writeableBlock.put("567");
+        writeableBlock.flushTo(baos);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(16);
+        direct.put(baos.toByteArray());
+        direct.flip();
+
+        ReadOnlyBlock readOnlyBlock = new ReadOnlyBlock(direct);
+        assertThat(readOnlyBlock.read(0), is("1234"));
+        assertThat(readOnlyBlock.read(8), is("567"));
+        assertThat(readOnlyBlock.sizeInBytes(), is(16));
+    }
+
+    @Test
+    public void shouldReadEmptyValue() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        WriteableBlock writeableBlock = new WriteableBlock(16);
+        writeableBlock.put("");
+        writeableBlock.put("1234");
+        writeableBlock.flushTo(baos);
+
+        ReadOnlyBlock readOnlyBlock = new ReadOnlyBlock(baos.toByteArray());
+        assertThat(readOnlyBlock.read(0), is(""));
+        assertThat(readOnlyBlock.read(4), is("1234"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRaiseErrorForOffsetPastEndOfBlock() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        WriteableBlock writeableBlock = new WriteableBlock(16);
+        writeableBlock.put("1234");
+        writeableBlock.flushTo(baos);
+
+        new ReadOnlyBlock(baos.toByteArray()).read(14);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRaiseErrorForOffsetIntoUnusedSpace() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        WriteableBlock writeableBlock = new WriteableBlock(16);
+        writeableBlock.put("1234");
+        writeableBlock.flushTo(baos);
+
+        new ReadOnlyBlock(baos.toByteArray()).read(8);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,147 @@
+package io.github.djhworld.sstable;
+
+import io.github.djhworld.model.RowMutation;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class ReadOnlyKeyedBlockTest {
+
+    @Test
+    public void shouldReadEntriesInOrder() throws Exception {
+        ReadOnlyKeyedBlock.Cursor cursor = newBlock(128).first();
+
+        assertThat(cursor.isValid(), is(true));
+        RowMutation first = cursor.mutation();
+        assertThat(first.rowKey, is("a"));
+        assertThat(first.columnKey, is("cf:1"));
+        assertThat(first.value, is("one"));
+        assertThat(first.timestamp, is(1L));
+
+        cursor.next();
+        assertThat(cursor.mutation().columnKey, is("cf:2"));
+        assertThat(cursor.value(), is("two"));
+
+        cursor.next();
+        assertThat(cursor.mutation().rowKey, is("b"));
+        assertThat(cursor.value(), is("three"));
+
+        cursor.next();
+        assertThat(cursor.isValid(), is(false));
+    }
+
+    @Test
+    public void shouldSeekToFirstKeyGreaterThanOrEqual() throws Exception {
+        ReadOnlyKeyedBlock block = newBlock(128);
+
+        assertThat(block.seek(bytes("a"), bytes("cf:2")).value(), is("two"));
+        assertThat(block.seek(bytes("a"), bytes("cf:15")).value(), is("two"));
+        assertThat(block.seek(bytes("b"), bytes("")).value(), is("three"));
+        assertThat(block.seek(bytes("c"), bytes("")).isValid(), is(false));
+    }
+
+    @Test
+    public void shouldMatchRowAndColumnPrefix() throws Exception {
+        ReadOnlyKeyedBlock.Cursor cursor = newBlock(128).first();
+
+        assertThat(cursor.hasRowKey(bytes("a")), is(true));
+        assertThat(cursor.hasRowKey(bytes("ab")), is(false));
+        assertThat(cursor.columnKeyStartsWith(bytes("cf:")), is(true));
+        assertThat(cursor.columnKeyStartsWith(bytes("cf:10")), is(false));
+        assertThat(cursor.compareKey(bytes("a"), bytes("cf:1")), is(0));
+    }
+
+    @Test
+    public void shouldRebuildPrefixCompressedKeysAcrossRestartPoints() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        WriteableKeyedBlock writeableBlock = new WriteableKeyedBlock(64000);
+        for (int i = 0; i < 1000; i++) {
+            writeableBlock.put(bytes("com.example.row" + (i / 100)), bytes("page:" + String.format("%05d", i)), i, bytes("value" + i));
+        }
+        writeableBlock.flushTo(baos);
+
+        ReadOnlyKeyedBlock block = new ReadOnlyKeyedBlock(ByteBuffer.wrap(baos.toByteArray()), true);
+        ReadOnlyKeyedBlock.Cursor cursor = block.first();
+        for (int i = 0; i < 1000; i++) {
+            RowMutation mutation = cursor.mutation();
+            assertThat(mutation.rowKey, is("com.example.row" + (i / 100)));
+            assertThat(mutation.columnKey, is("page:" + String.format("%05d", i)));
+            assertThat(mutation.value, is("value" + i));
+            cursor.next();
+        }
+        assertThat(cursor.isValid(), is(false));
+
+        for (int i = 0; i < 1000; i++) {
+            ReadOnlyKeyedBlock.Cursor found = block.seek(bytes("com.example.row" + (i / 100)), bytes("page:" + String.format("%05d", i)));
+            assertThat(found.value(), is("value" + i));
+        }
+    }
+
+    @Test
+    public void shouldNotStoreSharedKeyPrefixes() throws Exception {
+        WriteableKeyedBlock writeableBlock = new WriteableKeyedBlock(64000);
+        writeableBlock.put(bytes("com.example"), bytes("page:00001"), 1, bytes("v"));
+        int second = writeableBlock.put(bytes("com.example"), bytes("page:00002"), 2, bytes("v"));
+        int third = writeableBlock.put(bytes("com.example"), bytes("page:00003"), 3, bytes("v"));
+
+        assertThat(third - second, is(WriteableKeyedBlock.KEYED_ENTRY_HEADER_BYTES + 1 + 1));
+    }
+
+    @Test
+    public void shouldReadVersion3BlockWithoutRestartPoints() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.putInt(16 + 3 + 4 + 5).putShort((short) 3).putShort((short) 4).putLong(5L);
+        buffer.put(bytes("row")).put(bytes("cf:a")).put(bytes("value"));
+        buffer.rewind();
+
+        ReadOnlyKeyedBlock block = new ReadOnlyKeyedBlock(buffer, false);
+        assertThat(block.first().mutation().rowKey, is("row"));
+        assertThat(block.seek(bytes("row"), bytes("cf:a")).value(), is("value"));
+        assertThat(block.seek(bytes("row"), bytes("cf:b")).isValid(), is(false));
+    }
+
+    @Test
+    public void shouldReadFromDirectBuffer() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        WriteableKeyedBlock writeableBlock = new WriteableKeyedBlock(64);
+        writeableBlock.put(bytes("row"), bytes("cf:a"), 5L, bytes("value"));
+        writeableBlock.flushTo(baos);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(64);
+        direct.put(baos.toByteArray());
+        direct.flip();
+
+        ReadOnlyKeyedBlock block = new ReadOnlyKeyedBlock(direct, true);
+        assertThat(block.first().mutation().rowKey, is("row"));
+        assertThat(block.first().value(), is("value"));
+    }
+
+    @Test
+    public void shouldNotFindEntriesInEmptyBlock() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new WriteableKeyedBlock(64).flushTo(baos);
+        ReadOnlyKeyedBlock block = new ReadOnlyKeyedBlock(ByteBuffer.wrap(baos.toByteArray()), true);
+
+        assertThat(block.first().isValid(), is(false));
+        assertThat(block.seek(bytes("a"), bytes("b")).isValid(), is(false));
+    }
+
+    private static ReadOnlyKeyedBlock newBlock(int blockSize) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        WriteableKeyedBlock writeableBlock = new WriteableKeyedBlock(blockSize);
+        writeableBlock.put(bytes("a"), bytes("cf:1"), 1L, bytes("one"));
+        writeableBlock.put(bytes("a"), bytes("cf:2"), 2L, bytes("two"));
+        writeableBlock.put(bytes("b"), bytes("cf:1"), 3L, bytes("three"));
+        writeableBlock.flushTo(baos);
+        return new ReadOnlyKeyedBlock(ByteBuffer.wrap(baos.toByteArray()), true);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(UTF_8);
+    }
+}
@@ -1,22 +1,30 @@
 package io.github.djhworld.sstable;
 
+import com.google.common.base.Strings;
 import io.github.djhworld.exception.SSTableException;
+import io.github.djhworld.io.FileSink;
 import io.github.djhworld.io.FileSource;
+import io.github.djhworld.io.MappedFileSource;
 import io.github.djhworld.model.RowMutation;
 import org.junit.BeforeClass;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
+import java.util.Spliterator;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static com.google.common.io.Resources.getResource;
 import static io.github.djhworld.io.CompressionType.*;
+import static io.github.djhworld.model.RowMutation.TOMBSTONE;
 import static java.nio.file.Paths.get;
 import static java.util.Optional.empty;
 import static java.util.Optional.of;
@@ -81,7 +89,7 @@ public class SSTableTest extends AbstractSSTableTest {
 
     @Test
     public void shouldGetCorrectNumberOfBlocks() throws Exception {
-        assertThat(SS_TABLE.blocks(), is(3));
+        assertThat(SS_TABLE.blocks(), is(6));
         assertThat(EMPTY_SS_TABLE.blocks(), is(1));
     }
 
@@ -104,6 +112,234 @@ public class SSTableTest extends AbstractSSTableTest {
         new SSTable(new FileSource(path));
     }
 
+    @Test
+    public void shouldAnswerMissingKeysWithoutConsultingIndex() throws Exception {
+        SSTable ssTable = new SSTable(new FileSource(TEMP_FILE.toPath()));
+
+        for (int i = 0; i < 1000; i++) {
+            assertThat(ssTable.get("unknownRow", "page:" + i), is(empty()));
+        }
+
+        assertThat(ssTable.bloomFilterHits(), is(0L));
+        assertThat(ssTable.bloomFilterMisses() + ssTable.bloomFilterFalsePositives(), is(1000L));
+        assertThat(ssTable.bloomFilterFalsePositives() < 50, is(true));
+    }
+
+    @Test
+    public void shouldCountBloomFilterHits() throws Exception {
+        SSTable ssTable = new SSTable(new FileSource(TEMP_FILE.toPath()));
+
+        assertThat(ssTable.contains("com.amazon", "data:test"), is(true));
+        assertThat(ssTable.get("com.amazon", "data:rest"), is(of("testing2")));
+
+        assertThat(ssTable.bloomFilterHits(), is(2L));
+        assertThat(ssTable.bloomFilterMisses(), is(0L));
+        assertThat(ssTable.bloomFilterFalsePositives(), is(0L));
+    }
+
+    @Test
+    public void shouldReadVersion1TableWithoutBloomFilter() throws Exception {
+        SSTable ssTable = new SSTable(new FileSource(get(getResource("v1.db").toURI())));
+
+        assertThat(ssTable.get("com.amazon", "anchor:five"), is(of("testing4")));
+        assertThat(ssTable.get("com.amazon", "data:test"), is(of("testing1")));
+        assertThat(ssTable.get("com.google", "page:home"), is(of("google")));
+        assertThat(ssTable.get("com.google", "page:away"), is(empty()));
+        assertThat(ssTable.stream().count(), is(4L));
+        assertThat(ssTable.bloomFilterMisses(), is(0L));
+    }
+
+    @Test
+    public void shouldReadVersion2TableWithDenseFooter() throws Exception {
+        SSTable ssTable = new SSTable(new FileSource(get(getResource("v2.db").toURI())));
+
+        assertThat(ssTable.get("com.amazon", "anchor:five"), is(of("testing4")));
+        assertThat(ssTable.get("com.amazon", "data:test"), is(of("testing1")));
+        assertThat(ssTable.get("com.google", "page:home"), is(of("google")));
+        assertThat(ssTable.get("com.google", "page:away"), is(empty()));
+        assertThat(ssTable.stream().count(), is(4L));
+        assertThat(ssTable.noOfRows(), is(3));
+    }
+
+    @Test
+    public void shouldScanEveryVersionOfRowInDenseFooter() throws Exception {
+        SSTable ssTable = new SSTable(new FileSource(get(getResource("v2.db").toURI())));
+
+        List<RowMutation> row = ssTable.stream("com.amazon").collect(Collectors.toList());
+        assertThat(row.size(), is(3));
+        assertThat(row.get(0).columnKey, is("anchor:five"));
+        assertThat(row.get(1).value, is("testing1"));
+        assertThat(row.get(2).value, is("testing0"));
+        assertThat(row.get(2).timestamp, is(999L));
+
+        assertThat(ssTable.stream("com.amazon", "data").count(), is(2L));
+        assertThat(ssTable.stream("com.amazon", "page").count(), is(0L));
+        assertThat(ssTable.stream("com.google").count(), is(1L));
+        assertThat(ssTable.stream("com.goog").count(), is(0L));
+        assertThat(ssTable.noOfEntries(), is(4));
+    }
+
+    @Test
+    public void shouldReadVersion3TableWithUncompressedKeys() throws Exception {
+        SSTable ssTable = new SSTable(new FileSource(get(getResource("v3.db").toURI())));
+
+        assertThat(ssTable.get("com.amazon", "anchor:five"), is(of("testing4")));
+        assertThat(ssTable.get("com.amazon", "data:test"), is(of("testing1")));
+        assertThat(ssTable.get("com.google", "page:home"), is(of("google")));
+        assertThat(ssTable.get("com.google", "page:away"), is(empty()));
+        assertThat(ssTable.stream("com.amazon").count(), is(3L));
+        assertThat(ssTable.stream().count(), is(4L));
+        assertThat(ssTable.noOfRows(), is(3));
+    }
+
+    @Test
+    public void shouldFindEveryKeyAcrossSmallBlocks() throws Exception {
+        File file = File.createTempFile("small-blocks" + System.currentTimeMillis(), ".db");
+        file.deleteOnExit();
+        try (SSTableWriter ssTableWriter = new SSTableWriter(new FileSink(file.toPath()), SNAPPY, 256)) {
+            for (int i = 0; i < 1000; i++) {
+                ssTableWriter.write("row" + String.format("%04d", i / 10), "col:" + (i % 10), "value" + i, i);
+            }
+        }
+
+        SSTable ssTable = new SSTable(new FileSource(file.toPath()));
+        assertThat(ssTable.blocks() > 100, is(true));
+        for (int i = 0; i < 1000; i++) {
+            assertThat(ssTable.get("row" + String.format("%04d", i / 10), "col:" + (i % 10)), is(of("value" + i)));
+        }
+
+        assertThat(ssTable.get("row0000", "col:"), is(empty()));
+        assertThat(ssTable.get("row0050", "col:95"), is(empty()));
+        assertThat(ssTable.get("row9999", "col:0"), is(empty()));
+        assertThat(ssTable.get("", ""), is(empty()));
+        assertThat(ssTable.stream("row0050").count(), is(10L));
+        assertThat(ssTable.stream("row0050", "col").count(), is(10L));
+        assertThat(ssTable.stream("row005").count(), is(0L));
+        assertThat(ssTable.stream().count(), is(1000L));
+        assertThat(ssTable.stream().parallel().count(), is(1000L));
+    }
+
+    @Test
+    public void shouldReturnLatestWrittenVersionWhenVersionsSpanBlocks() throws Exception {
+        File file = File.createTempFile("versions" + System.currentTimeMillis(), ".db");
+        file.deleteOnExit();
+        try (SSTableWriter ssTableWriter = new SSTableWriter(new FileSink(file.toPath()), SNAPPY, 128)) {
+            for (int i = 100; i > 0; i--) {
+                ssTableWriter.write("a", "col:a", "version" + i, i);
+            }
+            ssTableWriter.write("b", "col:a", "other", 1);
+        }
+
+        SSTable ssTable = new SSTable(new FileSource(file.toPath()));
+        assertThat(ssTable.get("a", "col:a"), is(of("version100")));
+        assertThat(ssTable.get("b", "col:a"), is(of("other")));
+        assertThat(ssTable.noOfRows(), is(2));
+        assertThat(ssTable.noOfEntries(), is(101));
+
+        List<RowMutation> versions = ssTable.stream("a").collect(Collectors.toList());
+        assertThat(versions.size(), is(100));
+        assertThat(versions.get(0).timestamp, is(100L));
+        assertThat(versions.get(99).timestamp, is(1L));
+    }
+
+    @Test
+    public void shouldSkipRowsOutsideRangeOfTable() throws Exception {
+        File file = File.createTempFile("row-range" + System.currentTimeMillis(), ".db");
+        file.deleteOnExit();
+        try (SSTableWriter ssTableWriter = new SSTableWriter(new FileSink(file.toPath()), SNAPPY)) {
+            ssTableWriter.write("d", "col:a", "first", 10);
+            ssTableWriter.write("m", "col:a", "middle", 20);
+            ssTableWriter.write("t", "col:a", "last", 30);
+        }
+
+        SSTable ssTable = new SSTable(new FileSource(file.toPath()));
+        assertThat(ssTable.mayContainRow("d"), is(true));
+        assertThat(ssTable.mayContainRow("g"), is(true));
+        assertThat(ssTable.mayContainRow("t"), is(true));
+        assertThat(ssTable.mayContainRow("c"), is(false));
+        assertThat(ssTable.mayContainRow("ta"), is(false));
+        assertThat(ssTable.stream("a").count(), is(0L));
+        assertThat(ssTable.stream("z", "col").count(), is(0L));
+        assertThat(ssTable.stream("t").count(), is(1L));
+        assertThat(EMPTY_SS_TABLE.mayContainRow("a"), is(false));
+    }
+
+    @Test
+    public void shouldGetLatestVersionAtOrBeforeTimestamp() throws Exception {
+        File file = File.createTempFile("time-range" + System.currentTimeMillis(), ".db");
+        file.deleteOnExit();
+        try (SSTableWriter ssTableWriter = new SSTableWriter(new FileSink(file.toPath()), SNAPPY, 128)) {
+            for (int i = 100; i > 0; i--) {
+                ssTableWriter.write("a", "col:a", "version" + i, i * 10);
+            }
+        }
+
+        SSTable ssTable = new SSTable(new FileSource(file.toPath()));
+        assertThat(ssTable.mayContainVersionsAtOrBefore(9), is(false));
+        assertThat(ssTable.mayContainVersionsAtOrBefore(10), is(true));
+        assertThat(ssTable.get("a", "col:a", 9), is(empty()));
+        assertThat(ssTable.get("a", "col:a", 10), is(of("version1")));
+        assertThat(ssTable.get("a", "col:a", 505), is(of("version50")));
+        assertThat(ssTable.get("a", "col:a", Long.MAX_VALUE), is(of("version100")));
+        assertThat(ssTable.get("a", "col:b", Long.MAX_VALUE), is(empty()));
+    }
+
+    @Test
+    public void shouldStopAtDeleteWhateverTheTimestamp() throws Exception {
+        File file = File.createTempFile("time-range-delete" + System.currentTimeMillis(), ".db");
+        file.deleteOnExit();
+        try (SSTableWriter ssTableWriter = new SSTableWriter(new FileSink(file.toPath()), SNAPPY, 128)) {
+            ssTableWriter.write("a", "col:a", "new", 30);
+            ssTableWriter.write("a", "col:a", TOMBSTONE, Long.MAX_VALUE);
+            ssTableWriter.write("a", "col:a", "old", 10);
+            ssTableWriter.write("b", "col:a", TOMBSTONE, Long.MAX_VALUE);
+        }
+
+        SSTable ssTable = new SSTable(new FileSource(file.toPath()));
+        assertThat(ssTable.mayContainVersionsAtOrBefore(Long.MIN_VALUE), is(true));
+        assertThat(ssTable.get("a", "col:a", Long.MAX_VALUE), is(of("new")));
+        assertThat(ssTable.get("a", "col:a", 20), is(of(TOMBSTONE)));
+        assertThat(ssTable.get("a", "col:a", 5), is(of(TOMBSTONE)));
+        assertThat(ssTable.get("b", "col:a", 5), is(of(TOMBSTONE)));
+    }
+
+    @Test
+    public void shouldNeverSkipTablesWrittenBeforeRangeWasRecorded() throws Exception {
+        for (String fixture : new String[]{"v1.db", "v2.db", "v3.db"}) {
+            SSTable ssTable = new SSTable(new FileSource(get(getResource(fixture).toURI())));
+
+            assertThat(ssTable.mayContainRow("a"), is(true));
+            assertThat(ssTable.mayContainVersionsAtOrBefore(Long.MIN_VALUE), is(true));
+            assertThat(ssTable.get("com.amazon", "data:test", 1000), is(of("testing0")));
+            assertThat(ssTable.get("com.amazon", "data:test", 998), is(empty()));
+        }
+    }
+
+    @Test(expected = SSTableException.class)
+    public void shouldFailToWriteEntryLargerThanBlock() throws Exception {
+        File file = File.createTempFile("too-large" + System.currentTimeMillis(), ".db");
+        file.deleteOnExit();
+        try (SSTableWriter ssTableWriter = new SSTableWriter(new FileSink(file.toPath()), SNAPPY, 64)) {
+            ssTableWriter.write("row", "col:a", Strings.repeat("x", 64), 1);
+        }
+    }
+
+    @Test
+    public void shouldReadUncompressedTableThroughMappedSource() throws Exception {
+        File file = File.createTempFile("uncompressed" + System.currentTimeMillis(), ".db");
+        file.deleteOnExit();
+        writeSSTable(file, UNCOMPRESSED);
+
+        try (MappedFileSource source = new MappedFileSource(file.toPath())) {
+            SSTable ssTable = new SSTable(source);
+            for (int i = 0; i < NO_OF_ITEMS; i++) {
+                assertThat(ssTable.get("com.amazon", "page:" + String.format("%05d", i) + "column"), is(of("value" + i)));
+            }
+            assertThat(ssTable.get("com.amazon", "anchor:five"), is(of("testing4")));
+            assertThat(ssTable.stream().count(), is(NO_OF_ITEMS + 4L));
+        }
+    }
+
     @Test
     public void shouldScanAllColumnsForRow() throws Exception {
         Stream<RowMutation> stream = SS_TABLE.stream("com.amazon");
@@ -152,14 +388,14 @@ public class SSTableTest extends AbstractSSTableTest {
     }
 
     @Test
-    public void shouldScanInOrderAndLoadAllBlocksIntoCache() throws Exception {
+    public void shouldScanInOrderWithoutLoadingBlocksIntoCache() throws Exception {
         SS_TABLE = new SSTable(new FileSource(TEMP_FILE.toPath()));
 
         assertThat(SS_TABLE.cachedBlocks(), is(0L));
 
         AtomicInteger i = new AtomicInteger(-4);
-        SS_TABLE.stream().forEach(rm -> {
-            assertThat(SS_TABLE.cachedBlocks(), is(3L));
+        SS_TABLE.stream(1).forEach(rm -> {
+            assertThat(SS_TABLE.cachedBlocks(), is(0L));
             switch (i.get()) {
                 case -4:
                     assertThat(rm.rowKey, is("com.amazon"));
@@ -188,4 +424,90 @@ public class SSTableTest extends AbstractSSTableTest {
         });
 
     }
+
+    @Test
+    public void shouldScanWithAnyReadahead() throws Exception {
+        for (int readaheadBlocks = 1; readaheadBlocks <= 4; readaheadBlocks++) {
+            List<RowMutation> scanned = SS_TABLE.stream(readaheadBlocks).collect(Collectors.toList());
+            assertThat(scanned.size(), is(NO_OF_ITEMS + 4));
+            assertThat(scanned.get(4).columnKey, is("page:00000column"));
+            assertThat(scanned.get(4).value, is("value0"));
+            assertThat(scanned.get(NO_OF_ITEMS + 3).value, is("value" + (NO_OF_ITEMS - 1)));
+        }
+    }
+
+    @Test
+    public void shouldUseCachedBlocksWhenScanning() throws Exception {
+        SSTable ssTable = new SSTable(new FileSource(TEMP_FILE.toPath()));
+        ssTable.get("com.amazon", "page:00000column");
+        assertThat(ssTable.cachedBlocks(), is(1L));
+
+        assertThat(ssTable.stream().count(), is(NO_OF_ITEMS + 4L));
+        assertThat(ssTable.cachedBlocks(), is(1L));
+    }
+
+    @Test
+    public void shouldKnowExactSizeOfScan() throws Exception {
+        Spliterator<RowMutation> spliterator = SS_TABLE.stream().spliterator();
+
+        assertThat(SS_TABLE.noOfEntries(), is(NO_OF_ITEMS + 4));
+        assertThat(spliterator.getExactSizeIfKnown(), is(NO_OF_ITEMS + 4L));
+        assertThat(spliterator.hasCharacteristics(Spliterator.SUBSIZED), is(true));
+        assertThat(EMPTY_SS_TABLE.stream().spliterator().getExactSizeIfKnown(), is(0L));
+    }
+
+    @Test
+    public void shouldSplitScanAlongBlockBoundaries() throws Exception {
+        Spliterator<RowMutation> suffix = SS_TABLE.stream().spliterator();
+        Spliterator<RowMutation> prefix = suffix.trySplit();
+
+        assertThat(prefix.estimateSize() + suffix.estimateSize(), is(NO_OF_ITEMS + 4L));
+        assertThat(prefix.estimateSize() > 0, is(true));
+        assertThat(suffix.estimateSize() > 0, is(true));
+    }
+
+    @Test
+    public void shouldOnlyReadBlocksOfEachSplit() throws Exception {
+        File file = File.createTempFile("split-readahead" + System.currentTimeMillis(), ".db");
+        file.deleteOnExit();
+        try (SSTableWriter ssTableWriter = new SSTableWriter(new FileSink(file.toPath()), SNAPPY, 256)) {
+            for (int i = 0; i < 1000; i++) {
+                ssTableWriter.write("row" + String.format("%04d", i), "col:a", "value" + i, i);
+            }
+        }
+
+        AtomicLong bytesRead = new AtomicLong();
+        SSTable ssTable = new SSTable(new FileSource(file.toPath()) {
+            @Override
+            public ByteBuffer getBuffer(int offset, int length) throws IOException {
+                bytesRead.addAndGet(length);
+                return super.getBuffer(offset, length);
+            }
+        });
+        bytesRead.set(0);
+        assertThat(ssTable.stream(ssTable.blocks()).count(), is(1000L));
+        long bytesOfBlocks = bytesRead.getAndSet(0);
+
+        Spliterator<RowMutation> suffix = ssTable.stream(ssTable.blocks()).spliterator();
+        Spliterator<RowMutation> prefix = suffix.trySplit();
+        AtomicInteger entries = new AtomicInteger();
+        prefix.forEachRemaining(rm -> entries.incrementAndGet());
+        suffix.forEachRemaining(rm -> entries.incrementAndGet());
+
+        assertThat(entries.get(), is(1000));
+        assertThat(bytesRead.get(), is(bytesOfBlocks));
+    }
+
+    @Test
+    public void shouldScanInParallelInKeyOrder() throws Exception {
+        List<RowMutation> sequential = SS_TABLE.stream().collect(Collectors.toList());
+        List<RowMutation> parallel = SS_TABLE.stream().parallel().collect(Collectors.toList());
+
+        assertThat(parallel.size(), is(sequential.size()));
+        for (int i = 0; i < sequential.size(); i++) {
+            assertThat(parallel.get(i).rowKey, is(sequential.get(i).rowKey));
+            assertThat(parallel.get(i).columnKey, is(sequential.get(i).columnKey));
+            assertThat(parallel.get(i).value, is(sequential.get(i).value));
+        }
+    }
 }
\ No newline at end of file
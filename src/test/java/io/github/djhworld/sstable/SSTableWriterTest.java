@@ -1,13 +1,16 @@
 package io.github.djhworld.sstable;
 
+import io.github.djhworld.io.FileSink;
 import io.github.djhworld.io.FileSource;
 import io.github.djhworld.model.RowMutation;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static io.github.djhworld.io.CompressionType.SNAPPY;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 
@@ -39,4 +42,14 @@ public class SSTableWriterTest extends AbstractSSTableTest {
             assertThat(rm.value, is(mutation.value));
         });
     }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectEntryWrittenOutOfKeyOrder() throws Exception {
+        File file = File.createTempFile("out-of-order" + System.currentTimeMillis(), ".db");
+        file.deleteOnExit();
+        try (SSTableWriter ssTableWriter = new SSTableWriter(new FileSink(file.toPath()), SNAPPY)) {
+            ssTableWriter.write("b", "col:a", "value", 1);
+            ssTableWriter.write("a", "col:b", "value", 1);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,91 @@
+package io.github.djhworld.sstable;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Strings;
+import io.github.djhworld.io.CompressionType;
+import io.github.djhworld.io.FileSink;
+import io.github.djhworld.io.MappedFileSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Stopwatch.createStarted;
+import static io.github.djhworld.io.CompressionType.*;
+import static java.lang.System.currentTimeMillis;
+import static java.nio.file.Files.deleteIfExists;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Full table scan throughput as the number of fork join workers grows
+ */
+@Ignore
+public class ScanThroughputTest {
+    private static final int RECORDS = 2_000_000;
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+    private static final Path GZIP_LOCATION = Paths.get("scan-gzip.db");
+    private static final Path SNAPPY_LOCATION = Paths.get("scan-snappy.db");
+
+    @Before
+    public void setUp() throws Exception {
+        cleanup();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cleanup();
+    }
+
+    private void cleanup() throws IOException {
+        deleteIfExists(GZIP_LOCATION);
+        deleteIfExists(SNAPPY_LOCATION);
+    }
+
+    @Test
+    public void testScanThroughputByThreadCount() throws Exception {
+        runTest(GZIP_LOCATION, GZIP);
+        runTest(SNAPPY_LOCATION, SNAPPY);
+    }
+
+    private void runTest(Path path, CompressionType compressionType) throws Exception {
+        System.out.println(compressionType + " Test");
+        System.out.println(Strings.repeat("-", 100));
+        write(new FileSink(path), compressionType);
+
+        try (MappedFileSource source = new MappedFileSource(path)) {
+            SSTable ssTable = new SSTable(source);
+            System.out.println("threads\tms\trecords/sec");
+            for (int threads : THREADS) {
+                long elapsed = scan(ssTable, threads);
+                System.out.println(threads + "\t" + elapsed + "\t" + (ssTable.noOfEntries() * 1000L / Math.max(1, elapsed)));
+            }
+        }
+        System.out.println("\n");
+    }
+
+    private void write(FileSink sink, CompressionType compressionType) throws IOException {
+        try (SSTableWriter writer = new SSTableWriter(sink, compressionType)) {
+            for (int i = 0; i < RECORDS; i++) {
+                writer.write("com.amazon.data.repository" + String.format("%08d", i), "key", "value" + i, currentTimeMillis());
+            }
+        }
+    }
+
+    private long scan(SSTable ssTable, int threads) throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            LongAdder bytes = new LongAdder();
+            Stopwatch stopwatch = createStarted();
+            pool.submit(() -> ssTable.stream().parallel().forEach(rm -> bytes.add(rm.value.length()))).get();
+            return stopwatch.stop().elapsed(MILLISECONDS);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.djhworld.tablet;
+
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+import static io.github.djhworld.model.RowMutation.newAddMutation;
+import static io.github.djhworld.model.RowMutation.newDeleteMutation;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class ArenaMemTableTest extends MemTableTest {
+
+    @Override
+    MemTable newMemTable() {
+        return new ArenaMemTable(new Arena(256));
+    }
+
+    @Test
+    public void shouldAccountForSlabsAndLiveVersions() throws Exception {
+        Arena arena = new Arena(256);
+        MemTable memTable = new ArenaMemTable(arena);
+        memTable.put(newAddMutation("row", "cf:a", "value", 1));
+        assertThat(memTable.logicalSizeInBytes(), is(3L + 4 + 5 + 8));
+        assertThat(arena.allocatedBytes(), is(25L + 3 + 4 + 5));
+        long oneVersion = memTable.physicalSizeInBytes();
+        assertThat(oneVersion > 256, is(true));
+
+        memTable.delete(newDeleteMutation("row", "cf:a"));
+        assertThat(memTable.logicalSizeInBytes(), is(3L + 4 + "Delete![-TOMBSTONE-]Delete!".length() + 8));
+        assertThat(memTable.physicalSizeInBytes(), is(oneVersion));
+
+        memTable.clear();
+        assertThat(memTable.logicalSizeInBytes(), is(0L));
+        assertThat(memTable.physicalSizeInBytes(), is(0L));
+        assertThat(memTable.isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldHoldEntriesLargerThanSlab() throws Exception {
+        Arena arena = new Arena(256);
+        MemTable memTable = new ArenaMemTable(arena);
+        String value = Strings.repeat("x", 1000);
+        memTable.put(newAddMutation("row", "cf:a", "small", 1));
+        memTable.put(newAddMutation("row", "cf:b", value, 2));
+        memTable.put(newAddMutation("row", "cf:c", "small", 3));
+
+        assertThat(memTable.get("row", "cf:b", Long.MAX_VALUE).get().value, is(value));
+        assertThat(memTable.get("row", "cf:c", Long.MAX_VALUE).get().timestamp, is(3L));
+        assertThat(arena.reservedBytes() >= arena.allocatedBytes(), is(true));
+    }
+
+    @Test
+    public void shouldFindKeyOutsideBasicMultilingualPlane() throws Exception {
+        MemTable memTable = newMemTable();
+        memTable.put(newAddMutation("\uFF21", "cf:a", "fullwidth", 1));
+        memTable.put(newAddMutation("\uD83D\uDE00", "cf:a", "emoji", 2));
+
+        assertThat(memTable.stream().findFirst().get().value, is("fullwidth"));
+        assertThat(memTable.get("\uD83D\uDE00", "cf:a", Long.MAX_VALUE).get().value, is("emoji"));
+    }
+}
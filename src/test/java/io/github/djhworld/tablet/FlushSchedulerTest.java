@@ -0,0 +1,135 @@
+package io.github.djhworld.tablet;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class FlushSchedulerTest {
+
+    @Test
+    public void shouldNotFlushBelowThreshold() throws Exception {
+        List<Runnable> flushes = newArrayList();
+        FlushScheduler flushScheduler = new FlushScheduler(1000, 2, flushes::add);
+        List<Tablet> tablets = newArrayList(tablet("a", 300, 0), tablet("b", 400, 0));
+
+        flushScheduler.scheduleFlushes(tablets);
+
+        assertThat(flushScheduler.usedBytes(), is(700L));
+        assertThat(flushes.size(), is(0));
+        verify(tablets.get(0), never()).flushInBackground(any(Executor.class));
+        verify(tablets.get(1), never()).flushInBackground(any(Executor.class));
+    }
+
+    @Test
+    public void shouldFlushLargestTabletsFirst() throws Exception {
+        List<Runnable> flushes = newArrayList();
+        FlushScheduler flushScheduler = new FlushScheduler(1000, 2, flushes::add);
+        Tablet small = tablet("small", 100, 0);
+        Tablet large = tablet("large", 500, 0);
+        Tablet medium = tablet("medium", 300, 0);
+
+        flushScheduler.scheduleFlushes(newArrayList(small, large, medium));
+
+        // 900 bytes used, flushing the largest takes usage under the 750 byte threshold
+        assertThat(flushes.size(), is(1));
+        verify(large, times(1)).flushInBackground(any(Executor.class));
+        verify(medium, never()).flushInBackground(any(Executor.class));
+        verify(small, never()).flushInBackground(any(Executor.class));
+    }
+
+    @Test
+    public void shouldLimitConcurrentFlushes() throws Exception {
+        List<Runnable> flushes = newArrayList();
+        FlushScheduler flushScheduler = new FlushScheduler(1000, 2, flushes::add);
+        List<Tablet> tablets = newArrayList(tablet("a", 250, 0), tablet("b", 250, 0), tablet("c", 250, 0), tablet("d", 250, 0));
+
+        flushScheduler.scheduleFlushes(tablets);
+        assertThat(flushes.size(), is(2));
+        assertThat(flushScheduler.flushesInFlight(), is(2));
+
+        flushes.get(0).run();
+        assertThat(flushScheduler.flushesInFlight(), is(1));
+    }
+
+    @Test
+    public void shouldCountFrozenMemTablesAsPendingFlush() throws Exception {
+        List<Runnable> flushes = newArrayList();
+        FlushScheduler flushScheduler = new FlushScheduler(1000, 2, flushes::add);
+        List<Tablet> tablets = newArrayList(tablet("a", 100, 700), tablet("b", 100, 0));
+
+        flushScheduler.scheduleFlushes(tablets);
+
+        assertThat(flushScheduler.usedBytes(), is(900L));
+        assertThat(flushScheduler.pendingFlushBytes(), is(700L));
+        assertThat(flushes.size(), is(0));
+    }
+
+    @Test
+    public void shouldFlushTabletGrowingBeyondItsShareOfBudget() throws Exception {
+        List<Runnable> flushes = newArrayList();
+        FlushScheduler flushScheduler = new FlushScheduler(100_000, 2, flushes::add);
+        Tablet hot = tablet("hot", 50_001, 0);
+
+        flushScheduler.afterApply(hot, newArrayList(hot), 10);
+
+        assertThat(flushes.size(), is(1));
+    }
+
+    @Test
+    public void shouldShrinkShareOfBudgetAsMoreTabletsHoldData() throws Exception {
+        List<Runnable> flushes = newArrayList();
+        FlushScheduler flushScheduler = new FlushScheduler(1000, 2, flushes::add);
+        Tablet hot = tablet("hot", 200, 0);
+
+        flushScheduler.scheduleFlushes(newArrayList(hot, tablet("idle", 0, 0)));
+        assertThat(flushScheduler.maxTabletBytes(), is(500L));
+        flushScheduler.afterApply(hot, newArrayList(hot), 10);
+        assertThat(flushes.size(), is(0));
+
+        // 500 bytes used across four tablets, under the threshold, but each may now hold 187
+        flushScheduler.scheduleFlushes(newArrayList(hot, tablet("a", 100, 0), tablet("b", 100, 0), tablet("c", 100, 0)));
+        assertThat(flushScheduler.maxTabletBytes(), is(187L));
+        flushScheduler.afterApply(hot, newArrayList(hot), 10);
+        assertThat(flushes.size(), is(1));
+        verify(hot, times(1)).flushInBackground(any(Executor.class));
+    }
+
+    @Test
+    public void shouldKeepShareOfBudgetAboveMinimum() throws Exception {
+        assertThat(FlushScheduler.tabletShare(0), is(FlushScheduler.MAX_TABLET_SHARE));
+        assertThat(FlushScheduler.tabletShare(3), is(0.25));
+        assertThat(FlushScheduler.tabletShare(1000), is(FlushScheduler.MIN_TABLET_SHARE));
+    }
+
+    @Test
+    public void shouldNotWaitForCapacityWhenNothingIsFlushing() throws Exception {
+        FlushScheduler flushScheduler = new FlushScheduler(1000, 1, Runnable::run);
+        Tablet full = tablet("full", 2000, 0);
+        doReturn(false).when(full).flushInBackground(any(Executor.class));
+
+        flushScheduler.scheduleFlushes(newArrayList(full));
+        flushScheduler.awaitCapacity(newArrayList(full));
+
+        assertThat(flushScheduler.usedBytes(), is(2000L));
+    }
+
+    private static Tablet tablet(String tabletId, long activeBytes, long frozenBytes) {
+        Tablet tablet = mock(Tablet.class);
+        when(tablet.getTabletId()).thenReturn(tabletId);
+        when(tablet.approximateMemTableSizeInBytes()).thenReturn(activeBytes);
+        when(tablet.frozenMemTableSizeInBytes()).thenReturn(frozenBytes);
+        doAnswer(invocation -> {
+            ((Executor) invocation.getArguments()[0]).execute(() -> {
+            });
+            return true;
+        }).when(tablet).flushInBackground(any(Executor.class));
+        return tablet;
+    }
+}
@@ -0,0 +1,28 @@
+package io.github.djhworld.tablet;
+
+import org.junit.Test;
+
+import static io.github.djhworld.model.RowMutation.newAddMutation;
+import static io.github.djhworld.model.RowMutation.newDeleteMutation;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class HeapMemTableTest extends MemTableTest {
+
+    @Override
+    MemTable newMemTable() {
+        return new HeapMemTable();
+    }
+
+    @Test
+    public void shouldCountObjectsHoldingEachVersion() throws Exception {
+        MemTable memTable = newMemTable();
+        memTable.put(newAddMutation("row", "cf:a", "value", 1));
+
+        // mutation 40, key 32, skip list 32, and three strings of 24 plus their char arrays
+        assertThat(memTable.physicalSizeInBytes(), is(40L + 32 + 32 + (24 + 24) + (24 + 24) + (24 + 32)));
+
+        memTable.delete(newDeleteMutation("row", "cf:a"));
+        assertThat(memTable.physicalSizeInBytes(), is(40L + 32 + 32 + (24 + 24) + (24 + 24) + (24 + 72)));
+    }
+}
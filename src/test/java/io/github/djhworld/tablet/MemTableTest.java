@@ -0,0 +1,171 @@
+package io.github.djhworld.tablet;
+
+import io.github.djhworld.model.RowMutation;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static io.github.djhworld.model.RowMutation.newAddMutation;
+import static io.github.djhworld.model.RowMutation.newDeleteMutation;
+import static java.util.Optional.empty;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public abstract class MemTableTest {
+
+    abstract MemTable newMemTable();
+
+    @Test
+    public void shouldReturnLatestWrittenVersion() throws Exception {
+        MemTable memTable = newMemTable();
+        memTable.put(newAddMutation("a", "b", "c1", 30));
+        memTable.put(newAddMutation("a", "b", "c2", 10));
+        memTable.put(newAddMutation("a", "c", "c3", 20));
+
+        assertThat(memTable.get("a", "b", Long.MAX_VALUE).get().value, is("c2"));
+        assertThat(memTable.get("a", "b", 20).get().value, is("c2"));
+        assertThat(memTable.get("a", "b", 5), is(empty()));
+        assertThat(memTable.get("a", "d", Long.MAX_VALUE), is(empty()));
+        assertThat(memTable.size(), is(2));
+    }
+
+    @Test
+    public void shouldDropHistoryOfDeletedCell() throws Exception {
+        MemTable memTable = newMemTable();
+        memTable.put(newAddMutation("a", "b", "c1", 10));
+        memTable.put(newAddMutation("a", "b", "c2", 20));
+        memTable.put(newAddMutation("a", "bb", "c3", 20));
+        memTable.delete(newDeleteMutation("a", "b"));
+
+        assertThat(memTable.get("a", "b", Long.MAX_VALUE).get().action, is(RowMutation.Action.DEL));
+        assertThat(memTable.get("a", "b", 20).get().action, is(RowMutation.Action.DEL));
+        assertThat(memTable.get("a", "bb", 20).get().value, is("c3"));
+
+        memTable.put(newAddMutation("a", "b", "c4", 30));
+        assertThat(memTable.get("a", "b", Long.MAX_VALUE).get().value, is("c4"));
+
+        memTable.remove("a", "b");
+        assertThat(memTable.get("a", "b", Long.MAX_VALUE), is(empty()));
+        assertThat(memTable.size(), is(1));
+    }
+
+    @Test
+    public void shouldStopAtDeleteWhateverTheBound() throws Exception {
+        MemTable memTable = newMemTable();
+        memTable.put(newAddMutation("a", "b", "c1", 10));
+        memTable.delete(newDeleteMutation("a", "b"));
+        memTable.put(newAddMutation("a", "b", "c2", 30));
+
+        assertThat(memTable.get("a", "b", Long.MAX_VALUE).get().value, is("c2"));
+        assertThat(memTable.get("a", "b", 20).get().action, is(RowMutation.Action.DEL));
+        assertThat(memTable.get("a", "b", 5).get().action, is(RowMutation.Action.DEL));
+    }
+
+    @Test
+    public void shouldTrimVersionsBeyondLimitOrExpired() throws Exception {
+        MemTable memTable = newMemTable();
+        memTable.put(newAddMutation("a", "b", "c1", 10));
+        memTable.put(newAddMutation("a", "b", "c2", 40));
+        memTable.put(newAddMutation("a", "b", "c3", 30));
+        memTable.put(newAddMutation("a", "b", "c4", 20));
+        memTable.trim("a", "b", 3, 25);
+
+        List<String> values = memTable.stream().map(rm -> rm.value).collect(Collectors.toList());
+        assertThat(values, is(newArrayList("c3", "c2")));
+        assertThat(memTable.logicalSizeInBytes(), is(2 * (1L + 1 + 2 + 8)));
+    }
+
+    @Test
+    public void shouldKeepTombstoneWhenTrimming() throws Exception {
+        MemTable memTable = newMemTable();
+        memTable.delete(newDeleteMutation("a", "b"));
+        memTable.put(newAddMutation("a", "b", "c1", 10));
+        memTable.put(newAddMutation("a", "b", "c2", 20));
+        memTable.trim("a", "b", 1, Long.MIN_VALUE);
+
+        List<String> values = memTable.stream().map(rm -> rm.value).collect(Collectors.toList());
+        assertThat(values, is(newArrayList("c2", RowMutation.TOMBSTONE)));
+    }
+
+    @Test
+    public void shouldStreamInKeyOrderLatestVersionFirst() throws Exception {
+        MemTable memTable = newMemTable();
+        memTable.put(newAddMutation("b", "a", "v1", 1));
+        memTable.put(newAddMutation("a", "b", "v2", 2));
+        memTable.put(newAddMutation("a", "a", "v3", 3));
+        memTable.put(newAddMutation("a", "b", "v4", 4));
+
+        List<String> values = memTable.stream().map(rm -> rm.value).collect(Collectors.toList());
+        assertThat(values, is(newArrayList("v3", "v4", "v2", "v1")));
+
+        memTable.clear();
+        assertThat(memTable.isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldOrderKeysByUtf8Bytes() throws Exception {
+        MemTable memTable = newMemTable();
+        memTable.put(newAddMutation("\uD83D\uDE00", "cf:a", "emoji", 2));
+        memTable.put(newAddMutation("\uFF21", "cf:a", "fullwidth", 1));
+        memTable.put(newAddMutation("\uFF21", "cf:\uD83D\uDE00", "emoji column", 3));
+
+        List<String> values = memTable.stream().map(rm -> rm.value).collect(Collectors.toList());
+        assertThat(values, is(newArrayList("fullwidth", "emoji column", "emoji")));
+    }
+
+    @Test
+    public void shouldTrackSizeOfLiveVersions() throws Exception {
+        MemTable memTable = newMemTable();
+        memTable.put(newAddMutation("row", "cf:\u00e9", "value", 1));
+        assertThat(memTable.logicalSizeInBytes(), is(3L + 5 + 5 + 8));
+        long oneVersion = memTable.physicalSizeInBytes();
+        assertThat(oneVersion > memTable.logicalSizeInBytes(), is(true));
+
+        memTable.put(newAddMutation("row", "cf:\u00e9", "value", 2));
+        assertThat(memTable.logicalSizeInBytes(), is(2 * (3L + 5 + 5 + 8)));
+        assertThat(memTable.physicalSizeInBytes() >= oneVersion, is(true));
+
+        memTable.remove("row", "cf:\u00e9");
+        assertThat(memTable.logicalSizeInBytes(), is(0L));
+
+        memTable.clear();
+        assertThat(memTable.physicalSizeInBytes(), is(0L));
+    }
+
+    @Test
+    public void shouldKeepEveryVersionWrittenConcurrently() throws Exception {
+        int threads = 8;
+        int versionsPerThread = 10000;
+        MemTable memTable = newMemTable();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = newArrayList();
+            for (int thread = 0; thread < threads; thread++) {
+                int id = thread;
+                futures.add(executorService.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < versionsPerThread; i++) {
+                        memTable.put(newAddMutation("row" + (i % 100), "col", id + ":" + i, i));
+                        memTable.get("row" + (i % 100), "col", Long.MAX_VALUE).get();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executorService.shutdown();
+        }
+
+        assertThat(memTable.stream().count(), is((long) threads * versionsPerThread));
+        assertThat(memTable.size(), is(100));
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.djhworld.tablet;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Strings;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Stopwatch.createStarted;
+import static com.google.common.collect.Lists.newArrayList;
+import static io.github.djhworld.model.RowMutation.newAddMutation;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Mixed write and read throughput of a single mem table as the number of threads grows
+ */
+@Ignore
+public class MemTableThroughputTest {
+    private static final int OPERATIONS = 4_000_000;
+    private static final int ROWS = 100_000;
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+    @Test
+    public void testThroughputByThreadCount() throws Exception {
+        for (MemTableType memTableType : MemTableType.values()) {
+            System.out.println(memTableType + " Test");
+            System.out.println(Strings.repeat("-", 100));
+            System.out.println("threads\tms\toperations/sec");
+            for (int threads : THREADS) {
+                long elapsed = run(memTableType.newMemTable(), threads);
+                System.out.println(threads + "\t" + elapsed + "\t" + (OPERATIONS * 1000L / Math.max(1, elapsed)));
+            }
+            System.out.println("\n");
+        }
+    }
+
+    private long run(MemTable memTable, int threads) throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        int operationsPerThread = OPERATIONS / threads;
+        try {
+            List<Future<?>> futures = newArrayList();
+            for (int thread = 0; thread < threads; thread++) {
+                int offset = thread;
+                futures.add(executorService.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < operationsPerThread; i++) {
+                        String rowKey = "com.amazon.data.repository" + String.format("%08d", ((i * threads) + offset) % ROWS);
+                        // one write for every three reads
+                        if (i % 4 == 0)
+                            memTable.put(newAddMutation(rowKey, "key", "value" + i, i));
+                        else
+                            memTable.get(rowKey, "key", Long.MAX_VALUE);
+                    }
+                    return null;
+                }));
+            }
+
+            Stopwatch stopwatch = createStarted();
+            start.countDown();
+            for (Future<?> future : futures)
+                future.get();
+            return stopwatch.stop().elapsed(MILLISECONDS);
+        } finally {
+            executorService.shutdown();
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package io.github.djhworld.tablet;
 
 import com.amazonaws.services.s3.AmazonS3Client;
-import io.github.djhworld.log.CommitLog;
+import io.github.djhworld.log.TabletCommitLog;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -26,7 +26,7 @@ public class S3BasedTabletStoreTest {
     private TabletMetadataService mockedTabletMetadataService;
 
     @Mock
-    private CommitLog mockedCommitLog;
+    private TabletCommitLog mockedCommitLog;
 
     private TabletStore tabletStore;
 
@@ -1,8 +1,12 @@
 package io.github.djhworld.tablet;
 
+import com.google.common.collect.ImmutableMap;
 import io.github.djhworld.exception.TabletException;
-import io.github.djhworld.log.CommitLog;
+import io.github.djhworld.io.Source;
+import io.github.djhworld.log.TabletCommitLog;
+import io.github.djhworld.model.RowBatch;
 import io.github.djhworld.model.RowMutation;
+import io.github.djhworld.sstable.BlockCache;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InOrder;
@@ -12,15 +16,25 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import static com.google.common.collect.Lists.newArrayList;
 import static io.github.djhworld.Matchers.rowMutationMatcher;
+import static io.github.djhworld.io.CompressionType.SNAPPY;
 import static io.github.djhworld.model.RowMutation.newAddMutation;
 import static io.github.djhworld.model.RowMutation.newDeleteMutation;
 import static java.nio.file.Files.*;
 import static java.nio.file.Paths.get;
 import static java.util.Optional.empty;
 import static java.util.Optional.of;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
@@ -34,7 +48,7 @@ public class TabletTest {
     private TabletMetadataService mockedTabletMetadataService;
 
     @Mock
-    private CommitLog mockedCommitLog;
+    private TabletCommitLog mockedCommitLog;
     private FileBasedTabletStore source;
 
 
@@ -62,6 +76,7 @@ public class TabletTest {
         when(mockedTabletMetadataService.getTabletStore(eq("id"))).thenReturn(source);
         when(mockedTabletMetadataService.getCurrentCommitLog(eq("id"))).thenReturn(mockedCommitLog);
         when(mockedTabletMetadataService.getCurrentTabletGeneration(eq("id"))).thenReturn(1);
+        when(mockedTabletMetadataService.getCompressionCodecFor(eq("id"))).thenReturn(SNAPPY);
     }
 
     @Test
@@ -98,6 +113,28 @@ public class TabletTest {
         assertThat(tablet.get("row3", "col3"), is(empty()));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldReplayCommitLogOnExecutor() throws Exception {
+        ThreadPoolExecutor replayExecutor = new ThreadPoolExecutor(2, 2, 0L, MILLISECONDS, new LinkedBlockingQueue<>());
+        when(mockedCommitLog.exists()).thenReturn(true);
+        doAnswer(invocation -> {
+            Consumer<RowMutation> consumer = (Consumer<RowMutation>) invocation.getArguments()[2];
+            consumer.accept(newAddMutation("row1", "col1", "val1"));
+            consumer.accept(newDeleteMutation("row2", "col2"));
+            return null;
+        }).when(mockedCommitLog).replay(eq(replayExecutor), eq(2), any(Consumer.class));
+
+        try {
+            Tablet tablet = new Tablet("id", mockedTabletMetadataService, new BlockCache(), MemTableType.HEAP, replayExecutor);
+            verify(mockedCommitLog, never()).iterator();
+            assertThat(tablet.get("row1", "col1"), is(of("val1")));
+            assertThat(tablet.get("row2", "col2"), is(empty()));
+        } finally {
+            replayExecutor.shutdown();
+        }
+    }
+
     @Test
     public void shouldInsertRecords() throws Exception {
         Tablet tablet = new Tablet("id", mockedTabletMetadataService);
@@ -142,6 +179,42 @@ public class TabletTest {
         assertThat(tablet.get("a", "b"), is(of("c6")));
     }
 
+    @Test
+    public void shouldReturnLatestVersionAtOrBeforeTimestamp() throws Exception {
+        Tablet tablet = new Tablet("id", mockedTabletMetadataService);
+        tablet.apply(newAddMutation("a", "b", "c1", 10));
+        tablet.apply(newAddMutation("a", "b", "c2", 20));
+        tablet.flush();
+        tablet.apply(newAddMutation("a", "b", "c3", 30));
+
+        assertThat(tablet.get("a", "b", 5), is(empty()));
+        assertThat(tablet.get("a", "b", 15), is(of("c1")));
+        assertThat(tablet.get("a", "b", 25), is(of("c2")));
+        assertThat(tablet.get("a", "b", 30), is(of("c3")));
+        assertThat(tablet.get("z", "b", 30), is(empty()));
+    }
+
+    @Test
+    public void shouldNotReturnDeletedCellAtOrBeforeTimestamp() throws Exception {
+        Tablet tablet = new Tablet("id", mockedTabletMetadataService);
+        tablet.apply(newAddMutation("a", "b", "old"));
+        tablet.apply(newDeleteMutation("a", "b"));
+        long now = System.currentTimeMillis();
+        assertThat(tablet.get("a", "b", now), is(empty()));
+
+        tablet.flush();
+        assertThat(tablet.get("a", "b", now), is(empty()));
+
+        tablet.apply(newAddMutation("a", "c", "old"));
+        tablet.flush();
+        tablet.apply(newDeleteMutation("a", "c"));
+        assertThat(tablet.get("a", "c", now), is(empty()));
+
+        tablet.flush();
+        assertThat(tablet.get("a", "c", now), is(empty()));
+        assertThat(tablet.get("a", "c"), is(empty()));
+    }
+
     @Test
     public void shouldFlushMax3Versions() throws Exception {
         //TODO: need to get a thing that gets all versions for a key
@@ -157,6 +230,110 @@ public class TabletTest {
     }
 
 
+    @Test
+    public void shouldOnlyHoldVersionsKeptByRetentionPolicy() throws Exception {
+        when(mockedTabletMetadataService.getRetentionPoliciesFor(eq("id"))).thenReturn(ImmutableMap.of(
+                "counters", RetentionPolicy.maxVersions(1),
+                "events", RetentionPolicy.maxVersions(5).withTimeToLive(1, HOURS)
+        ));
+        Tablet tablet = new Tablet("id", mockedTabletMetadataService);
+        for (int i = 0; i < 1000; i++)
+            tablet.apply(newAddMutation("a", "counters:hits", String.valueOf(i)));
+
+        assertThat(tablet.memTableLogicalSizeInBytes(), is(1L + 13 + 3 + 8));
+        assertThat(tablet.get("a", "counters:hits"), is(of("999")));
+
+        tablet.apply(newAddMutation("a", "events:old", "expired", 10));
+        assertThat(tablet.get("a", "events:old"), is(empty()));
+        tablet.apply(newAddMutation("a", "events:new", "live"));
+        assertThat(tablet.get("a", "events:new"), is(of("live")));
+
+        tablet.flush();
+        assertThat(tablet.get("a", "counters:hits"), is(of("999")));
+        assertThat(tablet.get("a", "counters:hits", 0), is(empty()));
+        assertThat(tablet.get("a", "events:new"), is(of("live")));
+    }
+
+    @Test
+    public void shouldCommitRowBatchAsOneRecord() throws Exception {
+        Tablet tablet = new Tablet("id", mockedTabletMetadataService);
+        tablet.apply(newAddMutation("a", "cf:c", "old"));
+        RowBatch rowBatch = RowBatch.newRowBatch(newArrayList(
+                newAddMutation("a", "cf:a", "1"),
+                newAddMutation("a", "cf:b", "2"),
+                newDeleteMutation("a", "cf:c")
+        ));
+        tablet.apply(rowBatch);
+
+        assertThat(tablet.get("a", "cf:a"), is(of("1")));
+        assertThat(tablet.get("a", "cf:b"), is(of("2")));
+        assertThat(tablet.get("a", "cf:c"), is(empty()));
+        verify(mockedCommitLog, times(1)).commit(rowBatch);
+        verify(mockedCommitLog, times(1)).commit(any(RowMutation.class));
+    }
+
+    @Test
+    public void shouldNeverReadHalfOfRowBatch() throws Exception {
+        Tablet tablet = new Tablet("id", mockedTabletMetadataService);
+        tablet.apply(newAddMutation("a", "cf:a", "whole"));
+        AtomicBoolean writing = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 10000; i++) {
+                tablet.apply(RowBatch.newRowBatch(newArrayList(
+                        newAddMutation("a", "cf:a", "half"),
+                        newAddMutation("a", "cf:a", "whole")
+                )));
+            }
+            writing.set(false);
+        });
+        writer.start();
+
+        while (writing.get())
+            assertThat(tablet.get("a", "cf:a"), is(of("whole")));
+        writer.join();
+    }
+
+    @Test
+    public void shouldCommitAndApplyMutationsOfRowInSameOrder() throws Exception {
+        Tablet tablet = new Tablet("id", mockedTabletMetadataService);
+        List<String> committed = new CopyOnWriteArrayList<>();
+        CountDownLatch firstCommitting = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            RowMutation rowMutation = (RowMutation) invocation.getArguments()[0];
+            committed.add(rowMutation.value);
+            if ("first".equals(rowMutation.value)) {
+                firstCommitting.countDown();
+                releaseFirst.await();
+            }
+            return null;
+        }).when(mockedCommitLog).commit(any(RowMutation.class));
+
+        Thread first = new Thread(() -> tablet.apply(newAddMutation("a", "cf:a", "first")));
+        first.start();
+        firstCommitting.await();
+        Thread second = new Thread(() -> tablet.apply(newAddMutation("a", "cf:a", "second")));
+        second.start();
+
+        // the second write waits on the row lock until the first is in the mem table
+        second.join(100);
+        assertThat(committed, is(newArrayList("first")));
+
+        releaseFirst.countDown();
+        first.join();
+        second.join();
+        assertThat(committed, is(newArrayList("first", "second")));
+        assertThat(tablet.get("a", "cf:a"), is(of("second")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectRowBatchSpanningRows() throws Exception {
+        RowBatch.newRowBatch(newArrayList(
+                newAddMutation("a", "cf:a", "1"),
+                newAddMutation("b", "cf:a", "1")
+        ));
+    }
+
     @Test
     public void shouldReturnEmptyForRecordNotFound() throws Exception {
         Tablet tablet = new Tablet("id", mockedTabletMetadataService);
@@ -176,6 +353,31 @@ public class TabletTest {
         }
     }
 
+    @Test
+    public void shouldApplyAsyncBeforeCommitIsDurable() throws Exception {
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        when(mockedCommitLog.commitAsync(any(RowMutation.class))).thenReturn(durable);
+        Tablet tablet = new Tablet("id", mockedTabletMetadataService);
+
+        CompletableFuture<Void> applied = tablet.applyAsync(newAddMutation("a", "b", "c"));
+        assertThat(applied.isDone(), is(false));
+        assertThat(tablet.get("a", "b"), is(of("c")));
+
+        durable.complete(null);
+        assertThat(applied.isDone(), is(true));
+        verify(mockedCommitLog, never()).commit(any(RowMutation.class));
+    }
+
+    @Test
+    public void shouldFailAsyncApplyIfCommitCannotBeQueued() throws Exception {
+        when(mockedCommitLog.commitAsync(any(RowBatch.class))).thenThrow(new IllegalArgumentException("simulated"));
+        Tablet tablet = new Tablet("id", mockedTabletMetadataService);
+
+        CompletableFuture<Void> applied = tablet.applyAsync(RowBatch.newRowBatch(newArrayList(newAddMutation("a", "b", "c"))));
+        assertThat(applied.isCompletedExceptionally(), is(true));
+        assertThat(tablet.get("a", "b"), is(empty()));
+    }
+
     @Test
     public void shouldFlushToSSTable() throws Exception {
         Tablet tablet = new Tablet("id", mockedTabletMetadataService);
@@ -190,7 +392,54 @@ public class TabletTest {
         assertThat(tablet.get("a", "b"), is(of("c")));
         assertThat(tablet.get("c", "b"), is(of("a")));
 
-        verify(mockedCommitLog, times(1)).checkpoint();
+        verify(mockedCommitLog, times(1)).checkpoint(anyLong());
+    }
+
+
+    @Test
+    public void shouldFlushOffHeapMemTableToSSTable() throws Exception {
+        Tablet tablet = new Tablet("id", mockedTabletMetadataService, new BlockCache(), MemTableType.OFF_HEAP_ARENA);
+        tablet.apply(newAddMutation("a", "b", "c1"));
+        tablet.apply(newAddMutation("a", "b", "c2"));
+        tablet.apply(newDeleteMutation("c", "b"));
+
+        assertThat(tablet.size(), is(2));
+        assertThat(tablet.approximateMemTableSizeInBytes() > 0, is(true));
+        assertThat(tablet.get("a", "b"), is(of("c2")));
+        tablet.flush();
+
+        assertThat(tablet.size(), is(0));
+        assertThat(tablet.approximateMemTableSizeInBytes(), is(0L));
+        assertThat(tablet.get("a", "b"), is(of("c2")));
+        assertThat(tablet.get("c", "b"), is(empty()));
+    }
+
+
+    @Test
+    public void shouldKeepTakingWritesWhileFlushingInBackground() throws Exception {
+        when(mockedCommitLog.mark()).thenReturn(42L);
+        List<Runnable> flushes = newArrayList();
+        Tablet tablet = new Tablet("id", mockedTabletMetadataService);
+        tablet.apply(newAddMutation("a", "b", "c1"));
+
+        tablet.flushInBackground(flushes::add);
+        tablet.flushInBackground(flushes::add);
+        assertThat(flushes.size(), is(1));
+        assertThat(tablet.approximateMemTableSizeInBytes(), is(0L));
+
+        tablet.apply(newAddMutation("a", "b", "c2"));
+        tablet.apply(newAddMutation("c", "d", "e"));
+        assertThat(tablet.get("a", "b"), is(of("c2")));
+        assertThat(tablet.size(), is(3));
+
+        flushes.get(0).run();
+        assertThat(source.list(1).size(), is(1));
+        assertThat(tablet.size(), is(2));
+        assertThat(tablet.get("c", "d"), is(of("e")));
+        verify(mockedCommitLog, times(1)).checkpoint(42L);
+
+        tablet.flushInBackground(flushes::add);
+        assertThat(flushes.size(), is(2));
     }
 
 
@@ -248,6 +497,37 @@ public class TabletTest {
         assertThat(tablet.get(foo, bar2), is(of("v6")));
     }
 
+    @Test
+    public void shouldCloseSSTablesReplacedByCompaction() throws Exception {
+        TabletStore tabletStore = spy(source);
+        List<Source> opened = newArrayList();
+        doAnswer(invocation -> {
+            Source opening = spy((Source) invocation.callRealMethod());
+            opened.add(opening);
+            return opening;
+        }).when(tabletStore).get(anyInt(), any(Path.class));
+        when(mockedTabletMetadataService.getTabletStore(eq("id"))).thenReturn(tabletStore);
+
+        Tablet tablet = new Tablet("id", mockedTabletMetadataService);
+        tablet.apply(newAddMutation("foo", "bar1", "value1"));
+        tablet.flush();
+        tablet.apply(newAddMutation("foo", "bar2", "value2"));
+        tablet.flush();
+        assertThat(opened.size(), is(2));
+
+        when(mockedTabletMetadataService.getCurrentTabletGeneration(eq("id")))
+                .thenReturn(1)
+                .thenReturn(2);
+        tablet.compact();
+
+        assertThat(opened.size(), is(3));
+        verify(opened.get(0)).close();
+        verify(opened.get(1)).close();
+        verify(opened.get(2), never()).close();
+        assertThat(tablet.get("foo", "bar1"), is(of("value1")));
+        assertThat(tablet.get("foo", "bar2"), is(of("value2")));
+    }
+
     @Test
     public void shouldRemoveDeletedItemsOnCompaction() throws Exception {
         Tablet tablet = new Tablet("id", mockedTabletMetadataService);